@@ -0,0 +1,163 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.db.AvailabilityIndex;
+import scheduler.db.DoseLeaseManager;
+import scheduler.db.FirstAvailableStrategy;
+import scheduler.db.IdAllocator;
+import scheduler.db.LeastLoadedStrategy;
+import scheduler.db.ReservationEngine;
+import scheduler.storage.Storages;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Books appointments from many threads at once the way reserve does (choose a caregiver from the
+// AvailabilityIndex, book through the ReservationEngine) with each AssignmentStrategy, on a fresh
+// in-memory storage every iteration. Threads work on the same date at the same time, so the
+// collisions counter shows how often a booking collides with a concurrent one over the caregiver
+// it chose and has to be given someone else (with the database, a wait on that caregiver's
+// Availabilities row). Every iteration books half the caregiver days and then prints how evenly
+// the appointments ended up spread over the caregivers, so a strategy that favours some
+// caregivers leaves others idle.
+//
+// The score is the time of one batch of batchSize bookings on every thread.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = AssignmentBenchmark.batchSize)
+@Measurement(iterations = 10, batchSize = AssignmentBenchmark.batchSize)
+@Fork(1)
+@Threads(8)
+public class AssignmentBenchmark {
+
+    static final int batchSize = 3000;
+    private static final LocalDate firstDay = LocalDate.of(2030, 1, 1);
+
+    // caregivers free on exactly twice as many days as an iteration books
+    @State(Scope.Benchmark)
+    public static class Calendar {
+
+        @Param({"first-available", "least-loaded"})
+        public String strategy;
+
+        @Param({"50"})
+        public int caregivers;
+
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        ReservationEngine engine;
+        String vaccine;
+        int threads;
+        int days;
+        AtomicInteger next;
+
+        @Setup(Level.Iteration)
+        public void setUpCalendar(BenchmarkParams params) throws SQLException {
+            threads = params.getThreads();
+            int bookings = threads * Math.max(params.getWarmup().getBatchSize(), params.getMeasurement().getBatchSize());
+            days = (2 * bookings + caregivers - 1) / caregivers;
+
+            Storages.use(Storages.create("memory"));
+            Session session = new Session(new PrintStream(OutputStream.nullOutputStream()));
+            vaccine = "bench_v_" + Long.toString(System.nanoTime(), 36);
+            for (int i = 0; i < caregivers; i++) {
+                execute(session, "create_caregiver", "bench_c" + i, "pw");
+                execute(session, "login_caregiver", "bench_c" + i, "pw");
+                // upload_availability_range takes at most a year at a time
+                for (int from = 0; from < days; from += 365) {
+                    execute(session, "upload_availability_range", day(from), day(Math.min(days, from + 365) - 1));
+                }
+                execute(session, "logout");
+            }
+            execute(session, "login_caregiver", "bench_c0", "pw");
+            execute(session, "add_doses", vaccine, Integer.toString(bookings));
+            execute(session, "logout");
+            index.setStrategy(strategy.equals("least-loaded") ? new LeastLoadedStrategy() : new FirstAvailableStrategy());
+            index.load();
+            engine = new ReservationEngine(new IdAllocator(100), DoseLeaseManager.getInstance(), index);
+            next = new AtomicInteger();
+        }
+
+        @TearDown(Level.Iteration)
+        public void printSpread() throws SQLException {
+            Map<String, Integer> load = Storages.get().appointments().countByCaregiver();
+            List<Integer> counts = new ArrayList<>();
+            for (int i = 0; i < caregivers; i++) {
+                counts.add(load.getOrDefault("bench_c" + i, 0));
+            }
+            System.out.printf("%s: %d to %d appointments per caregiver%n", strategy,
+                    Collections.min(counts), Collections.max(counts));
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+
+        public int booked;
+        public int collisions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            booked = 0;
+            collisions = 0;
+        }
+    }
+
+    @Benchmark
+    public void reserve(Calendar calendar, Outcomes outcomes) throws SQLException {
+        int n = calendar.next.getAndIncrement();
+        // consecutive bookings, which run at the same time, are for the same date
+        Date d = Date.valueOf(firstDay.plusDays((n / calendar.threads) % calendar.days));
+        String chosen = calendar.index.choose(d);
+        if (chosen == null) {
+            return;
+        }
+        ReservationEngine.Result result = calendar.engine.reserve(d, calendar.vaccine, "bench_p", chosen);
+        boolean reserved = result.getStatus() == ReservationEngine.Status.RESERVED;
+        calendar.index.done(d, chosen, reserved ? result.getCaregiver() : null);
+        if (reserved) {
+            outcomes.booked++;
+            if (!result.getCaregiver().equals(chosen)) {
+                outcomes.collisions++;
+            }
+        }
+    }
+
+    // a command that doesn't go through would leave the calendar short, so it stops the run
+    private static void execute(Session session, String... tokens) {
+        Scheduler.execute(session, tokens);
+        if (session.hasFailed()) {
+            throw new IllegalStateException("Command failed: " + String.join(" ", tokens));
+        }
+    }
+
+    private static String day(int offset) {
+        return firstDay.plusDays(offset).toString();
+    }
+}
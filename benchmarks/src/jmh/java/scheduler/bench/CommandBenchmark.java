@@ -0,0 +1,205 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.db.AvailabilityIndex;
+import scheduler.model.Appointment;
+import scheduler.storage.Storages;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The command paths of the scheduler (login, search_caregiver_schedule, add_doses, reserve,
+// show_appointments, cancel), each run through Scheduler.execute the way the console runs it.
+// Commands that leave nothing used up are sampled one call at a time, so the percentiles show
+// outliers an average would hide. reserve and cancel use up caregiver days and appointments, so
+// they run in fixed batches of batchSize calls, each iteration getting exactly what its batch
+// needs beforehand; their score is the time of one batch.
+//
+// Runs against the in-memory storage backend by default so it needs no database; -p storage=jdbc
+// runs it against the database ConnectionManager points at instead. Add -prof gc for the bytes
+// allocated per command.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class CommandBenchmark {
+
+    private static final int batchSize = 2000;
+    private static final int caregivers = 50;
+    private static final LocalDate firstDay = LocalDate.of(2030, 1, 1);
+
+    // a scheduler with caregivers, a vaccine and a logged in patient with a page of appointments
+    @State(Scope.Thread)
+    public static class Scheduled {
+
+        @Param({"memory"})
+        public String storage;
+
+        // command output is thrown away so only the command itself is measured
+        Session session = new Session(new PrintStream(OutputStream.nullOutputStream()));
+        String patient;
+        String caregiver;
+        String vaccine;
+        // the days from firstDay up to this one have been uploaded
+        int days = 0;
+        int call = 0;
+
+        @Setup(Level.Trial)
+        public void setUpScheduler() throws SQLException {
+            Storages.use(Storages.create(storage));
+            AvailabilityIndex.getInstance().load();
+            String run = Long.toString(System.nanoTime(), 36);
+            patient = "bench_p_" + run;
+            caregiver = "bench_c_" + run;
+            vaccine = "bench_v_" + run;
+
+            for (int i = 0; i < caregivers; i++) {
+                execute(this, "create_caregiver", caregiver + i, "pw");
+            }
+            execute(this, "login_caregiver", caregiver + 0, "pw");
+            execute(this, "add_doses", vaccine, "1000000");
+            execute(this, "logout");
+            execute(this, "create_patient", patient, "pw");
+            // a year to search, and a page of appointments to show
+            upload(365);
+            execute(this, "login_patient", patient, "pw");
+            for (int i = 0; i < 20; i++) {
+                execute(this, "reserve", day(i), vaccine);
+            }
+        }
+
+        // makes every caregiver available on the next count days, returns the first of them
+        int upload(int count) {
+            int first = days;
+            boolean patientLoggedIn = session.getCurrentPatient() != null;
+            if (patientLoggedIn) {
+                execute(this, "logout");
+            }
+            for (int i = 0; i < caregivers; i++) {
+                execute(this, "login_caregiver", caregiver + i, "pw");
+                // upload_availability_range takes at most a year at a time
+                for (int from = first; from < first + count; from += 365) {
+                    int to = Math.min(first + count, from + 365) - 1;
+                    execute(this, "upload_availability_range", day(from), day(to));
+                }
+                execute(this, "logout");
+            }
+            if (patientLoggedIn) {
+                execute(this, "login_patient", patient, "pw");
+            }
+            days = first + count;
+            return first;
+        }
+    }
+
+    // a batch of free caregiver days for every iteration of reserve
+    @State(Scope.Thread)
+    public static class Bookable extends Scheduled {
+
+        int firstBookable;
+        int bookableDays;
+
+        @Setup(Level.Iteration)
+        public void setUpDays() {
+            bookableDays = (batchSize + caregivers - 1) / caregivers;
+            firstBookable = upload(bookableDays);
+            call = 0;
+        }
+    }
+
+    // a batch of appointments for every iteration of cancel
+    @State(Scope.Thread)
+    public static class Cancellable extends Scheduled {
+
+        List<Appointment> booked;
+
+        @Setup(Level.Iteration)
+        public void setUpAppointments() throws SQLException {
+            // the patient is left with only the appointments of this batch
+            for (Appointment appointment : Storages.get().appointments().findByPatient(patient)) {
+                execute(this, "cancel", Integer.toString(appointment.getAppointmentId()));
+            }
+            int first = upload((batchSize + caregivers - 1) / caregivers);
+            for (int i = 0; i < batchSize; i++) {
+                execute(this, "reserve", day(first + i % (days - first)), vaccine);
+            }
+            booked = Storages.get().appointments().findByPatient(patient);
+            call = 0;
+        }
+    }
+
+    @Benchmark
+    public void loginPatient(Scheduled scheduled) {
+        execute(scheduled, "logout");
+        execute(scheduled, "login_patient", scheduled.patient, "pw");
+    }
+
+    @Benchmark
+    public void searchCaregiverSchedule(Scheduled scheduled) {
+        execute(scheduled, "search_caregiver_schedule", day(scheduled.call++ % 365));
+    }
+
+    @Benchmark
+    public void showAppointments(Scheduled scheduled) {
+        execute(scheduled, "show_appointments");
+    }
+
+    @Benchmark
+    public void addDoses(Scheduled scheduled) {
+        if (scheduled.call++ == 0) {
+            execute(scheduled, "logout");
+            execute(scheduled, "login_caregiver", scheduled.caregiver + 0, "pw");
+        }
+        execute(scheduled, "add_doses", scheduled.vaccine, "1");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = batchSize)
+    @Measurement(iterations = 20, batchSize = batchSize)
+    public void reserve(Bookable bookable) {
+        int i = bookable.call++;
+        execute(bookable, "reserve", day(bookable.firstBookable + i % bookable.bookableDays), bookable.vaccine);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = batchSize)
+    @Measurement(iterations = 20, batchSize = batchSize)
+    public void cancel(Cancellable cancellable) {
+        Appointment appointment = cancellable.booked.get(cancellable.call++);
+        execute(cancellable, "cancel", Integer.toString(appointment.getAppointmentId()));
+    }
+
+    // a command that doesn't go through would measure its failure path instead, so it stops the run
+    private static void execute(Scheduled scheduled, String... tokens) {
+        Scheduler.execute(scheduled.session, tokens);
+        if (scheduled.session.hasFailed()) {
+            throw new IllegalStateException("Command failed: " + String.join(" ", tokens));
+        }
+    }
+
+    private static String day(int offset) {
+        return firstDay.plusDays(offset).toString();
+    }
+}
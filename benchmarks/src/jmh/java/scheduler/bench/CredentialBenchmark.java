@@ -0,0 +1,62 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.util.CredentialService;
+import scheduler.util.Util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+// The per-call Util.generateSalt/generateHash against CredentialService, one salt and hash at a
+// time on one thread, then logins verified through CredentialService's worker pool, 200 at a
+// time. Needs no database. Add -prof gc for the bytes allocated per salt and hash.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class CredentialBenchmark {
+
+    private static final int logins = 200;
+
+    private final CredentialService credentials = CredentialService.getInstance();
+    private byte[] salt;
+    private byte[] stored;
+
+    @Setup
+    public void setUp() {
+        salt = credentials.generateSalt();
+        stored = credentials.computeHash("password", salt);
+    }
+
+    @Benchmark
+    public byte[] utilSaltAndHash() {
+        return Util.generateHash("password", Util.generateSalt());
+    }
+
+    @Benchmark
+    public byte[] credentialServiceSaltAndHash() {
+        return credentials.computeHash("password", credentials.generateSalt());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(logins)
+    public void verifyThroughPool() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[logins];
+        for (int i = 0; i < logins; i++) {
+            futures[i] = credentials.verifyAsync("password", salt, stored);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
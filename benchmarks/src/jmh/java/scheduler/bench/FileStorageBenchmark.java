@@ -0,0 +1,203 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.storage.file.FileStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// The file storage: how fast bookings from many threads become durable (each waits for its
+// fsync, which the threads waiting at the same time share), how long a snapshot takes, and how
+// long it takes to open the store again from the snapshot plus the log written after it. Works
+// in temporary directories, on the file system they are created on, and deletes them after.
+//
+// book runs in batches of batchSize bookings on every thread, on a fresh store every iteration;
+// its score is the time of one batch. snapshot and reopen run on a store of -p appointments
+// appointments, with a tenth as many more logged after its snapshot for reopen to replay. They
+// measure one snapshot or reopen at a time, so pass -t only when running FileStorageBenchmark.book.
+@Fork(1)
+public class FileStorageBenchmark {
+
+    static final int batchSize = 500;
+    private static final LocalDate firstDay = LocalDate.of(2030, 1, 1);
+    private static final int days = 1000;
+
+    // an empty store with caregivers enough for every booking of an iteration
+    @State(Scope.Benchmark)
+    public static class Empty {
+
+        FileStorage storage;
+        Path dir;
+        AtomicInteger nextId;
+
+        @Setup(Level.Iteration)
+        public void setUpStore(BenchmarkParams params) throws SQLException, IOException {
+            int bookings = params.getThreads() * Math.max(params.getWarmup().getBatchSize(),
+                    params.getMeasurement().getBatchSize());
+            dir = Files.createTempDirectory("file-storage-bench");
+            storage = open(dir);
+            fill(storage, bookings);
+            nextId = new AtomicInteger(1);
+        }
+
+        @TearDown(Level.Iteration)
+        public void deleteStore() throws IOException {
+            delete(dir);
+        }
+    }
+
+    // a store with a snapshot and a log written after it
+    @State(Scope.Benchmark)
+    public static class Filled {
+
+        @Param({"200000"})
+        public int appointments;
+
+        FileStorage storage;
+        Path dir;
+
+        @Setup
+        public void setUpStore() throws Exception {
+            int tail = appointments / 10;
+            dir = Files.createTempDirectory("file-storage-bench");
+            storage = open(dir);
+            fill(storage, appointments + tail);
+            AtomicInteger nextId = new AtomicInteger(1);
+            bookInParallel(storage, nextId, appointments);
+            storage.snapshot();
+            bookInParallel(storage, nextId, tail);
+            long size = 0;
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    size += Files.size(file);
+                }
+            }
+            System.out.printf("%.1f MB on disk%n", size / 1e6);
+        }
+
+        @TearDown
+        public void deleteStore() throws IOException {
+            delete(dir);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3, batchSize = batchSize)
+    @Measurement(iterations = 10, batchSize = batchSize)
+    @Threads(32)
+    public void book(Empty empty) throws SQLException {
+        book(empty.storage, empty.nextId.getAndIncrement());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public void snapshot(Filled filled) throws SQLException, IOException {
+        filled.storage.snapshot();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public long reopen(Filled filled) throws SQLException, IOException {
+        FileStorage reopened = open(filled.dir);
+        long recovered = 0;
+        for (int count : reopened.appointments().countByCaregiver().values()) {
+            recovered += count;
+        }
+        if (recovered != filled.appointments + filled.appointments / 10) {
+            throw new IllegalStateException("Recovered " + recovered + " appointments");
+        }
+        return recovered;
+    }
+
+    private static FileStorage open(Path dir) throws SQLException, IOException {
+        FileStorage storage = new FileStorage(dir, Long.MAX_VALUE);
+        storage.migrate();
+        return storage;
+    }
+
+    // a patient, a vaccine and caregivers free on the days enough for the given bookings
+    private static void fill(FileStorage storage, int bookings) throws SQLException {
+        int caregivers = (bookings + days - 1) / days;
+        List<Date> dates = new ArrayList<>();
+        for (int i = 0; i < days; i++) {
+            dates.add(Date.valueOf(firstDay.plusDays(i)));
+        }
+        for (int i = 0; i < caregivers; i++) {
+            storage.caregivers().save(new Caregiver.CaregiverBuilder("bench_c" + i, new byte[16], new byte[16]).build());
+            storage.availabilities().addAll("bench_c" + i, dates);
+        }
+        storage.patients().save(new Patient.PatientBuilder("bench_p", new byte[16], new byte[16]).build());
+        storage.vaccines().save(new Vaccine.VaccineBuilder("bench_v", bookings).build());
+    }
+
+    // each booking spread over the days
+    private static void book(FileStorage storage, int id) throws SQLException {
+        Date d = Date.valueOf(firstDay.plusDays(id % days));
+        if (storage.appointments().book(id, d, "bench_v", "bench_p", null) == null) {
+            throw new IllegalStateException("Nobody left on " + d);
+        }
+    }
+
+    // from many threads, so the bookings share their fsyncs and filling the store doesn't take long
+    private static void bookInParallel(FileStorage storage, AtomicInteger nextId, int count) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        try {
+            List<Future<?>> bookings = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                bookings.add(pool.submit(() -> {
+                    book(storage, nextId.getAndIncrement());
+                    return null;
+                }));
+            }
+            for (Future<?> booking : bookings) {
+                booking.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
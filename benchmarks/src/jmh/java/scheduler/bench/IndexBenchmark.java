@@ -0,0 +1,157 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.db.ConnectionManager;
+import scheduler.storage.jdbc.JdbcStorage;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+// The lookups behind show_appointments, cancel and search_caregiver_schedule on a seeded dataset,
+// with the indexes from schema version 2 and, with -p clusteredOnly=true, with the query forced
+// onto the clustered index (WITH (INDEX(0))), which is what the lookup costs without them. The
+// plan SQL Server chooses is printed before each run.
+//
+// Needs the database ConnectionManager points at, migrated to version 2. The seeded rows all carry
+// a bench_ prefix and are deleted again after each run.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+    private static final int patients = 100_000;
+    private static final int caregivers = 2_000;
+    private static final int days = 365;
+
+    @Param({"2000000"})
+    public int appointments;
+
+    @Param({"patientAppointments", "caregiverAppointments", "cancel", "searchCaregiverSchedule"})
+    public String lookup;
+
+    @Param({"false", "true"})
+    public boolean clusteredOnly;
+
+    private ConnectionManager cm;
+    private Statement statement;
+    private String run;
+    private String query;
+
+    @Setup
+    public void seed() throws SQLException {
+        run = "bench_" + Long.toString(System.currentTimeMillis(), 36) + "_";
+        cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException("No database connection available");
+        }
+        statement = con.createStatement();
+        statement.setQueryTimeout(0);
+        long first = new JdbcStorage().appointments().nextIdBlock(appointments);
+        seed(first);
+
+        String table = clusteredOnly ? " WITH (INDEX(0))" : "";
+        switch (lookup) {
+            case "patientAppointments":
+                query = "SELECT aid, vaccine_name, Time, caregiver_name FROM Appointments" + table +
+                        " WHERE patient_name = '" + run + "p" + (patients / 2) + "' ORDER BY aid";
+                break;
+            case "caregiverAppointments":
+                query = "SELECT aid, vaccine_name, Time, patient_name FROM Appointments" + table +
+                        " WHERE caregiver_name = '" + run + "c" + (caregivers / 2) + "' ORDER BY aid";
+                break;
+            case "cancel":
+                query = "SELECT Time, caregiver_name, vaccine_name FROM Appointments" + table +
+                        " WHERE aid = " + (first + appointments / 2);
+                break;
+            default:
+                query = "SELECT Username FROM Availabilities" + table + " WHERE Time = '2030-07-01'";
+                break;
+        }
+        printPlan();
+    }
+
+    @TearDown
+    public void cleanUp() throws SQLException {
+        try {
+            String like = " LIKE '" + run + "%'";
+            statement.executeUpdate("DELETE FROM Appointments WHERE vaccine_name" + like);
+            statement.executeUpdate("DELETE FROM Availabilities WHERE Username" + like);
+            statement.executeUpdate("DELETE FROM Patients WHERE Username" + like);
+            statement.executeUpdate("DELETE FROM Caregivers WHERE Username" + like);
+            statement.executeUpdate("DELETE FROM Vaccines WHERE Name" + like);
+            statement.close();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Benchmark
+    public int lookup() throws SQLException {
+        int rows = 0;
+        try (ResultSet resultSet = statement.executeQuery(query)) {
+            while (resultSet.next()) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    // set-based inserts from a generated number sequence, so seeding millions of rows takes
+    // seconds rather than millions of round trips
+    private void seed(long first) throws SQLException {
+        String numbers = "WITH N AS (SELECT TOP (%d) ROW_NUMBER() OVER (ORDER BY (SELECT NULL)) - 1 AS i " +
+                "FROM sys.all_objects a CROSS JOIN sys.all_objects b CROSS JOIN sys.all_objects c) ";
+        statement.executeUpdate("INSERT INTO Vaccines VALUES ('" + run + "v', 0)");
+        statement.executeUpdate(String.format(numbers, patients) +
+                "INSERT INTO Patients SELECT CONCAT('" + run + "p', i), 0x00, 0x00 FROM N");
+        statement.executeUpdate(String.format(numbers, caregivers) +
+                "INSERT INTO Caregivers SELECT CONCAT('" + run + "c', i), 0x00, 0x00 FROM N");
+        statement.executeUpdate(String.format(numbers, caregivers * days) +
+                "INSERT INTO Availabilities SELECT DATEADD(day, i / " + caregivers + ", '2030-01-01'), " +
+                "CONCAT('" + run + "c', i % " + caregivers + ") FROM N");
+        statement.executeUpdate(String.format(numbers, appointments) +
+                "INSERT INTO Appointments SELECT " + first + " + i, '" + run + "v', " +
+                "CONCAT('" + run + "p', i % " + patients + "), CONCAT('" + run + "c', i % " + caregivers + "), " +
+                "DATEADD(day, i % " + days + ", '2030-01-01') FROM N");
+        statement.execute("UPDATE STATISTICS Appointments; UPDATE STATISTICS Availabilities;");
+    }
+
+    private void printPlan() throws SQLException {
+        System.out.println("Plan for " + lookup + (clusteredOnly ? " (clustered index only)" : "") + ":");
+        statement.execute("SET SHOWPLAN_TEXT ON");
+        try {
+            // the first result set echoes the query, the second one holds the plan
+            statement.execute(query);
+            do {
+                try (ResultSet plan = statement.getResultSet()) {
+                    while (plan != null && plan.next()) {
+                        String line = plan.getString(1);
+                        if (!line.trim().startsWith("SELECT")) {
+                            System.out.println("    " + line.trim());
+                        }
+                    }
+                }
+            } while (statement.getMoreResults() || statement.getUpdateCount() != -1);
+        } finally {
+            statement.execute("SET SHOWPLAN_TEXT OFF");
+        }
+    }
+}
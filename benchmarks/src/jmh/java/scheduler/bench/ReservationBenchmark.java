@@ -0,0 +1,152 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+import scheduler.db.AvailabilityIndex;
+import scheduler.db.DoseLeaseManager;
+import scheduler.db.IdAllocator;
+import scheduler.db.ReservationEngine;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.storage.AppointmentRepository;
+import scheduler.storage.AvailabilityRepository;
+import scheduler.storage.Storage;
+import scheduler.storage.Storages;
+import scheduler.storage.UserRepository;
+import scheduler.storage.VaccineRepository;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// How reservation throughput grows with the number of distinct dates being booked. Every thread
+// books and straight away cancels appointments through the ReservationEngine, the threads spread
+// over -p dates dates. Bookings on the same date take turns on the date's lock while
+// bookings on different dates don't, so throughput should grow with the dates until every thread
+// has a date to itself. Runs on the in-memory storage with a simulated round trip added to every
+// booking and cancellation, which stands in for the database.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class ReservationBenchmark {
+
+    private static final LocalDate firstDay = LocalDate.of(2030, 1, 1);
+    private static final String vaccine = "bench_v";
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+
+        @Param({"1", "2", "4", "8", "16"})
+        public int dates;
+
+        @Param({"2"})
+        public long roundTripMillis;
+
+        ReservationEngine engine;
+
+        @Setup
+        public void setUpEngine(BenchmarkParams params) throws SQLException {
+            int threads = params.getThreads();
+            Storages.use(withRoundTrip(Storages.create("memory"), roundTripMillis));
+            Storage storage = Storages.get();
+            storage.vaccines().save(new Vaccine.VaccineBuilder(vaccine, 1_000_000).build());
+            storage.patients().save(new Patient.PatientBuilder("bench_p", new byte[1], new byte[1]).build());
+            List<Date> all = new ArrayList<>();
+            for (int i = 0; i < dates; i++) {
+                all.add(Date.valueOf(firstDay.plusDays(i)));
+            }
+            // a caregiver per thread on every date, so a date never runs out
+            for (int i = 0; i < threads; i++) {
+                storage.caregivers().save(new Caregiver.CaregiverBuilder("bench_c" + i, new byte[1], new byte[1]).build());
+                storage.availabilities().addAll("bench_c" + i, all);
+            }
+            AvailabilityIndex index = AvailabilityIndex.getInstance();
+            index.load();
+            engine = new ReservationEngine(new IdAllocator(1000), DoseLeaseManager.getInstance(), index);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class OwnDate {
+
+        Date date;
+
+        @Setup
+        public void pickDate(Engine engine, ThreadParams thread) {
+            date = Date.valueOf(firstDay.plusDays(thread.getThreadIndex() % engine.dates));
+        }
+    }
+
+    @Benchmark
+    public void reserveAndCancel(Engine engine, OwnDate own) throws SQLException {
+        ReservationEngine.Result result = engine.engine.reserve(own.date, vaccine, "bench_p");
+        if (result.getStatus() != ReservationEngine.Status.RESERVED) {
+            throw new IllegalStateException("Not reserved on " + own.date + ": " + result.getStatus());
+        }
+        engine.engine.cancel(result.getAppointmentId());
+        DoseLeaseManager.getInstance().release(vaccine);
+    }
+
+    // the storage with a pause before every booking and cancellation
+    private static Storage withRoundTrip(Storage storage, long millis) {
+        AppointmentRepository appointments = (AppointmentRepository) Proxy.newProxyInstance(
+                AppointmentRepository.class.getClassLoader(), new Class<?>[]{AppointmentRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("book") || method.getName().equals("cancel")) {
+                        Thread.sleep(millis);
+                    }
+                    try {
+                        return method.invoke(storage.appointments(), args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        return new Storage() {
+            @Override
+            public UserRepository<Patient> patients() {
+                return storage.patients();
+            }
+
+            @Override
+            public UserRepository<Caregiver> caregivers() {
+                return storage.caregivers();
+            }
+
+            @Override
+            public AvailabilityRepository availabilities() {
+                return storage.availabilities();
+            }
+
+            @Override
+            public VaccineRepository vaccines() {
+                return storage.vaccines();
+            }
+
+            @Override
+            public AppointmentRepository appointments() {
+                return appointments;
+            }
+        };
+    }
+}
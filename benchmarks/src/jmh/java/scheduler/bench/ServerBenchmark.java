@@ -0,0 +1,87 @@
+package scheduler.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.SchedulerServer;
+import scheduler.storage.Storages;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Many clients at once against a SchedulerServer in the same process, each benchmark thread a
+// client that opens a session, sends it a few commands (a search without login, an unknown
+// command, quit) and reads until the server closes it. The score is the time of one whole
+// session. Runs on the in-memory storage; -t sets the number of clients.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@Threads(64)
+@State(Scope.Benchmark)
+public class ServerBenchmark {
+
+    private static final String[] commands = {"search_caregiver_schedule 2030-06-01", "no_such_command", "quit"};
+
+    private SchedulerServer server;
+
+    @Setup
+    public void startServer() throws InterruptedException {
+        Storages.use(Storages.create("memory"));
+        server = new SchedulerServer(0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, "server");
+        serving.setDaemon(true);
+        serving.start();
+        while (server.getLocalPort() < 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Benchmark
+    public void session() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            for (String command : commands) {
+                out.println(command);
+            }
+            boolean sawBye = false;
+            String line;
+            while ((line = in.readLine()) != null) {
+                sawBye |= line.endsWith("Bye!");
+            }
+            // a session the server cut short would measure its failure path instead
+            if (!sawBye) {
+                throw new IllegalStateException("Session ended before quit");
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+-- Indexes for the lookups the scheduler makes, and named, NOT NULL foreign keys.
+--
+-- Appointments is clustered on aid, which already serves cancel. show_appointments reads
+-- a patient's or a caregiver's appointments ordered by aid; these indexes return them in that
+-- order and cover every column it prints, so neither lookup touches the clustered index.
+-- Availabilities is clustered on (Time, Username), which already serves reserve and
+-- search_caregiver_schedule; the index by Username serves the caregiver foreign key.
+
+-- create.sql allowed NULLs in the columns tightened below. A vaccine without a dose count has
+-- no doses. An appointment without a vaccine, patient, caregiver or date can't be repaired
+-- here, so the version stops before changing anything and leaves those rows to be fixed by hand.
+UPDATE Vaccines SET Doses = 0 WHERE Doses IS NULL;
+IF EXISTS (SELECT * FROM Appointments
+           WHERE vaccine_name IS NULL OR patient_name IS NULL OR caregiver_name IS NULL OR Time IS NULL)
+    THROW 50000, N'Appointments has rows with a NULL vaccine_name, patient_name, caregiver_name or Time. Fix or delete them, then start the scheduler again.', 1;
+GO
+
+-- foreign key columns can't change nullability, so drop the unnamed keys, tighten the
+-- columns and add the keys back under names
+DECLARE @drop nvarchar(max) = N'';
+SELECT @drop += N'ALTER TABLE ' + QUOTENAME(OBJECT_NAME(parent_object_id)) +
+                N' DROP CONSTRAINT ' + QUOTENAME(name) + N'; '
+FROM sys.foreign_keys
+WHERE parent_object_id IN (OBJECT_ID(N'Appointments'), OBJECT_ID(N'Availabilities'));
+EXEC sp_executesql @drop;
+GO
+
+ALTER TABLE Appointments ALTER COLUMN vaccine_name varchar(255) NOT NULL;
+ALTER TABLE Appointments ALTER COLUMN patient_name varchar(255) NOT NULL;
+ALTER TABLE Appointments ALTER COLUMN caregiver_name varchar(255) NOT NULL;
+ALTER TABLE Appointments ALTER COLUMN Time date NOT NULL;
+ALTER TABLE Vaccines ALTER COLUMN Doses int NOT NULL;
+GO
+
+ALTER TABLE Appointments ADD
+    CONSTRAINT FK_Appointments_Vaccines FOREIGN KEY (vaccine_name) REFERENCES Vaccines (Name),
+    CONSTRAINT FK_Appointments_Patients FOREIGN KEY (patient_name) REFERENCES Patients (Username),
+    CONSTRAINT FK_Appointments_Caregivers FOREIGN KEY (caregiver_name) REFERENCES Caregivers (Username);
+ALTER TABLE Availabilities ADD
+    CONSTRAINT FK_Availabilities_Caregivers FOREIGN KEY (Username) REFERENCES Caregivers (Username);
+ALTER TABLE Vaccines ADD
+    CONSTRAINT CK_Vaccines_Doses CHECK (Doses >= 0);
+GO
+
+CREATE INDEX IX_Appointments_Patient ON Appointments (patient_name, aid)
+    INCLUDE (vaccine_name, caregiver_name, Time);
+CREATE INDEX IX_Appointments_Caregiver ON Appointments (caregiver_name, aid)
+    INCLUDE (vaccine_name, patient_name, Time);
+CREATE INDEX IX_Availabilities_Username ON Availabilities (Username, Time);
+GO
@@ -0,0 +1,15 @@
+-- Appointment ids are allocated in blocks (see scheduler.db.IdAllocator): each scheduler
+-- process reserves a range of this sequence with sp_sequence_get_range and owns those ids.
+--
+-- The sequence starts above the highest aid already in the table, so databases created from
+-- the original create.sql keep their appointments. START WITH only takes a constant, hence the
+-- dynamic SQL. A database that already has the sequence is left as it is.
+IF OBJECT_ID(N'AppointmentIds', N'SO') IS NULL
+BEGIN
+    DECLARE @start int = (SELECT ISNULL(MAX(aid), 0) + 1 FROM Appointments);
+    DECLARE @create nvarchar(max) =
+        N'CREATE SEQUENCE AppointmentIds AS int START WITH ' + CAST(@start AS nvarchar(11)) +
+        N' INCREMENT BY 1;';
+    EXEC sp_executesql @create;
+END
+GO
@@ -0,0 +1,187 @@
+package scheduler;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs a script of scheduler commands, one per line, without prompting, e.g.
+// `java scheduler.Scheduler --batch commands.txt` or `... --batch - < commands.txt`. Blank lines
+// and lines starting with # are skipped, each command is echoed before its output, and quit ends
+// the script early. At the end a summary of how many commands succeeded and failed is printed.
+//
+// With more than one job, independent parts of the script run at the same time: everything from
+// a login_* up to its logout is one part, and every command outside a login is a part of its own.
+// Parts may then run in any order, though their output is still printed in script order. A line
+// reading sync waits for everything before it to finish, so a part that depends on an earlier one
+// (logging in as a user created above, say) goes after a sync.
+public class BatchRunner {
+
+    private final PrintStream out;
+    private final int jobs;
+
+    private int commands = 0;
+    private int failures = 0;
+
+    public BatchRunner(PrintStream out, int jobs) {
+        this.out = out;
+        this.jobs = Math.max(1, jobs);
+    }
+
+    // runs the whole script, returns true if every command in it succeeded
+    public boolean run(BufferedReader script) throws IOException {
+        long start = System.nanoTime();
+        if (jobs == 1) {
+            runSequential(script);
+        } else {
+            runParallel(script);
+        }
+        out.printf("Ran %d commands: %d succeeded, %d failed in %.3f s%n",
+                commands, commands - failures, failures, (System.nanoTime() - start) / 1e9);
+        out.flush();
+        return failures == 0;
+    }
+
+    private void runSequential(BufferedReader script) throws IOException {
+        Session session = new Session(out);
+        String line;
+        while ((line = script.readLine()) != null) {
+            String[] tokens = Scheduler.tokenize(line);
+            if (skip(tokens) || tokens[0].equals("sync")) {
+                continue;
+            }
+            if (tokens[0].equals("quit")) {
+                return;
+            }
+            runCommand(session, line, tokens);
+        }
+    }
+
+    private void runParallel(BufferedReader script) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        // parts submitted but not printed yet, oldest first; bounded so a long script is not
+        // read into memory all at once
+        ArrayDeque<Future<Part>> pending = new ArrayDeque<>();
+        try {
+            Part part = null;
+            String line;
+            while ((line = script.readLine()) != null) {
+                String[] tokens = Scheduler.tokenize(line);
+                if (skip(tokens)) {
+                    continue;
+                }
+                String operation = tokens[0];
+                if (operation.equals("quit")) {
+                    break;
+                }
+                if (operation.equals("sync")) {
+                    if (part != null) {
+                        pending.add(executor.submit(part::run));
+                        part = null;
+                    }
+                    drain(pending, 0);
+                    continue;
+                }
+                if (part == null) {
+                    part = new Part();
+                    part.add(line, tokens);
+                    if (operation.equals("login_patient") || operation.equals("login_caregiver")) {
+                        // the rest of the login joins this part
+                        continue;
+                    }
+                } else {
+                    part.add(line, tokens);
+                    if (!operation.equals("logout")) {
+                        continue;
+                    }
+                }
+                pending.add(executor.submit(part::run));
+                part = null;
+                drain(pending, jobs * 4);
+            }
+            if (part != null) {
+                pending.add(executor.submit(part::run));
+            }
+            drain(pending, 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // prints finished parts in order until at most max are left pending
+    private void drain(ArrayDeque<Future<Part>> pending, int max) throws IOException {
+        while (pending.size() > max) {
+            Part part;
+            try {
+                part = pending.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while running the script", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Script command failed unexpectedly", e.getCause());
+            }
+            part.output.writeTo(out);
+            commands += part.commands;
+            failures += part.failures;
+        }
+    }
+
+    private void runCommand(Session session, String line, String[] tokens) {
+        commands++;
+        if (!execute(session, line, tokens)) {
+            failures++;
+        }
+    }
+
+    // echoes and runs one command, returns whether it succeeded; a command that throws counts
+    // as failed and the script goes on with the next one
+    private static boolean execute(Session session, String line, String[] tokens) {
+        session.out.println("> " + line.trim());
+        try {
+            Scheduler.execute(session, tokens);
+        } catch (RuntimeException e) {
+            session.fail("Please try again!");
+            e.printStackTrace();
+            return false;
+        }
+        return !session.hasFailed();
+    }
+
+    private static boolean skip(String[] tokens) {
+        return tokens.length == 0 || tokens[0].startsWith("#");
+    }
+
+    // commands that run one after another in a session of their own, their output kept until
+    // it is their turn to be printed
+    private static class Part {
+        private final List<String> lines = new ArrayList<>();
+        private final List<String[]> tokens = new ArrayList<>();
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private int commands = 0;
+        private int failures = 0;
+
+        private void add(String line, String[] words) {
+            lines.add(line);
+            tokens.add(words);
+        }
+
+        private Part run() {
+            Session session = new Session(new PrintStream(output, false));
+            for (int i = 0; i < lines.size(); i++) {
+                commands++;
+                if (!execute(session, lines.get(i), tokens.get(i))) {
+                    failures++;
+                }
+            }
+            session.out.flush();
+            return this;
+        }
+    }
+}
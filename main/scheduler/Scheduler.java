@@ -1,204 +1,461 @@
 package scheduler;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.AppointmentCache;
+import scheduler.db.AvailabilityIndex;
+import scheduler.db.BatchResult;
+import scheduler.db.DoseLeaseManager;
+import scheduler.db.IdAllocator;
+import scheduler.db.ReportCounters;
+import scheduler.db.ReservationEngine;
+import scheduler.db.UserImporter;
+import scheduler.db.Waitlist;
+import scheduler.metrics.LatencyHistogram;
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
 import scheduler.model.Patient;
 import scheduler.model.Vaccine;
-import scheduler.util.Util;
+import scheduler.storage.AppointmentFilter;
+import scheduler.storage.AppointmentPage;
+import scheduler.storage.Storages;
+import scheduler.util.CredentialService;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    private static final IdAllocator appointmentIds = new IdAllocator(50);
+    private static final DoseLeaseManager doseLeases = DoseLeaseManager.getInstance();
+    private static final AvailabilityIndex availabilityIndex = AvailabilityIndex.getInstance();
+    private static final AppointmentCache appointmentCache = AppointmentCache.getInstance();
+    private static final ReportCounters reportCounters = ReportCounters.getInstance();
+    private static final ReservationEngine reservationEngine =
+            new ReservationEngine(appointmentIds, doseLeases, availabilityIndex);
+    private static final Waitlist waitlist = new Waitlist(reservationEngine, doseLeases);
+    private static final CredentialService credentials = CredentialService.getInstance();
+    private static final Metrics metrics = Metrics.getInstance();
+
+    // appointments shown by show_appointments unless a limit is given, and the most it shows at once
+    private static final int defaultPageSize = 100;
+    private static final int maxPageSize = 1000;
+
+    private static final Set<String> operations = Set.of("create_patient", "create_caregiver", "import_users",
+            "login_patient", "login_caregiver", "search_caregiver_schedule", "search_open_days", "reserve", "upload_availability",
+            "upload_availability_list", "upload_availability_range", "cancel", "cancel_bulk", "add_doses", "add_doses_bulk",
+            "show_appointments", "waitlist", "report", "logout", "stats", "quit");
 
     public static void main(String[] args) {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  
-        System.out.println("> reserve <date> <vaccine>"); 
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments"); 
-        System.out.println("> logout");  
-        System.out.println("> quit");
-        System.out.println();
+        // --storage <jdbc|memory|file> picks the storage backend, otherwise the Storage environment variable does
+        if (args.length > 1 && args[0].equals("--storage")) {
+            try {
+                Storages.use(Storages.create(args[1]));
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
+        // bring the schema up to date before anything reads from it
+        try {
+            Storages.get().migrate();
+        } catch (SQLException | IOException e) {
+            System.out.println("Could not migrate the database schema");
+            e.printStackTrace();
+        }
+
+        // load the availability index up front; if this fails it is loaded on first use instead
+        try {
+            availabilityIndex.load();
+        } catch (SQLException e) {
+            System.out.println("Could not load caregiver availability, will retry on first use");
+        }
+
+        // server mode: serve many clients over a local socket instead of the console
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = SchedulerServer.DEFAULT_PORT;
+            if (args.length > 1) {
+                try {
+                    port = Integer.parseInt(args[1]);
+                } catch (NumberFormatException e) {
+                    printUsage();
+                    return;
+                }
+            }
+            try {
+                new SchedulerServer(port).serve();
+            } catch (IOException e) {
+                System.out.println("Could not start server on port " + port);
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        // batch mode: run the commands in a file (or standard input for -) and exit, with
+        // --jobs <n> running independent parts of it at the same time
+        if (args.length > 0 && args[0].equals("--batch")) {
+            String file = args.length > 1 && !args[1].startsWith("--") ? args[1] : "-";
+            int jobs = 1;
+            int jobsAt = Arrays.asList(args).indexOf("--jobs");
+            if (jobsAt >= 0 && jobsAt + 1 < args.length) {
+                try {
+                    jobs = Integer.parseInt(args[jobsAt + 1]);
+                } catch (NumberFormatException e) {
+                    printUsage();
+                    System.exit(2);
+                }
+            }
+            PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+            boolean succeeded = false;
+            try (BufferedReader script = file.equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in))
+                    : Files.newBufferedReader(Paths.get(file))) {
+                succeeded = new BatchRunner(out, jobs).run(script);
+            } catch (IOException e) {
+                out.println("Could not run script " + file);
+                e.printStackTrace(out);
+            } finally {
+                // whatever ran is printed, however the script ended
+                out.flush();
+            }
+            System.exit(succeeded ? 0 : 1);
+        }
 
-        // read input from user
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+        run(new Session(System.out), r);
+    }
+
+    static void printUsage() {
+        System.out.println("Usage: java scheduler.Scheduler [--storage <jdbc|memory|file>]" +
+                " [--server [<port>] | --batch [<file>|-] [--jobs <number>]]");
+    }
+
+    // runs one session's command loop until it quits or its input ends
+    static void run(Session session, BufferedReader r) {
+        printGreeting(session.out);
+
+        // read input from user
         while (true) {
-            System.out.print("> ");
+            session.out.print("> ");
+            session.out.flush();
             String response = "";
             try {
                 response = r.readLine();
+            } catch (SocketTimeoutException e) {
+                session.out.println("Disconnected after too long without a command");
+                return;
             } catch (IOException e) {
-                System.out.println("Please try again!");
-            }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
+                // the input can't be read any more, same as it being closed
+                return;
             }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            if (response == null) {
+                // input closed, same as quitting
                 return;
-            } else {
-                System.out.println("Invalid operation name!");
+            }
+            String[] tokens = tokenize(response);
+            try {
+                if (!execute(session, tokens)) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                // a command that throws ends only itself, not the session
+                session.fail("Please try again!");
+                e.printStackTrace();
             }
         }
     }
 
-    private static void createPatient(String[] tokens) {
+    static void printGreeting(PrintStream out) {
+        // printing greetings text
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");
+        out.println("> create_caregiver <username> <password>");
+        out.println("> import_users <patients|caregivers> <csv_file>");
+        out.println("> login_patient <username> <password>");
+        out.println("> login_caregiver <username> <password>");
+        out.println("> search_caregiver_schedule <date> [<end_date>]");
+        out.println("> search_open_days <start_date> <end_date> [<min_caregivers>]");
+        out.println("> reserve <date> <vaccine>");
+        out.println("> upload_availability <date>");
+        out.println("> upload_availability_list <date> [<date> ...]");
+        out.println("> upload_availability_range <start_date> <end_date>");
+        out.println("> cancel <appointment_id>");
+        out.println("> cancel_bulk [caregiver <username>|*] [vaccine <vaccine>] [from <date>] [to <date>]");
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> add_doses_bulk <vaccine> <number> [<vaccine> <number> ...]");
+        out.println("> show_appointments [after <appointment_id>] [from <date>] [to <date>] [limit <number>]");
+        out.println("> waitlist [<date> <vaccine>]");
+        out.println("> report [<start_date> <end_date>] | report rebuild");
+        out.println("> logout");
+        out.println("> stats [reset]");
+        out.println("> quit");
+        out.println();
+    }
+
+    // splits a command line into its words; runs of spaces and tabs count as one separator
+    static String[] tokenize(String line) {
+        int count = 0;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            if (!isSeparator(line.charAt(i)) && (i == 0 || isSeparator(line.charAt(i - 1)))) {
+                count++;
+            }
+        }
+        String[] tokens = new String[count];
+        int token = 0;
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean separator = i == length || isSeparator(line.charAt(i));
+            if (separator && start >= 0) {
+                tokens[token++] = line.substring(start, i);
+                start = -1;
+            } else if (!separator && start < 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    // performs one command for the session, returns false once the session quits; every command
+    // is timed into Metrics under its name, anything unknown under "invalid"
+    public static boolean execute(Session session, String[] tokens) {
+        session.startCommand();
+        // check if input exists
+        if (tokens.length == 0) {
+            session.fail("Please try again!");
+            return true;
+        }
+        String operation = operations.contains(tokens[0]) ? tokens[0] : "invalid";
+        Metrics.Sample sample = metrics.startCommand(operation);
+        boolean failed = true;
+        try {
+            boolean more = dispatch(session, tokens);
+            // most handlers report a failure through the session rather than by throwing
+            failed = session.hasFailed();
+            return more;
+        } finally {
+            sample.stop(failed);
+        }
+    }
+
+    private static boolean dispatch(Session session, String[] tokens) {
+        // determine which operation to perform
+        String operation = tokens[0];
+        if (operation.equals("create_patient")) {
+            createPatient(session, tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(session, tokens);
+        } else if (operation.equals("import_users")) {
+            importUsers(session, tokens);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(session, tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(session, tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(session, tokens);
+        } else if (operation.equals("search_open_days")) {
+            searchOpenDays(session, tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(session, tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(session, tokens);
+        } else if (operation.equals("upload_availability_list")) {
+            uploadAvailabilityList(session, tokens);
+        } else if (operation.equals("upload_availability_range")) {
+            uploadAvailabilityRange(session, tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(session, tokens);
+        } else if (operation.equals("cancel_bulk")) {
+            cancelBulk(session, tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(session, tokens);
+        } else if (operation.equals("add_doses_bulk")) {
+            addDosesBulk(session, tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(session, tokens);
+        } else if (operation.equals("waitlist")) {
+            joinWaitlist(session, tokens);
+        } else if (operation.equals("report")) {
+            report(session, tokens);
+        } else if (operation.equals("logout")) {
+            logout(session, tokens);
+        } else if (operation.equals("stats")) {
+            stats(session, tokens);
+        } else if (operation.equals("quit")) {
+            session.out.println("Bye!");
+            return false;
+        } else {
+            session.fail("Invalid operation name!");
+        }
+        return true;
+    }
+
+    private static void createPatient(Session session, String[] tokens) {
         // create_patient <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Create patient failed");
+            session.fail("Create patient failed");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
 
         // check 2: check if the username is unique
-        if(usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again");
+        if(usernameExistsPatient(session, username)) {
+            session.fail("Username taken, try again");
             return;
         }
 
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
+        byte[] salt = credentials.generateSalt();
+        byte[] hash = null;
+        try {
+            hash = credentials.hash(password, salt);
+        } catch (IllegalStateException e) {
+            session.fail("Server busy, try again");
+            return;
+        }
 
         try {
             Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
             patient.saveToDB();
-            System.out.println("Created user " + username);
+            session.out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Create patient failed");
+            session.fail("Create patient failed");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsPatient(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
+    private static boolean usernameExistsPatient(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Storages.get().patients().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.fail("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with operation name)
         if (tokens.length != 3) {
-            System.out.println("Failed to create user.");
+            session.fail("Failed to create user.");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
         // check 2: check if the username has been taken already
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again!");
+        if (usernameExistsCaregiver(session, username)) {
+            session.fail("Username taken, try again!");
+            return;
+        }
+        byte[] salt = credentials.generateSalt();
+        byte[] hash = null;
+        try {
+            hash = credentials.hash(password, salt);
+        } catch (IllegalStateException e) {
+            session.fail("Server busy, try again");
             return;
         }
-        byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
         // create the caregiver
         try {
             Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build(); 
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
+            session.out.println("Created user " + username);
         } catch (SQLException e) {
-            System.out.println("Failed to create user.");
+            session.fail("Failed to create user.");
             e.printStackTrace();
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
+    private static boolean usernameExistsCaregiver(Session session, String username) {
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
-            statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
-            return resultSet.isBeforeFirst();
+            return Storages.get().caregivers().exists(username);
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.fail("Error occurred when checking username");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
         return true;
     }
 
-    private static void loginPatient(String[] tokens) {
+    // This method creates many patient or caregiver accounts from a CSV file of username,password
+    // lines. Only caregivers can import, and every rejected line is printed with its reason.
+    private static void importUsers(Session session, String[] tokens) {
+        // import_users <patients|caregivers> <csv_file>
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCurrentCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            session.fail("Please try again!");
+            return;
+        }
+        UserImporter.Kind kind = null;
+        if (tokens[1].equals("patients")) {
+            kind = UserImporter.Kind.PATIENTS;
+        } else if (tokens[1].equals("caregivers")) {
+            kind = UserImporter.Kind.CAREGIVERS;
+        } else {
+            session.fail("Please try again!");
+            return;
+        }
+
+        // only files in the import directory can be read
+        try (BufferedReader csv = Files.newBufferedReader(UserImporter.resolve(tokens[2]))) {
+            UserImporter.Report report = new UserImporter(kind).importFrom(csv);
+            for (String rejected : report.getRejected()) {
+                session.out.println("Rejected " + rejected);
+            }
+            session.out.println("Imported " + report.getImported() + " users, rejected " +
+                    report.getRejected().size() + " in " + report.getElapsedMillis() + " ms (" +
+                    String.format("%.1f", report.getUsersPerSecond()) + " users/s)");
+        } catch (IOException e) {
+            session.fail("Could not read " + tokens[2]);
+        } catch (SQLException e) {
+            session.fail("Error occurred when importing users");
+            e.printStackTrace();
+        }
+    }
+
+    private static void loginPatient(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in, try again");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.fail("User already logged in, try again");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login patient failed");
+            session.fail("Login patient failed");
             return;
         }
         String username = tokens[1];
@@ -208,28 +465,33 @@ public class Scheduler {
         try {
             patient = new Patient.PatientGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login patient failed");
+            session.fail("Login patient failed");
             e.printStackTrace();
+        } catch (IllegalStateException e) {
+            // the credential workers are saturated
+            session.fail("Server busy, try again");
+            return;
         }
         // check if the login was successful
         if (patient == null) {
-            System.out.println("Login patient failed");
+            session.fail("Login patient failed");
         } else {
-            System.out.println("Logged in as " + username);
-            currentPatient = patient;
+            session.out.println("Logged in as " + username);
+            session.setCurrentPatient(patient);
+            printWaitlistBookings(session);
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in.");
+        if (session.getCurrentCaregiver() != null || session.getCurrentPatient() != null) {
+            session.fail("User already logged in.");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login failed.");
+            session.fail("Login failed.");
             return;
         }
         String username = tokens[1];
@@ -239,30 +501,37 @@ public class Scheduler {
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
         } catch (SQLException e) {
-            System.out.println("Login failed.");
+            session.fail("Login failed.");
             e.printStackTrace();
+        } catch (IllegalStateException e) {
+            // the credential workers are saturated
+            session.fail("Server busy, try again");
+            return;
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login failed.");
+            session.fail("Login failed.");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.out.println("Logged in as: " + username);
+            session.setCurrentCaregiver(caregiver);
         }
     }
 
     // This method searches and prints the availability of a caregiver on a specific day and the
     // number of available doses. The output will print the available caregivers first and then
     // the number of available doses.
-    private static void searchCaregiverSchedule(String[] tokens) {
-        // search_caregiver_schedule <date>
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
+        // search_caregiver_schedule <date> [<end_date>]
         // check 1: check if user is logged in the first place
-        if(currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+        if(session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.fail("Please login first");
+            return;
+        } else if(tokens.length == 3) {
+            searchCaregiverCalendar(session, tokens);
             return;
         } else if(tokens.length != 2) {
             // check 2: check if there are 2 tokens
-            System.out.println("Please try again");
+            session.fail("Please try again");
             return;
         }
 
@@ -272,68 +541,142 @@ public class Scheduler {
         try {
             d = Date.valueOf(date);
         } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            session.fail("Please try again");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        // print out caregivers first
-        String checkSched = "SELECT C.Username FROM Caregivers C, Availabilities A WHERE A.Username = C.Username AND Time = ? ORDER BY C.Username";
+        // print out caregivers first, straight from the in-memory availability index
         try {
-            PreparedStatement statement = con.prepareStatement(checkSched);
-            statement.setDate(1, d);
-            ResultSet resultSet = statement.executeQuery();
-
-            while(resultSet.next()) {
-                System.out.println(resultSet.getString("Username"));
+            for (String caregiver : availabilityIndex.getCaregivers(d)) {
+                session.out.println(caregiver);
             }
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
         } catch (SQLException e) {
-            System.out.println("Error occurred when searching for caregiver");
+            session.fail("Error occurred when searching for caregiver");
             e.printStackTrace();
             return;
         }
 
         // then vaccines
-        String checkVacc = "SELECT * FROM Vaccines ORDER BY Vaccines.Name";
+        printVaccines(session);
+    }
+
+    // A calendar of a range of dates: one line per day with the number of caregivers available
+    // and who they are, then the doses left of each vaccine, which are shared by all days. The
+    // caregivers come from the availability index, so the whole range costs one query for the
+    // vaccines instead of a search per day.
+    private static void searchCaregiverCalendar(Session session, String[] tokens) {
+        // search_caregiver_schedule <start_date> <end_date>
+        Date first = null;
+        Date last = null;
         try {
-            PreparedStatement statement = con.prepareStatement(checkVacc);
-            ResultSet resultSet = statement.executeQuery();
+            first = Date.valueOf(tokens[1]);
+            last = Date.valueOf(tokens[2]);
+        } catch (IllegalArgumentException e) {
+            session.fail("Please try again");
+            return;
+        }
+        // the range has to be in order and at most a year long
+        if (last.before(first) || first.toLocalDate().plusYears(1).isBefore(last.toLocalDate())) {
+            session.fail("Please enter a range of at most one year!");
+            return;
+        }
 
-            while(resultSet.next()) {
-                String vacc = resultSet.getString("Name");
-                int numOfVacc = resultSet.getInt("Doses");
-                System.out.println(vacc + " " + numOfVacc);
+        StringBuilder calendar = new StringBuilder();
+        try {
+            for (Map.Entry<LocalDate, NavigableSet<String>> day :
+                    availabilityIndex.getCalendar(first, last).entrySet()) {
+                calendar.append(day.getKey()).append(' ').append(day.getValue().size());
+                for (String caregiver : day.getValue()) {
+                    calendar.append(' ').append(caregiver);
+                }
+                calendar.append(System.lineSeparator());
+            }
+        } catch (SQLException e) {
+            session.fail("Error occurred when searching for caregiver");
+            e.printStackTrace();
+            return;
+        }
+        session.out.print(calendar);
+        printVaccines(session);
+    }
+
+    // The days in a range on which at least a number of caregivers (default 1) are available,
+    // with how many are, followed by every caregiver available on any day of the range. Both are
+    // answered from the availability bitmap without going to the database.
+    private static void searchOpenDays(Session session, String[] tokens) {
+        // search_open_days <start_date> <end_date> [<min_caregivers>]
+        if(session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
+            session.fail("Please login first");
+            return;
+        } else if(tokens.length != 3 && tokens.length != 4) {
+            session.fail("Please try again");
+            return;
+        }
+        Date first = null;
+        Date last = null;
+        int minimum = 1;
+        try {
+            first = Date.valueOf(tokens[1]);
+            last = Date.valueOf(tokens[2]);
+            if (tokens.length == 4) {
+                minimum = Integer.parseInt(tokens[3]);
             }
         } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            session.fail("Please try again");
+            return;
+        }
+        if (last.before(first) || first.toLocalDate().plusYears(1).isBefore(last.toLocalDate())) {
+            session.fail("Please enter a range of at most one year!");
+            return;
+        }
+
+        StringBuilder days = new StringBuilder();
+        try {
+            for (Map.Entry<LocalDate, Integer> day : availabilityIndex.getOpenDays(first, last, minimum).entrySet()) {
+                days.append(day.getKey()).append(' ').append(day.getValue()).append(System.lineSeparator());
+            }
+            days.append("Caregivers available:");
+            for (String caregiver : availabilityIndex.getFreeCaregivers(first, last)) {
+                days.append(' ').append(caregiver);
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when searching for vaccine");
+            session.fail("Error occurred when searching for caregiver");
+            e.printStackTrace();
+            return;
+        }
+        session.out.println(days);
+    }
+
+    private static void printVaccines(Session session) {
+        try {
+            for (Vaccine vaccine : Storages.get().vaccines().findAll()) {
+                String vacc = vaccine.getVaccineName();
+                // doses leased by this process are no longer in the row but can still be booked
+                int numOfVacc = vaccine.getAvailableDoses() + doseLeases.getLeasedDoses(vacc);
+                session.out.println(vacc + " " + numOfVacc);
+            }
+        } catch (SQLException e) {
+            session.fail("Error occurred when searching for vaccine");
             e.printStackTrace();
-        } finally {
-            cm.closeConnection();
         }
     }
 
     // This method reserves a caregiver to administer the dose for the patient. Only patients
     // can reserve, and if there are no caregiver to administer or any remaining doses then
     // the reservation will not go through.
-    private static void reserve(String[] tokens) {
+    private static void reserve(Session session, String[] tokens) {
         // reserve <date> <vaccine>
-        if(currentCaregiver == null && currentPatient == null) {
+        if(session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
             // check 1: check if user is logged in the first place
-            System.out.println("Please login first");
+            session.fail("Please login first");
             return;
-        } else if(currentCaregiver != null) {
+        } else if(session.getCurrentCaregiver() != null) {
             // check 2: check if user is a patient
-            System.out.println("Please login as a patient");
+            session.fail("Please login as a patient");
             return;
         } else if(tokens.length != 3) {
             // check 3: check if there's 3 tokens
-            System.out.println("Please try again");
+            session.fail("Please try again");
             return;
         }
 
@@ -342,366 +685,708 @@ public class Scheduler {
         try {
             d = Date.valueOf(tokens[1]);
         } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            session.fail("Please try again");
             return;
         }
         String vaccine = tokens[2];
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        // check vaccine availability
-        String checkVacc = "SELECT V.doses FROM Vaccines V WHERE V.Name = ?";
-        int dose = 0;
+        // the availability index picks the caregiver without querying Availabilities; dose,
+        // caregiver and appointment are then all taken in one transaction on the server
+        ReservationEngine.Result result = null;
         try {
-            PreparedStatement statement = con.prepareStatement(checkVacc);
-            statement.setString(1, vaccine);
-            ResultSet resultSet = statement.executeQuery();
-
-            if(!resultSet.next()) {
-                // if resultSet doesn't have vaccine
-                System.out.println("Please try again");
-                cm.closeConnection();
-                return;
-            } else if(resultSet.getInt("Doses") <= 0) {
-                // if resultSet has vaccine but no doses
-                System.out.println("Not enough available doses");
-                cm.closeConnection();
-                return;
-            }
-
-            dose = resultSet.getInt("Doses");
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            result = reservationEngine.reserve(d, vaccine, session.getCurrentPatient().getUsername());
         } catch (SQLException e) {
-            System.out.println("Error occurred when searching for vaccine");
+            session.fail("Error occurred when reserving appointment");
             e.printStackTrace();
+            return;
         }
 
-        // check caregiver availability, ordering alphabetically
-        String checkCaregiver = "SELECT A.Username FROM Availabilities A WHERE Time = ? ORDER BY A.Username";
-        String caregiver = null;
-        try {
-            PreparedStatement statement = con.prepareStatement(checkCaregiver);
-            statement.setDate(1, d);
-            ResultSet resultSet = statement.executeQuery();
-
-            if(!resultSet.next()) {
-                // if resultSet doesn't have caregiver
-                System.out.println("No caregiver is available");
-                cm.closeConnection();
-                return;
-            }
-
-            caregiver = resultSet.getString("Username");
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
-        } catch (SQLException e) {
-            System.out.println("Error occurred when searching for caregiver");
-            e.printStackTrace();
+        switch (result.getStatus()) {
+            case UNKNOWN_VACCINE:
+                session.fail("Please try again");
+                break;
+            case NO_DOSES:
+                session.fail("Not enough available doses");
+                session.out.println("To be booked once there are, enter: waitlist " + tokens[1] + " " + vaccine);
+                break;
+            case NO_CAREGIVER:
+                session.fail("No caregiver is available");
+                session.out.println("To be booked once there is, enter: waitlist " + tokens[1] + " " + vaccine);
+                break;
+            default:
+                session.out.println("Appointment ID " + result.getAppointmentId() + ", Caregiver username " +
+                        result.getCaregiver());
         }
+    }
 
-        // creating a new appointment id
-        String getPrevAid = "SELECT MAX(aid) AS max FROM Appointments";
-        int currAid = 0;
-        try {
-            PreparedStatement statement = con.prepareStatement(getPrevAid);
-            ResultSet resultSet = statement.executeQuery();
-
-            if(resultSet.next()) {
-                currAid = resultSet.getInt("max") + 1;
-            } else {
-                currAid = 1;
-            }
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
-        } catch (SQLException e) {
-            System.out.println("Error occurred when searching for aid");
-            e.printStackTrace();
+    private static void uploadAvailability(Session session, String[] tokens) {
+        // upload_availability <date>
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCurrentCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
+            return;
         }
+        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
+        if (tokens.length != 2) {
+            session.fail("Please try again!");
+            return;
+        }
+        String date = tokens[1];
 
-        // update appointment database between patient and caregiver
-        String appointment = "INSERT INTO Appointments VALUES (?, ?, ?, ?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(appointment);
-            statement.setInt(1, currAid);
-            statement.setString(2, vaccine);
-            statement.setString(3, currentPatient.getUsername());
-            statement.setString(4, caregiver);
-            statement.setDate(5, d);
-            statement.executeUpdate();
-            con.commit();
+            Date d = Date.valueOf(date);
+            session.getCurrentCaregiver().uploadAvailability(d);
+            session.out.println("Availability uploaded!");
         } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            session.fail("Please enter a valid date!");
+            return;
         } catch (SQLException e) {
-            System.out.println("Error occurred when updating appointment");
+            session.fail("Error occurred when uploading availability");
             e.printStackTrace();
             return;
         }
 
-        // update availability where caregiver isn't available on the day anymore
-        String availability = "DELETE FROM Availabilities WHERE Username = ? AND Time = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(availability);
-            statement.setString(1, caregiver);
-            statement.setDate(2, d);
-            statement.executeUpdate();
-            con.commit();
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            waitlist.caregiverFreed(Date.valueOf(date));
         } catch (SQLException e) {
-            System.out.println("Error occurred when updating availability");
+            session.out.println("Could not book waitlisted patients");
             e.printStackTrace();
-            return;
-        } finally {
-            cm.closeConnection();
         }
+    }
 
-        // update doses to go down by 1
-        Vaccine updateDoses = null;
+    private static void uploadAvailabilityList(Session session, String[] tokens) {
+        // upload_availability_list <date> [<date> ...]
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCurrentCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: there needs to be at least one date
+        if (tokens.length < 2) {
+            session.fail("Please try again!");
+            return;
+        }
+        List<Date> dates = new ArrayList<>();
         try {
-            updateDoses = new Vaccine.VaccineGetter(vaccine).get();
-            updateDoses.decreaseAvailableDoses(1);
-        } catch (SQLException e) {
-            System.out.println("Error occurred when updating vaccine");
-            e.printStackTrace();
+            for (int i = 1; i < tokens.length; i++) {
+                dates.add(Date.valueOf(tokens[i]));
+            }
+        } catch (IllegalArgumentException e) {
+            session.fail("Please enter valid dates!");
             return;
         }
-
-        System.out.println("Appointment ID " + currAid + ", Caregiver username " + caregiver);
-        // This one was rough x.x
+        uploadAvailabilities(session, dates);
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
+    private static void uploadAvailabilityRange(Session session, String[] tokens) {
+        // upload_availability_range <start_date> <end_date>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCurrentCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+        // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
+        if (tokens.length != 3) {
+            session.fail("Please try again!");
             return;
         }
-        String date = tokens[1];
-
+        LocalDate start = null;
+        LocalDate end = null;
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            start = Date.valueOf(tokens[1]).toLocalDate();
+            end = Date.valueOf(tokens[2]).toLocalDate();
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            session.fail("Please enter valid dates!");
+            return;
+        }
+        // check 3: the range has to be in order and at most a year long
+        if (end.isBefore(start) || start.plusYears(1).isBefore(end)) {
+            session.fail("Please enter a range of at most one year!");
+            return;
+        }
+        List<Date> dates = new ArrayList<>();
+        for (LocalDate day = start; !day.isAfter(end); day = day.plusDays(1)) {
+            dates.add(Date.valueOf(day));
+        }
+        uploadAvailabilities(session, dates);
+    }
+
+    private static void uploadAvailabilities(Session session, List<Date> dates) {
+        BatchResult result;
+        try {
+            result = session.getCurrentCaregiver().uploadAvailability(dates);
+            printBatchResult(session, result);
+            if (result.count(BatchResult.Outcome.FAILED) == 0) {
+                session.out.println("Availability uploaded!");
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            session.fail("Error occurred when uploading availability");
             e.printStackTrace();
             return;
         }
+
+        try {
+            for (int i = 0; i < dates.size(); i++) {
+                if (result.getOutcome(i) == BatchResult.Outcome.APPLIED) {
+                    waitlist.caregiverFreed(dates.get(i));
+                }
+            }
+        } catch (SQLException e) {
+            session.out.println("Could not book waitlisted patients");
+            e.printStackTrace();
+        }
     }
 
-    private static void cancel(String[] tokens) {
+    private static void cancel(Session session, String[] tokens) {
         // cancel <appointment_id>
-        if(currentCaregiver == null && currentPatient == null) {
+        if(session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
             // check 1: check if user is logged in the first place
-            System.out.println("Please login first");
+            session.fail("Please login first");
             return;
         } else if(tokens.length != 2) {
             // check 2: check if there's 2 tokens
-            System.out.println("Please try again");
+            session.fail("Please try again");
             return;
         }
         String aid = tokens[1];
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        // deletes the appointment and gives the caregiver the day back in one transaction
+        Appointment appointment;
+        try {
+            appointment = reservationEngine.cancel(Integer.parseInt(aid));
+        } catch (NumberFormatException e) {
+            appointment = null;
+        } catch (SQLException e) {
+            session.fail("Error occurred when cancelling appointment");
+            e.printStackTrace();
+            return;
+        }
+        if (appointment == null) {
+            session.fail("There's no appointment with the ID: " + aid);
+            return;
+        }
+        // increase the amount of doses by 1, through this process's dose lease when it has one
+        boolean doseReturned;
+        try {
+            doseLeases.release(appointment.getVaccineName());
+            doseReturned = true;
+        } catch (SQLException e) {
+            session.fail("Appointment cancelled, but an error occurred when returning its dose");
+            e.printStackTrace();
+            doseReturned = false;
+        }
 
-        Date d = null;
-        String caregiver = null;
-        Vaccine vaccine = null;
+        if (doseReturned) {
+            session.out.println("Appointment successfully cancelled");
+            // PREACHHH THIS WORKS!
+        }
 
-        // get the appointment info to delete appointment, update caretaker availability, and doses
-        String apptInfo = "SELECT Time, caregiver_name, vaccine_name FROM Appointments WHERE aid = ?";
+        // the caregiver's day is free either way, the dose only if it went back
         try {
-            PreparedStatement statement = con.prepareStatement(apptInfo);
-            statement.setString(1, aid);
-            ResultSet resultSet = statement.executeQuery();
-
-            // If there's no vaccine, time, or caregiver of that appointment
-            if(!resultSet.next()) {
-                // if resultSet doesn't have caregiver
-                System.out.println("There's no appointment with the ID: " + aid);
-                cm.closeConnection();
-                return;
+            if (doseReturned) {
+                waitlist.appointmentCancelled(appointment.getTime(), appointment.getVaccineName());
+            } else {
+                waitlist.caregiverFreed(appointment.getTime());
             }
-
-            d = resultSet.getDate(1);
-            caregiver = resultSet.getString(2);
-            vaccine = new Vaccine.VaccineGetter(resultSet.getString(3)).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when getting appointment information");
+            session.out.println("Could not book waitlisted patients");
             e.printStackTrace();
+        }
+    }
+
+    private static void cancelBulk(Session session, String[] tokens) {
+        // cancel_bulk [caregiver <username>|*] [vaccine <vaccine>] [from <date>] [to <date>]
+        // without a caregiver option only the logged-in caregiver's own appointments are cancelled;
+        // someone else's take their username, and every caregiver's take caregiver *
+        if (session.getCurrentCaregiver() == null) {
+            // check 1: only caregivers cancel on someone else's behalf
+            session.fail("Please login as a caregiver first!");
+            return;
+        } else if (tokens.length < 3 || tokens.length % 2 != 1) {
+            // check 2: at least one option, and every option needs a value
+            session.fail("Please try again");
             return;
         }
 
-        // delete the appointment with the aid
-        String apptDeleted = "DELETE FROM Appointments WHERE aid = ?";
+        String caregiver = session.getCurrentCaregiver().getUsername();
+        String vaccine = null;
+        Date from = null;
+        Date to = null;
         try {
-            PreparedStatement statement = con.prepareStatement(apptDeleted);
-            statement.setString(1, aid);
-            statement.executeUpdate();
-            con.commit();
-        } catch (SQLException e) {
-            System.out.println("Error occurred when getting appointment information");
-            e.printStackTrace();
+            for (int i = 1; i < tokens.length; i += 2) {
+                switch (tokens[i]) {
+                    case "caregiver":
+                        caregiver = tokens[i + 1].equals("*") ? null : tokens[i + 1];
+                        break;
+                    case "vaccine":
+                        vaccine = tokens[i + 1];
+                        break;
+                    case "from":
+                        from = Date.valueOf(tokens[i + 1]);
+                        break;
+                    case "to":
+                        to = Date.valueOf(tokens[i + 1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(tokens[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            session.fail("Please try again");
+            return;
+        }
+        if (from != null && to != null && to.before(from)) {
+            session.fail("Please enter an end date on or after the start date!");
             return;
         }
 
-        // update caregiver's availability on that day
-        String apptAvail = "INSERT INTO Availabilities VALUES (?, ?)";
+        // deletes them all, gives the caregivers their days back and returns the doses in one transaction
+        List<Appointment> cancelled;
         try {
-            PreparedStatement statement = con.prepareStatement(apptAvail);
-            statement.setDate(1, d);
-            statement.setString(2, caregiver);
-            statement.executeUpdate();
-            con.commit();
+            cancelled = reservationEngine.cancelAll(new AppointmentFilter(caregiver, vaccine, from, to));
         } catch (SQLException e) {
-            System.out.println("Error occurred when updating availability");
+            session.fail("Error occurred when cancelling appointments");
             e.printStackTrace();
             return;
         }
 
-        // increase the amount of doses by 1
+        // <id> <vaccine> <date> <patient> <caregiver> for each, then the doses returned per vaccine
+        Map<String, Integer> doses = new TreeMap<>();
+        // how many appointments of each vaccine were cancelled on each date, for the waitlist
+        Map<Date, Map<String, Integer>> freed = new LinkedHashMap<>();
+        StringBuilder print = new StringBuilder(64 * cancelled.size() + 64);
+        for (Appointment appointment : cancelled) {
+            print.append(appointment.getAppointmentId()).append(' ')
+                    .append(appointment.getVaccineName()).append(' ')
+                    .append(appointment.getTime()).append(' ')
+                    .append(appointment.getPatientName()).append(' ')
+                    .append(appointment.getCaregiverName())
+                    .append(System.lineSeparator());
+            doses.merge(appointment.getVaccineName(), 1, Integer::sum);
+            freed.computeIfAbsent(appointment.getTime(), k -> new TreeMap<>())
+                    .merge(appointment.getVaccineName(), 1, Integer::sum);
+        }
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            print.append(entry.getKey()).append(": ").append(entry.getValue())
+                    .append(entry.getValue() == 1 ? " dose returned" : " doses returned")
+                    .append(System.lineSeparator());
+        }
+        print.append("Cancelled ").append(cancelled.size()).append(cancelled.size() == 1 ? " appointment" : " appointments")
+                .append(System.lineSeparator());
+        session.out.print(print);
+
         try {
-            vaccine.increaseAvailableDoses(1);
+            for (Map.Entry<Date, Map<String, Integer>> entry : freed.entrySet()) {
+                for (Map.Entry<String, Integer> count : entry.getValue().entrySet()) {
+                    waitlist.appointmentsCancelled(entry.getKey(), count.getKey(), count.getValue());
+                }
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when decreasing doses");
-        } finally {
-            cm.closeConnection();
+            session.out.println("Could not book waitlisted patients");
+            e.printStackTrace();
         }
-
-        System.out.println("Appointment successfully cancelled");
-        // PREACHHH THIS WORKS!
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.getCurrentCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.fail("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
-        int doses = Integer.parseInt(tokens[2]);
-        Vaccine vaccine = null;
+        int doses;
+        try {
+            doses = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException e) {
+            session.fail("Please try again!");
+            return;
+        }
+        Vaccine vaccine;
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            session.fail("Error occurred when adding doses");
             e.printStackTrace();
+            return;
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
-        if (vaccine == null) {
-            try {
+        try {
+            if (vaccine == null) {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
-                e.printStackTrace();
+            } else {
+                // if the vaccine is not null, meaning that the vaccine already exists in our table
+                vaccine.increaseAvailableDoses(doses);
+            }
+        } catch (SQLException e) {
+            session.fail("Error occurred when adding doses");
+            e.printStackTrace();
+            return;
+        }
+        // only doses that were really added are counted and offered to waiting patients
+        reportCounters.dosesAdded(vaccineName, doses);
+        session.out.println("Doses updated!");
+
+        try {
+            waitlist.dosesAdded(vaccineName, doses);
+        } catch (SQLException e) {
+            session.out.println("Could not book waitlisted patients");
+            e.printStackTrace();
+        }
+    }
+
+    private static void addDosesBulk(Session session, String[] tokens) {
+        // add_doses_bulk <vaccine> <number> [<vaccine> <number> ...]
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.getCurrentCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: there needs to be at least one vaccine, and every vaccine needs a number
+        if (tokens.length < 3 || tokens.length % 2 == 0) {
+            session.fail("Please try again!");
+            return;
+        }
+        Map<String, Integer> dosesByVaccine = new LinkedHashMap<>();
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                dosesByVaccine.merge(tokens[i], Integer.parseInt(tokens[i + 1]), Integer::sum);
+            }
+        } catch (NumberFormatException e) {
+            session.fail("Please try again!");
+            return;
+        }
+        BatchResult result;
+        try {
+            result = Vaccine.addDoses(dosesByVaccine);
+            printBatchResult(session, result);
+            if (result.count(BatchResult.Outcome.FAILED) == 0) {
+                session.out.println("Doses updated!");
+            }
+        } catch (SQLException e) {
+            session.fail("Error occurred when adding doses");
+            e.printStackTrace();
+            return;
+        }
+        int applied = 0;
+        for (Map.Entry<String, Integer> entry : dosesByVaccine.entrySet()) {
+            if (result.getOutcome(applied++) == BatchResult.Outcome.APPLIED) {
+                reportCounters.dosesAdded(entry.getKey(), entry.getValue());
             }
+        }
+
+        try {
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : dosesByVaccine.entrySet()) {
+                if (result.getOutcome(i++) == BatchResult.Outcome.APPLIED) {
+                    waitlist.dosesAdded(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (SQLException e) {
+            session.out.println("Could not book waitlisted patients");
+            e.printStackTrace();
+        }
+    }
+
+    // prints the rows of a bulk command that were not applied, followed by a summary
+    private static void printBatchResult(Session session, BatchResult result) {
+        for (int i = 0; i < result.size(); i++) {
+            if (result.getOutcome(i) != BatchResult.Outcome.APPLIED) {
+                session.out.println(result.getRow(i) + " " + result.getOutcome(i).name().toLowerCase() + ": " +
+                        result.getMessage(i));
+            }
+        }
+        String summary = result.count(BatchResult.Outcome.APPLIED) + " applied, " +
+                result.count(BatchResult.Outcome.SKIPPED) + " skipped, " +
+                result.count(BatchResult.Outcome.FAILED) + " failed";
+        if (result.count(BatchResult.Outcome.FAILED) > 0) {
+            session.fail(summary);
         } else {
-            // if the vaccine is not null, meaning that the vaccine already exists in our table
+            session.out.println(summary);
+        }
+    }
+
+    private static void report(Session session, String[] tokens) {
+        // report [<start_date> <end_date>] | report rebuild
+        if (session.getCurrentCaregiver() == null) {
+            session.fail("Please login as a caregiver first!");
+            return;
+        } else if (tokens.length == 2 && tokens[1].equals("rebuild")) {
+            rebuildReport(session);
+            return;
+        } else if (tokens.length != 1 && tokens.length != 3) {
+            session.fail("Please try again");
+            return;
+        }
+        // the next two weeks unless a range is given
+        LocalDate first = LocalDate.now();
+        LocalDate last = first.plusDays(13);
+        try {
+            if (tokens.length == 3) {
+                first = LocalDate.parse(tokens[1]);
+                last = LocalDate.parse(tokens[2]);
+            }
+        } catch (DateTimeParseException e) {
+            session.fail("Please try again");
+            return;
+        }
+        if (last.isBefore(first) || first.plusYears(1).isBefore(last)) {
+            session.fail("Please enter a range of at most one year!");
+            return;
+        }
+
+        StringBuilder print = new StringBuilder();
+        try {
+            // <vaccine> <appointments> <doses left>
+            print.append("Vaccines: name, appointments, doses left").append(System.lineSeparator());
+            Map<String, Integer> booked = reportCounters.getBookedByVaccine();
+            for (Map.Entry<String, Integer> vaccine : reportCounters.getDosesLeft().entrySet()) {
+                print.append(vaccine.getKey()).append(' ')
+                        .append(booked.getOrDefault(vaccine.getKey(), 0)).append(' ')
+                        .append(vaccine.getValue()).append(System.lineSeparator());
+            }
+            // <date> <appointments> <caregivers free> <fill rate>, days nobody works left out
+            print.append("Dates: date, appointments, caregivers free, filled").append(System.lineSeparator());
+            Map<LocalDate, Integer> bookedByDate = reportCounters.getBookedByDate(first, last);
+            Map<LocalDate, Integer> free = availabilityIndex.getOpenDays(Date.valueOf(first), Date.valueOf(last), 1);
+            for (LocalDate date = first; !date.isAfter(last); date = date.plusDays(1)) {
+                appendUsage(print, date.toString(), bookedByDate.getOrDefault(date, 0), free.getOrDefault(date, 0));
+            }
+            // <caregiver> <appointments> <days free> <utilization>
+            print.append("Caregivers: name, appointments, days free, utilized").append(System.lineSeparator());
+            Map<String, Integer> bookedByCaregiver = reportCounters.getBookedByCaregiver();
+            Map<String, Integer> freeDays = availabilityIndex.getFreeDaysByCaregiver();
+            TreeSet<String> caregivers = new TreeSet<>(bookedByCaregiver.keySet());
+            caregivers.addAll(freeDays.keySet());
+            for (String caregiver : caregivers) {
+                appendUsage(print, caregiver, bookedByCaregiver.getOrDefault(caregiver, 0),
+                        freeDays.getOrDefault(caregiver, 0));
+            }
+        } catch (SQLException e) {
+            session.fail("Error occurred when building the report");
+            e.printStackTrace();
+            return;
+        }
+        session.out.print(print);
+    }
+
+    // <name> <booked> <free> <booked share of booked + free>, nothing if both are 0
+    private static void appendUsage(StringBuilder print, String name, int booked, int free) {
+        if (booked + free == 0) {
+            return;
+        }
+        print.append(name).append(' ').append(booked).append(' ').append(free).append(' ')
+                .append(Math.round(100.0 * booked / (booked + free))).append('%')
+                .append(System.lineSeparator());
+    }
+
+    private static void rebuildReport(Session session) {
+        List<String> differences;
+        try {
+            differences = reportCounters.rebuild();
+        } catch (SQLException e) {
+            session.fail("Error occurred when rebuilding the report");
+            e.printStackTrace();
+            return;
+        }
+        for (String difference : differences) {
+            session.out.println(difference);
+        }
+        session.out.println("Report rebuilt, " + differences.size()
+                + (differences.size() == 1 ? " counter differed" : " counters differed"));
+    }
+
+    private static void joinWaitlist(Session session, String[] tokens) {
+        // waitlist [<date> <vaccine>]
+        if (session.getCurrentPatient() == null) {
+            session.fail("Please login as a patient first!");
+            return;
+        } else if (tokens.length != 1 && tokens.length != 3) {
+            session.fail("Please try again!");
+            return;
+        }
+        String patient = session.getCurrentPatient().getUsername();
+
+        if (tokens.length == 3) {
+            Date d = null;
             try {
-                vaccine.increaseAvailableDoses(doses);
+                d = Date.valueOf(tokens[1]);
+            } catch (IllegalArgumentException e) {
+                session.fail("Please enter a valid date!");
+                return;
+            }
+            String vaccine = tokens[2];
+            try {
+                if (Storages.get().vaccines().find(vaccine) == null) {
+                    session.fail("Please try again!");
+                    return;
+                }
+                if (!waitlist.join(d, vaccine, patient)) {
+                    session.fail("Already on the waitlist for " + vaccine + " on " + d);
+                    return;
+                }
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                session.fail("Error occurred when joining the waitlist");
                 e.printStackTrace();
+                return;
             }
+            session.out.println("Added to the waitlist for " + vaccine + " on " + d);
+        }
+
+        // anything booked for the patient, including just now, then what they are still waiting on
+        printWaitlistBookings(session);
+        List<Waitlist.Entry> waiting = waitlist.getWaiting(patient);
+        if (waiting.isEmpty() && tokens.length == 1) {
+            session.out.println("Not waiting for any appointment");
+        }
+        for (Waitlist.Entry entry : waiting) {
+            session.out.println("Waiting for " + entry.getVaccine() + " on " + entry.getDate());
+        }
+    }
+
+    private static void printWaitlistBookings(Session session) {
+        for (Waitlist.Entry entry : waitlist.takeBooked(session.getCurrentPatient().getUsername())) {
+            session.out.println("Booked off the waitlist: Appointment ID " + entry.getAppointmentId() +
+                    ", Caregiver username " + entry.getCaregiver() + ", " + entry.getVaccine() + " on " +
+                    entry.getDate());
         }
-        System.out.println("Doses updated!");
     }
 
     // This method shows appointments, and depending on who is logged in, a certain format would
-    // be printed.
-    private static void showAppointments(String[] tokens) {
-        // show_appointments
-        if(currentCaregiver == null && currentPatient == null) {
+    // be printed. Appointments are shown a page at a time in order of their ID; when there are
+    // more, the command for the next page is printed after the last row.
+    private static void showAppointments(Session session, String[] tokens) {
+        // show_appointments [after <appointment_id>] [from <date>] [to <date>] [limit <number>]
+        if(session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
             // check 1: check if user is logged in the first place
-            System.out.println("Please login first");
+            session.fail("Please login first");
             return;
-        } else if(tokens.length != 1) {
-            // check 2: check if there's 1 token
-            System.out.println("Please try again");
+        } else if(tokens.length % 2 != 1) {
+            // check 2: every option needs a value
+            session.fail("Please try again");
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        if (currentCaregiver != null) {
-            // if the person logged in is a caregiver, then the following format would be printed:
-            // <doses> <vaccine> <date> <patient>
-            String info = "SELECT aid, vaccine_name, Time, patient_name FROM Appointments WHERE caregiver_name = ? ORDER BY aid";
-            try {
-                PreparedStatement statement = con.prepareStatement(info);
-                statement.setString(1, currentCaregiver.getUsername());
-                ResultSet resultSet = statement.executeQuery();
-                //
-                while(resultSet.next()) {
-                    String print = resultSet.getInt(1) + " " + resultSet.getString(2) + " " +
-                            resultSet.getDate(3) + " " + resultSet.getString(4);
-                    System.out.println(print);
+        int after = 0;
+        Date from = null;
+        Date to = null;
+        int limit = defaultPageSize;
+        try {
+            for (int i = 1; i < tokens.length; i += 2) {
+                switch (tokens[i]) {
+                    case "after":
+                        after = Integer.parseInt(tokens[i + 1]);
+                        break;
+                    case "from":
+                        from = Date.valueOf(tokens[i + 1]);
+                        break;
+                    case "to":
+                        to = Date.valueOf(tokens[i + 1]);
+                        break;
+                    case "limit":
+                        limit = Integer.parseInt(tokens[i + 1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(tokens[i]);
                 }
-                cm.closeConnection();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when searching for caregiver");
             }
-        } else {
-            // if the person logged in is a patient, then the following format would be printed:
-            // <doses> <vaccine> <date> <caregiver>
-            String info = "SELECT aid, vaccine_name, Time, caregiver_name FROM Appointments WHERE patient_name = ? ORDER BY aid";
-            try {
-                PreparedStatement statement = con.prepareStatement(info);
-                statement.setString(1, currentPatient.getUsername());
-                ResultSet resultSet = statement.executeQuery();
-                //
-                while(resultSet.next()) {
-                    String print = resultSet.getInt(1) + " " + resultSet.getString(2) + " " +
-                            resultSet.getDate(3) + " " + resultSet.getString(4);
-                    System.out.println(print);
+        } catch (IllegalArgumentException e) {
+            session.fail("Please try again");
+            return;
+        }
+        if (limit <= 0 || limit > maxPageSize) {
+            session.fail("Please enter a limit between 1 and " + maxPageSize);
+            return;
+        }
+
+        // one more than the page, to tell whether there is a next page
+        AppointmentPage page = new AppointmentPage(after, from, to, limit + 1);
+        boolean caregiver = session.getCurrentCaregiver() != null;
+        List<Appointment> appointments;
+        try {
+            appointments = caregiver
+                    ? appointmentCache.findByCaregiver(session.getCurrentCaregiver().getUsername(), page)
+                    : appointmentCache.findByPatient(session.getCurrentPatient().getUsername(), page);
+        } catch (SQLException e) {
+            session.fail(caregiver ? "Error occurred when searching for caregiver"
+                    : "Error occurred when searching for patient");
+            return;
+        }
+
+        // the page is written in one go rather than a line at a time
+        StringBuilder print = new StringBuilder(64 * Math.min(appointments.size(), limit));
+        for (int i = 0; i < appointments.size() && i < limit; i++) {
+            Appointment appointment = appointments.get(i);
+            // caregivers see <id> <vaccine> <date> <patient>, patients <id> <vaccine> <date> <caregiver>
+            print.append(appointment.getAppointmentId()).append(' ')
+                    .append(appointment.getVaccineName()).append(' ')
+                    .append(appointment.getTime()).append(' ')
+                    .append(caregiver ? appointment.getPatientName() : appointment.getCaregiverName())
+                    .append(System.lineSeparator());
+        }
+        if (appointments.size() > limit) {
+            print.append("More appointments: show_appointments after ")
+                    .append(appointments.get(limit - 1).getAppointmentId());
+            for (int i = 1; i < tokens.length; i += 2) {
+                if (!tokens[i].equals("after")) {
+                    print.append(' ').append(tokens[i]).append(' ').append(tokens[i + 1]);
                 }
-                cm.closeConnection();
-            } catch (SQLException e) {
-                System.out.println("Error occurred when searching for patient");
             }
+            print.append(System.lineSeparator());
+        }
+        session.out.print(print);
+    }
+
+    // This method prints, for every timed command and call so far, how often it ran, how often it
+    // failed and its latency percentiles. "stats reset" starts the counts over.
+    private static void stats(Session session, String[] tokens) {
+        // stats [reset]
+        if (tokens.length == 2 && tokens[1].equals("reset")) {
+            metrics.reset();
+            session.out.println("Stats reset");
+            return;
+        } else if (tokens.length != 1) {
+            session.fail("Please try again");
+            return;
+        }
+        session.out.printf("%-40s %8s %7s %10s %10s %10s%n", "name", "count", "errors", "p50 ms", "p99 ms", "max ms");
+        for (LatencyHistogram histogram : metrics.getHistograms()) {
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            session.out.printf("%-40s %8d %7d %10.3f %10.3f %10.3f%n", histogram.getName(), histogram.getCount(),
+                    histogram.getErrors(), histogram.getPercentileNanos(50) / 1e6,
+                    histogram.getPercentileNanos(99) / 1e6, histogram.getMaxNanos() / 1e6);
         }
     }
 
     // This method logs out the user
-    private static void logout(String[] tokens) {
+    private static void logout(Session session, String[] tokens) {
         // logout
-        if(currentCaregiver == null && currentPatient == null) {
+        if(session.getCurrentCaregiver() == null && session.getCurrentPatient() == null) {
             // check 1: check if user is logged-in
-            System.out.println("Please login first");
+            session.fail("Please login first");
             return;
         } else if (tokens.length != 1) {
             // check 2: check if there's 1 token
-            System.out.println("Please try again");
+            session.fail("Please try again");
             return;
         }
 
         // update to make either values null depending on who is logged in
-        if(currentCaregiver != null) {
-            currentCaregiver = null;
+        if(session.getCurrentCaregiver() != null) {
+            session.setCurrentCaregiver(null);
         } else {
-            currentPatient = null;
+            session.setCurrentPatient(null);
         }
 
-        System.out.println("Successfully logged out");
+        session.out.println("Successfully logged out");
     }
 }
@@ -0,0 +1,154 @@
+package scheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves the scheduler to many clients at once over a socket on the loopback interface. Every
+// connection gets its own Session and runs the same command loop as the console, on its own
+// virtual thread where the JVM supports them (Java 21+). Otherwise sessions run on a pool of
+// ServerMaxSessions platform threads (default 200); as many clients again wait for a free
+// thread, and any more are told the server is busy. A client that sends nothing for
+// ServerIdleTimeoutSeconds (default 600) is disconnected, so idle clients don't hold on to a
+// session forever. Try it with e.g. `nc localhost 5005`.
+public class SchedulerServer {
+
+    public static final int DEFAULT_PORT = 5005;
+
+    private static final Method ofVirtual = findOfVirtual();
+    private static final int maxSessions = setting("ServerMaxSessions", 200);
+    private static final int idleTimeoutMillis = setting("ServerIdleTimeoutSeconds", 600) * 1000;
+
+    private final int port;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    // runs the sessions when there are no virtual threads, null otherwise
+    private final ThreadPoolExecutor platformThreads;
+    private volatile ServerSocket serverSocket;
+
+    public SchedulerServer(int port) {
+        this.port = port;
+        if (ofVirtual == null) {
+            platformThreads = new ThreadPoolExecutor(maxSessions, maxSessions, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(maxSessions), r -> {
+                        Thread thread = new Thread(r, "scheduler-session");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } else {
+            platformThreads = null;
+        }
+    }
+
+    // accepts clients until the server socket is closed
+    public void serve() throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress())) {
+            serverSocket = server;
+            System.out.println("Scheduler listening on " + server.getLocalSocketAddress());
+            while (!server.isClosed()) {
+                Socket client;
+                try {
+                    client = server.accept();
+                } catch (IOException e) {
+                    if (server.isClosed()) {
+                        return;
+                    }
+                    throw e;
+                }
+                start(client);
+            }
+        } finally {
+            if (platformThreads != null) {
+                platformThreads.shutdownNow();
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        ServerSocket server = serverSocket;
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    // the port the server listens on, chosen by the system if it was created with port 0; -1
+    // until serve has opened it
+    public int getLocalPort() {
+        ServerSocket server = serverSocket;
+        return server == null ? -1 : server.getLocalPort();
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    private void start(Socket client) {
+        if (platformThreads == null) {
+            try {
+                Object builder = ofVirtual.invoke(null);
+                Thread thread = (Thread) Class.forName("java.lang.Thread$Builder")
+                        .getMethod("unstarted", Runnable.class).invoke(builder, (Runnable) () -> handle(client));
+                thread.start();
+                return;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot start a virtual thread", e);
+            }
+        }
+        try {
+            platformThreads.execute(() -> handle(client));
+        } catch (RejectedExecutionException e) {
+            // every thread is busy and enough clients are waiting already
+            try (Socket socket = client;
+                 PrintStream out = new PrintStream(socket.getOutputStream(), true, "UTF-8")) {
+                out.println("The scheduler is busy, please try again later");
+            } catch (IOException ignored) {
+                // the client is turned away either way
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        activeSessions.incrementAndGet();
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(
+                     new BufferedOutputStream(socket.getOutputStream()), true, "UTF-8")) {
+            socket.setSoTimeout(idleTimeoutMillis);
+            Scheduler.run(new Session(out), in);
+            out.flush();
+        } catch (IOException e) {
+            // the client went away, nothing left to clean up but the socket
+        } finally {
+            activeSessions.decrementAndGet();
+        }
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static int setting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        try {
+            return value == null ? defaultValue : Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+
+// Everything that belongs to one user of the scheduler: who is logged in and where the output of
+// their commands goes. The console has a single session, the server one per connected client.
+public class Session {
+
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in per session at a time
+    private Caregiver currentCaregiver = null;
+    private Patient currentPatient = null;
+
+    public final PrintStream out;
+    // whether the command being run has reported a failure, see fail
+    private boolean failed = false;
+
+    public Session(PrintStream out) {
+        this.out = out;
+    }
+
+    public Caregiver getCurrentCaregiver() {
+        return currentCaregiver;
+    }
+
+    public void setCurrentCaregiver(Caregiver caregiver) {
+        this.currentCaregiver = caregiver;
+    }
+
+    public Patient getCurrentPatient() {
+        return currentPatient;
+    }
+
+    public void setCurrentPatient(Patient patient) {
+        this.currentPatient = patient;
+    }
+
+    // prints why the current command did not go through and marks it as failed, which batch
+    // mode counts in its summary
+    public void fail(String message) {
+        out.println(message);
+        failed = true;
+    }
+
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    void startCommand() {
+        failed = false;
+    }
+}
@@ -0,0 +1,261 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.storage.AppointmentPage;
+import scheduler.storage.Storages;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The appointments of recently seen patients and caregivers, so paging through them with
+// show_appointments doesn't read the Appointments table every time. On a user's first lookup
+// one page of at most AppointmentCacheRows appointments (default 1000) is read; if that is all
+// of them it is kept and from then on kept up to date by the ReservationEngine, which reports
+// every booking and cancellation this process makes. Each user's list is kept compact:
+// appointment ids in a sorted int array, with the day, vaccine and the other person of each in
+// arrays alongside. Users with more appointments than that are only remembered as such, and
+// their pages are read one at a time through the paged lookups, so neither memory nor the time
+// to the first page grows with a long history.
+//
+// At most AppointmentCacheUsers users (default 10000) are kept, the least recently viewed going
+// first. Bookings and cancellations made by other scheduler processes aren't seen, so a user's
+// list is read again once it is older than AppointmentCacheSeconds (default 300).
+public class AppointmentCache {
+
+    private static final int maxUsers = setting("AppointmentCacheUsers", 10000);
+    private static final int maxRows = setting("AppointmentCacheRows", 1000);
+    private static final long maxAgeMillis = setting("AppointmentCacheSeconds", 300) * 1000L;
+    private static final AppointmentCache instance = new AppointmentCache();
+
+    private final Metrics metrics = Metrics.getInstance();
+    // guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxUsers;
+        }
+    };
+    // users whose lists are being read, and how often they changed meanwhile; guarded by this
+    private final Map<String, Load> loading = new HashMap<>();
+
+    public static AppointmentCache getInstance() {
+        return instance;
+    }
+
+    // one page of the patient's appointments, ordered by appointment id
+    public List<Appointment> findByPatient(String patient, AppointmentPage page) throws SQLException {
+        Entry entry = entry(false, patient);
+        return entry.whole ? entry.page(page, false, patient)
+                : Storages.get().appointments().findByPatient(patient, page);
+    }
+
+    // one page of the caregiver's appointments, ordered by appointment id
+    public List<Appointment> findByCaregiver(String caregiver, AppointmentPage page) throws SQLException {
+        Entry entry = entry(true, caregiver);
+        return entry.whole ? entry.page(page, true, caregiver)
+                : Storages.get().appointments().findByCaregiver(caregiver, page);
+    }
+
+    // an appointment was booked; the lists of its patient and caregiver get it if they are kept
+    public synchronized void booked(Appointment appointment) {
+        String patient = key(false, appointment.getPatientName());
+        String caregiver = key(true, appointment.getCaregiverName());
+        changed(patient);
+        changed(caregiver);
+        add(patient, appointment, appointment.getCaregiverName());
+        add(caregiver, appointment, appointment.getPatientName());
+    }
+
+    // an appointment was cancelled; it leaves the lists of its patient and caregiver
+    public synchronized void cancelled(Appointment appointment) {
+        String patient = key(false, appointment.getPatientName());
+        String caregiver = key(true, appointment.getCaregiverName());
+        changed(patient);
+        changed(caregiver);
+        Entry entry = entries.get(patient);
+        if (entry != null) {
+            entry.remove(appointment.getAppointmentId());
+        }
+        entry = entries.get(caregiver);
+        if (entry != null) {
+            entry.remove(appointment.getAppointmentId());
+        }
+    }
+
+    private Entry entry(boolean caregiver, String username) throws SQLException {
+        String key = key(caregiver, username);
+        Load load;
+        long changesBefore;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt <= maxAgeMillis) {
+                return entry;
+            }
+            load = loading.computeIfAbsent(key, k -> new Load());
+            load.readers++;
+            changesBefore = load.changes;
+        }
+        Metrics.Sample sample = metrics.startCall("appointments.cache.load");
+        // one more than is kept, to tell whether that was all of them
+        AppointmentPage first = new AppointmentPage(0, null, null, maxRows + 1);
+        List<Appointment> appointments;
+        try {
+            appointments = caregiver
+                    ? Storages.get().appointments().findByCaregiver(username, first)
+                    : Storages.get().appointments().findByPatient(username, first);
+            sample.stop(false);
+        } catch (SQLException e) {
+            sample.stop(true);
+            synchronized (this) {
+                finished(key, load);
+            }
+            throw e;
+        }
+        Entry entry = new Entry(appointments.size() <= maxRows, appointments.size());
+        if (entry.whole) {
+            for (Appointment appointment : appointments) {
+                entry.add(appointment, caregiver ? appointment.getPatientName() : appointment.getCaregiverName());
+            }
+        }
+        synchronized (this) {
+            // a booking or cancellation during the read may or may not be in it, so the list is
+            // used this once and read again next time
+            if (load.changes == changesBefore) {
+                entries.put(key, entry);
+            }
+            finished(key, load);
+        }
+        return entry;
+    }
+
+    // called with the lock held; a list that grows past what is kept is dropped, and the user's
+    // next lookup finds out they are to be read in pages
+    private void add(String key, Appointment appointment, String other) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.whole && entry.add(appointment, other) > maxRows) {
+            entries.remove(key);
+        }
+    }
+
+    // called with the lock held
+    private void changed(String key) {
+        Load load = loading.get(key);
+        if (load != null) {
+            load.changes++;
+        }
+    }
+
+    // called with the lock held
+    private void finished(String key, Load load) {
+        if (--load.readers == 0) {
+            loading.remove(key);
+        }
+    }
+
+    private static String key(boolean caregiver, String username) {
+        return (caregiver ? "c:" : "p:") + username;
+    }
+
+    private static int setting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        try {
+            return value == null ? defaultValue : Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // the reads of one user's list under way
+    private static class Load {
+        private int readers = 0;
+        private long changes = 0;
+    }
+
+    // one user's appointments in appointment id order; others holds the caregiver of each of a
+    // patient's appointments and the patient of each of a caregiver's. A user with too many
+    // appointments to keep gets an entry that isn't whole and holds none of them.
+    private static class Entry {
+        private final long loadedAt = System.currentTimeMillis();
+        private final boolean whole;
+        private int size = 0;
+        private int[] ids;
+        private int[] days;
+        private String[] vaccines;
+        private String[] others;
+
+        private Entry(boolean whole, int capacity) {
+            this.whole = whole;
+            int length = whole ? Math.max(capacity, 4) : 0;
+            ids = new int[length];
+            days = new int[length];
+            vaccines = new String[length];
+            others = new String[length];
+        }
+
+        // returns how many appointments the list holds now
+        private synchronized int add(Appointment appointment, String other) {
+            int id = appointment.getAppointmentId();
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at >= 0) {
+                return size;
+            }
+            at = -at - 1;
+            if (size == ids.length) {
+                int length = size * 2;
+                ids = Arrays.copyOf(ids, length);
+                days = Arrays.copyOf(days, length);
+                vaccines = Arrays.copyOf(vaccines, length);
+                others = Arrays.copyOf(others, length);
+            }
+            // new ids are usually the highest, so this rarely moves anything
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            System.arraycopy(days, at, days, at + 1, size - at);
+            System.arraycopy(vaccines, at, vaccines, at + 1, size - at);
+            System.arraycopy(others, at, others, at + 1, size - at);
+            ids[at] = id;
+            days[at] = (int) appointment.getTime().toLocalDate().toEpochDay();
+            vaccines[at] = appointment.getVaccineName();
+            others[at] = other;
+            return ++size;
+        }
+
+        private synchronized void remove(int id) {
+            int at = Arrays.binarySearch(ids, 0, size, id);
+            if (at < 0) {
+                return;
+            }
+            System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+            System.arraycopy(days, at + 1, days, at, size - at - 1);
+            System.arraycopy(vaccines, at + 1, vaccines, at, size - at - 1);
+            System.arraycopy(others, at + 1, others, at, size - at - 1);
+            size--;
+            vaccines[size] = null;
+            others[size] = null;
+        }
+
+        private synchronized List<Appointment> page(AppointmentPage page, boolean caregiver, String username) {
+            List<Appointment> found = new ArrayList<>();
+            int at = Arrays.binarySearch(ids, 0, size, page.getAfterId());
+            at = at >= 0 ? at + 1 : -at - 1;
+            long from = page.getFrom().toLocalDate().toEpochDay();
+            long to = page.getTo().toLocalDate().toEpochDay();
+            for (; at < size && found.size() < page.getLimit(); at++) {
+                if (days[at] < from || days[at] > to) {
+                    continue;
+                }
+                Date d = Date.valueOf(LocalDate.ofEpochDay(days[at]));
+                found.add(new Appointment.AppointmentBuilder(ids[at], vaccines[at],
+                        caregiver ? others[at] : username, caregiver ? username : others[at], d).build());
+            }
+            return found;
+        }
+    }
+}
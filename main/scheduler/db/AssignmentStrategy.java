@@ -0,0 +1,49 @@
+package scheduler.db;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.NavigableSet;
+
+// Decides which of the caregivers available on a date a new appointment goes to. The
+// AvailabilityIndex asks for a choice before every booking and reports back how the booking went,
+// and it keeps the strategy informed about availability and appointments changing, so a strategy
+// can keep whatever bookkeeping it needs without querying the database. Set with the
+// AssignmentStrategy environment variable: least-loaded (the default) or first-available.
+public interface AssignmentStrategy {
+
+    // a caregiver to try for a booking on the date out of those available, or null if there are
+    // none; the choice is held for the caller until done is called for it
+    String choose(LocalDate date, NavigableSet<String> available);
+
+    // the booking the caregiver was chosen for is over; booked is the caregiver who actually got
+    // the appointment, which may be someone else if the chosen one was taken, or null if nobody was
+    default void done(LocalDate date, String chosen, String booked) {
+    }
+
+    // the index was loaded from scratch; appointments holds how many each caregiver has
+    default void reset(Map<String, Integer> appointments) {
+    }
+
+    // the index re-read the date, whatever was known about it may be out of date
+    default void forget(LocalDate date) {
+    }
+
+    // the caregiver became available on the date
+    default void added(LocalDate date, String caregiver) {
+    }
+
+    // one of the caregiver's appointments was cancelled
+    default void cancelled(String caregiver) {
+    }
+
+    static AssignmentStrategy fromSetting() {
+        String value = System.getenv("AssignmentStrategy");
+        if (value != null && value.trim().equals("first-available")) {
+            return new FirstAvailableStrategy();
+        }
+        if (value != null && !value.isEmpty() && !value.trim().equals("least-loaded")) {
+            System.out.println("Ignoring unknown AssignmentStrategy: " + value);
+        }
+        return new LeastLoadedStrategy();
+    }
+}
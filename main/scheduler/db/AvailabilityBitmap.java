@@ -0,0 +1,219 @@
+package scheduler.db;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Caregiver availability as one bitset per caregiver, a bit per day, plus the number of
+// caregivers available on each day. Questions about a range of days ("who is free on any of
+// them", "which have at least n caregivers free") are answered a 64-day word at a time instead
+// of a set lookup per caregiver and day. Each bitset only spans the words between the
+// caregiver's first and last available day, so 5,000 caregivers over three years take about a
+// megabyte, names included. Kept up to date by the AvailabilityIndex, which it mirrors.
+class AvailabilityBitmap {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<DayBits> schedules = new ArrayList<>();
+    // caregivers available per day, indexed by epoch day - countsFrom
+    private int[] counts = new int[0];
+    private long countsFrom = 0;
+
+    void set(LocalDate date, String caregiver) {
+        lock.writeLock().lock();
+        try {
+            if (schedule(caregiver).set(date.toEpochDay())) {
+                addCount(date.toEpochDay(), 1);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear(LocalDate date, String caregiver) {
+        lock.writeLock().lock();
+        try {
+            Integer id = ids.get(caregiver);
+            if (id != null && schedules.get(id).clear(date.toEpochDay())) {
+                addCount(date.toEpochDay(), -1);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // replaces whoever was available on the date with the given caregivers
+    void setDay(LocalDate date, Iterable<String> caregivers) {
+        lock.writeLock().lock();
+        try {
+            long day = date.toEpochDay();
+            for (DayBits schedule : schedules) {
+                if (schedule.clear(day)) {
+                    addCount(day, -1);
+                }
+            }
+            for (String caregiver : caregivers) {
+                if (schedule(caregiver).set(day)) {
+                    addCount(day, 1);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // caregivers available on at least one day from first to last, in alphabetical order
+    TreeSet<String> freeOnAnyDay(LocalDate first, LocalDate last) {
+        TreeSet<String> free = new TreeSet<>();
+        lock.readLock().lock();
+        try {
+            for (int id = 0; id < schedules.size(); id++) {
+                if (schedules.get(id).any(first.toEpochDay(), last.toEpochDay())) {
+                    free.add(names.get(id));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return free;
+    }
+
+    // the days from first to last with at least minimum caregivers available, and how many are
+    NavigableMap<LocalDate, Integer> daysWithAtLeast(int minimum, LocalDate first, LocalDate last) {
+        NavigableMap<LocalDate, Integer> days = new TreeMap<>();
+        lock.readLock().lock();
+        try {
+            long from = Math.max(first.toEpochDay(), countsFrom);
+            long to = Math.min(last.toEpochDay(), countsFrom + counts.length - 1);
+            for (long day = from; day <= to; day++) {
+                int count = counts[(int) (day - countsFrom)];
+                if (count > 0 && count >= minimum) {
+                    days.put(LocalDate.ofEpochDay(day), count);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return days;
+    }
+
+    // how many days each caregiver is available on; caregivers without any are left out
+    Map<String, Integer> daysByCaregiver() {
+        Map<String, Integer> days = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (int id = 0; id < schedules.size(); id++) {
+                int count = schedules.get(id).count();
+                if (count > 0) {
+                    days.put(names.get(id), count);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return days;
+    }
+
+    private DayBits schedule(String caregiver) {
+        Integer id = ids.get(caregiver);
+        if (id == null) {
+            id = names.size();
+            ids.put(caregiver, id);
+            names.add(caregiver);
+            schedules.add(new DayBits());
+        }
+        return schedules.get(id);
+    }
+
+    private void addCount(long day, int delta) {
+        if (counts.length == 0) {
+            countsFrom = day;
+            counts = new int[64];
+        } else if (day < countsFrom) {
+            // grow downwards by at least as much again, so a run of earlier days doesn't copy every time
+            int grow = (int) Math.max(countsFrom - day, counts.length);
+            int[] grown = new int[counts.length + grow];
+            System.arraycopy(counts, 0, grown, grow, counts.length);
+            counts = grown;
+            countsFrom -= grow;
+        } else if (day >= countsFrom + counts.length) {
+            counts = Arrays.copyOf(counts, (int) Math.max(day - countsFrom + 1, 2L * counts.length));
+        }
+        counts[(int) (day - countsFrom)] += delta;
+    }
+
+    // the days one caregiver is available on: bit d of words[w] is epoch day (firstWord + w) * 64 + d
+    private static class DayBits {
+        private long firstWord = 0;
+        private long[] words = new long[0];
+
+        // returns whether the bit was not set before
+        private boolean set(long day) {
+            long word = Math.floorDiv(day, 64);
+            if (words.length == 0) {
+                firstWord = word;
+                words = new long[1];
+            } else if (word < firstWord) {
+                long[] grown = new long[(int) (words.length + firstWord - word)];
+                System.arraycopy(words, 0, grown, (int) (firstWord - word), words.length);
+                words = grown;
+                firstWord = word;
+            } else if (word >= firstWord + words.length) {
+                words = Arrays.copyOf(words, (int) (word - firstWord + 1));
+            }
+            int index = (int) (word - firstWord);
+            long bit = 1L << Math.floorMod(day, 64);
+            boolean was = (words[index] & bit) != 0;
+            words[index] |= bit;
+            return !was;
+        }
+
+        // returns whether the bit was set before
+        private boolean clear(long day) {
+            long word = Math.floorDiv(day, 64);
+            if (word < firstWord || word >= firstWord + words.length) {
+                return false;
+            }
+            int index = (int) (word - firstWord);
+            long bit = 1L << Math.floorMod(day, 64);
+            boolean was = (words[index] & bit) != 0;
+            words[index] &= ~bit;
+            return was;
+        }
+
+        private int count() {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+
+        // whether any day from first to last is set
+        private boolean any(long first, long last) {
+            long fromWord = Math.max(Math.floorDiv(first, 64), firstWord);
+            long toWord = Math.min(Math.floorDiv(last, 64), firstWord + words.length - 1);
+            for (long word = fromWord; word <= toWord; word++) {
+                long bits = words[(int) (word - firstWord)];
+                if (word == Math.floorDiv(first, 64)) {
+                    bits &= -1L << Math.floorMod(first, 64);
+                }
+                if (word == Math.floorDiv(last, 64)) {
+                    bits &= -1L >>> (63 - Math.floorMod(last, 64));
+                }
+                if (bits != 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package scheduler.db;
+
+import scheduler.storage.Storages;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-memory copy of the Availabilities table: date -> caregiver usernames in alphabetical order,
+// so schedule lookups and "first available caregiver" don't need a query.
+//
+// Consistency: every write this process makes to Availabilities (upload_availability, reserve,
+// cancel) is applied here right after it succeeds. If a write fails, or the table turns out to
+// disagree with the index, the affected date is invalidated and re-read from the table on its
+// next lookup. Writes made by other scheduler processes are picked up by a full reload once the
+// index is older than AvailabilityRefreshSeconds (default 60).
+//
+// Which available caregiver a booking goes to is up to the AssignmentStrategy, which the index
+// keeps up to date with every change it sees. Questions about whole ranges of days are answered
+// from an AvailabilityBitmap the index keeps alongside.
+//
+// A date is only changed or re-read with its DateLocks lock held. A full load reads the table
+// without any lock and builds a new map and bitmap off to the side, then takes every lock just to
+// put them in place, so lookups never see a half-loaded index. Dates changed while the table was
+// being read may be missing from what was read; they are marked stale and re-read on next use.
+public class AvailabilityIndex {
+
+    private static final long refreshMillis = refreshSetting() * 1000L;
+    private static final AvailabilityIndex instance = new AvailabilityIndex();
+
+    private final DateLocks dateLocks = DateLocks.getInstance();
+    // replaced as a whole by load, otherwise only changed under the date's lock
+    private volatile ConcurrentSkipListMap<LocalDate, ConcurrentSkipListSet<String>> byDate =
+            new ConcurrentSkipListMap<>();
+    private volatile AvailabilityBitmap bitmap = new AvailabilityBitmap();
+    private final Set<LocalDate> stale = ConcurrentHashMap.newKeySet();
+    // the dates changed since the running load started reading the table, null outside a load
+    private volatile Set<LocalDate> changedWhileLoading = null;
+    private volatile long loadedAt = 0;
+    private volatile boolean loaded = false;
+    private volatile AssignmentStrategy strategy = AssignmentStrategy.fromSetting();
+
+    public static AvailabilityIndex getInstance() {
+        return instance;
+    }
+
+    // loads the whole table, replacing whatever the index held; must not be called with any of
+    // the DateLocks held
+    public synchronized void load() throws SQLException {
+        Set<LocalDate> changed = ConcurrentHashMap.newKeySet();
+        changedWhileLoading = changed;
+        try {
+            ConcurrentSkipListMap<LocalDate, ConcurrentSkipListSet<String>> fresh = new ConcurrentSkipListMap<>();
+            AvailabilityBitmap freshBitmap = new AvailabilityBitmap();
+            for (Map.Entry<LocalDate, NavigableSet<String>> entry : Storages.get().availabilities().findAll().entrySet()) {
+                fresh.put(entry.getKey(), new ConcurrentSkipListSet<>(entry.getValue()));
+                freshBitmap.setDay(entry.getKey(), entry.getValue());
+            }
+            Map<String, Integer> appointments = Storages.get().appointments().countByCaregiver();
+
+            ReentrantLock[] locks = dateLocks.lockAll();
+            try {
+                byDate = fresh;
+                bitmap = freshBitmap;
+                stale.clear();
+                stale.addAll(changed);
+                strategy.reset(appointments);
+                loadedAt = System.currentTimeMillis();
+                loaded = true;
+                changedWhileLoading = null;
+            } finally {
+                DateLocks.unlock(locks);
+            }
+        } finally {
+            changedWhileLoading = null;
+        }
+    }
+
+    // re-reads a single date from the table
+    public void reload(Date d) throws SQLException {
+        LocalDate date = d.toLocalDate();
+        ReentrantLock[] locks = dateLocks.lock(date);
+        try {
+            ConcurrentSkipListSet<String> fresh =
+                    new ConcurrentSkipListSet<>(Storages.get().availabilities().findByDate(d));
+            if (fresh.isEmpty()) {
+                byDate.remove(date);
+            } else {
+                byDate.put(date, fresh);
+            }
+            bitmap.setDay(date, fresh);
+            stale.remove(date);
+            strategy.forget(date);
+            changed(date);
+        } finally {
+            DateLocks.unlock(locks);
+        }
+    }
+
+    // caregivers available on at least one day from first to last, in alphabetical order
+    public NavigableSet<String> getFreeCaregivers(Date first, Date last) throws SQLException {
+        ensureFresh(first, last);
+        return bitmap.freeOnAnyDay(first.toLocalDate(), last.toLocalDate());
+    }
+
+    // the days from first to last with at least minimum caregivers available, and how many are
+    public NavigableMap<LocalDate, Integer> getOpenDays(Date first, Date last, int minimum) throws SQLException {
+        ensureFresh(first, last);
+        return bitmap.daysWithAtLeast(minimum, first.toLocalDate(), last.toLocalDate());
+    }
+
+    // how many days each caregiver is available on; caregivers without any are left out
+    public Map<String, Integer> getFreeDaysByCaregiver() throws SQLException {
+        if (!loaded || System.currentTimeMillis() - loadedAt > refreshMillis) {
+            load();
+        } else {
+            for (LocalDate date : stale) {
+                reload(Date.valueOf(date));
+            }
+        }
+        return bitmap.daysByCaregiver();
+    }
+
+    // re-reads a range of dates from the table in one go
+    private void reloadRange(Date first, Date last) throws SQLException {
+        ReentrantLock[] locks = dateLocks.lockRange(first.toLocalDate(), last.toLocalDate());
+        try {
+            NavigableMap<LocalDate, NavigableSet<String>> fresh =
+                    Storages.get().availabilities().findByDateRange(first, last);
+            for (LocalDate date = first.toLocalDate(); !date.isAfter(last.toLocalDate()); date = date.plusDays(1)) {
+                NavigableSet<String> caregivers = fresh.get(date);
+                if (caregivers == null) {
+                    byDate.remove(date);
+                    bitmap.setDay(date, Collections.emptySet());
+                } else {
+                    byDate.put(date, new ConcurrentSkipListSet<>(caregivers));
+                    bitmap.setDay(date, caregivers);
+                }
+                stale.remove(date);
+                strategy.forget(date);
+                changed(date);
+            }
+        } finally {
+            DateLocks.unlock(locks);
+        }
+    }
+
+    // caregivers available on the given date, in alphabetical order
+    public NavigableSet<String> getCaregivers(Date d) throws SQLException {
+        ensureFresh(d);
+        ConcurrentSkipListSet<String> caregivers = byDate.get(d.toLocalDate());
+        if (caregivers == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return Collections.unmodifiableNavigableSet(caregivers);
+    }
+
+    // every date from first to last, both included, with the caregivers available on it in
+    // alphabetical order, for a calendar of the range; dates marked stale are re-read together
+    public NavigableMap<LocalDate, NavigableSet<String>> getCalendar(Date first, Date last) throws SQLException {
+        ensureFresh(first, last);
+        LocalDate from = first.toLocalDate();
+        LocalDate to = last.toLocalDate();
+        NavigableMap<LocalDate, NavigableSet<String>> calendar = new TreeMap<>();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            ConcurrentSkipListSet<String> caregivers = byDate.get(date);
+            calendar.put(date, caregivers == null ? Collections.emptyNavigableSet()
+                    : Collections.unmodifiableNavigableSet(caregivers));
+        }
+        return calendar;
+    }
+
+    // the caregiver a booking on the given date should go to, or null if nobody is available;
+    // every caregiver handed out must be given back with done once the booking is over. Called
+    // with the date's lock held.
+    public String choose(Date d) throws SQLException {
+        ensureFresh(d);
+        ConcurrentSkipListSet<String> caregivers = byDate.get(d.toLocalDate());
+        if (caregivers == null) {
+            return null;
+        }
+        return strategy.choose(d.toLocalDate(), caregivers);
+    }
+
+    // the booking the caregiver was chosen for is over: booked got the appointment, or nobody if null
+    public void done(Date d, String chosen, String booked) {
+        if (booked != null) {
+            remove(d, booked);
+        }
+        strategy.done(d.toLocalDate(), chosen, booked);
+    }
+
+    // an appointment was cancelled, which gives its caregiver the day back
+    public void cancelled(Date d, String caregiver) {
+        add(d, caregiver);
+        strategy.cancelled(caregiver);
+    }
+
+    // add and remove are called with the date's lock held, after the storage has been changed
+    public void add(Date d, String caregiver) {
+        byDate.compute(d.toLocalDate(), (k, caregivers) -> {
+            if (caregivers == null) {
+                caregivers = new ConcurrentSkipListSet<>();
+            }
+            caregivers.add(caregiver);
+            return caregivers;
+        });
+        bitmap.set(d.toLocalDate(), caregiver);
+        strategy.added(d.toLocalDate(), caregiver);
+        changed(d.toLocalDate());
+    }
+
+    public void remove(Date d, String caregiver) {
+        byDate.computeIfPresent(d.toLocalDate(), (k, caregivers) -> {
+            caregivers.remove(caregiver);
+            return caregivers.isEmpty() ? null : caregivers;
+        });
+        bitmap.clear(d.toLocalDate(), caregiver);
+        changed(d.toLocalDate());
+    }
+
+    // marks a date as untrusted after a failed or conflicting write; it is re-read on next use
+    public void invalidate(Date d) {
+        stale.add(d.toLocalDate());
+    }
+
+    public void setStrategy(AssignmentStrategy strategy) throws SQLException {
+        this.strategy = strategy;
+        if (loaded) {
+            strategy.reset(Storages.get().appointments().countByCaregiver());
+        }
+    }
+
+    // like ensureFresh for a whole range, with any stale dates in it re-read together
+    private void ensureFresh(Date first, Date last) throws SQLException {
+        if (!loaded || System.currentTimeMillis() - loadedAt > refreshMillis) {
+            load();
+            return;
+        }
+        for (LocalDate date : stale) {
+            if (!date.isBefore(first.toLocalDate()) && !date.isAfter(last.toLocalDate())) {
+                reloadRange(first, last);
+                return;
+            }
+        }
+    }
+
+    private void ensureFresh(Date d) throws SQLException {
+        boolean expired = !loaded || System.currentTimeMillis() - loadedAt > refreshMillis;
+        if (expired && !dateLocks.holdsAny()) {
+            load();
+        } else if (expired || stale.contains(d.toLocalDate())) {
+            // a booking holding the date's lock can't wait for every other lock, so it only has its
+            // own date re-read and leaves the full load to the next lookup made without a lock
+            reload(d);
+        }
+    }
+
+    // a date was changed; if a load is reading the table it may have missed that
+    private void changed(LocalDate date) {
+        Set<LocalDate> changed = changedWhileLoading;
+        if (changed != null) {
+            changed.add(date);
+        }
+    }
+
+    private static int refreshSetting() {
+        String value = System.getenv("AvailabilityRefreshSeconds");
+        try {
+            return value == null ? 60 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 60;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package scheduler.db;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+// Per-row outcome of a bulk command. Rows are reported in the order they were submitted.
+public class BatchResult {
+
+    public enum Outcome {
+        APPLIED,
+        SKIPPED,
+        FAILED
+    }
+
+    private final List<String> rows = new ArrayList<>();
+    private final List<Outcome> outcomes = new ArrayList<>();
+    private final List<String> messages = new ArrayList<>();
+
+    public void add(String row, Outcome outcome, String message) {
+        rows.add(row);
+        outcomes.add(outcome);
+        messages.add(message);
+    }
+
+    // marks every row that had been applied as failed, used when the transaction is rolled back
+    public void rollBack(String message) {
+        for (int i = 0; i < outcomes.size(); i++) {
+            if (outcomes.get(i) == Outcome.APPLIED) {
+                outcomes.set(i, Outcome.FAILED);
+                messages.set(i, message);
+            }
+        }
+    }
+
+    public void set(int index, Outcome outcome, String message) {
+        outcomes.set(index, outcome);
+        messages.set(index, message);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public String getRow(int index) {
+        return rows.get(index);
+    }
+
+    public Outcome getOutcome(int index) {
+        return outcomes.get(index);
+    }
+
+    public String getMessage(int index) {
+        return messages.get(index);
+    }
+
+    // index of the row a failed JDBC batch stopped at: the driver either stops at the failing
+    // row or marks it EXECUTE_FAILED
+    public static int failedRow(int[] updateCounts) {
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                return i;
+            }
+        }
+        return updateCounts.length;
+    }
+
+    // checks every amount of a bulk command before anything is written: if any of them isn't
+    // positive the whole batch is rejected, the offending rows failed and the others skipped;
+    // returns null if the batch may go ahead
+    public static BatchResult rejectNonPositive(Map<String, Integer> amounts) {
+        if (amounts.values().stream().allMatch(amount -> amount > 0)) {
+            return null;
+        }
+        BatchResult result = new BatchResult();
+        for (Map.Entry<String, Integer> entry : amounts.entrySet()) {
+            if (entry.getValue() <= 0) {
+                result.add(entry.getKey(), Outcome.FAILED, "doses must be positive");
+            } else {
+                result.add(entry.getKey(), Outcome.SKIPPED, "batch rejected");
+            }
+        }
+        return result;
+    }
+
+    public int count(Outcome outcome) {
+        return Collections.frequency(outcomes, outcome);
+    }
+}
@@ -1,41 +1,86 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionManager {
 
-    private final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
-    private final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
+    private static final String driverName = "com.microsoft.sqlserver.jdbc.SQLServerDriver";
+    private static final String connectionUrl = "jdbc:sqlserver://" + System.getenv("Server") +
             ".database.windows.net:1433;database=" + System.getenv("DBName");
-    private final String userName = System.getenv("UserID");
-    private final String userPass = System.getenv("Password");
+    private static final String userName = System.getenv("UserID");
+    private static final String userPass = System.getenv("Password");
+
+    // pool settings, all optional
+    private static final int poolMinSize = intSetting("PoolMinSize", 1);
+    private static final int poolMaxSize = intSetting("PoolMaxSize", 10);
+    private static final long poolIdleTimeoutMillis = intSetting("PoolIdleTimeoutSeconds", 300) * 1000L;
+    private static final long poolValidationIntervalMillis = intSetting("PoolValidationIntervalSeconds", 5) * 1000L;
+    // connections held longer than this are reported as possible leaks, 0 turns that off
+    private static final long poolLeakThresholdMillis = intSetting("PoolLeakThresholdSeconds", 60) * 1000L;
+    // 1 to report them with the stack trace of whoever borrowed them, which costs a stack trace
+    // on every borrow
+    private static final boolean poolLeakStackTraces = intSetting("PoolLeakStackTraces", 0) != 0;
+    private static final long poolBorrowTimeoutMillis = intSetting("PoolBorrowTimeoutSeconds", 30) * 1000L;
+    // prepared statements kept per connection, 0 turns the cache off
+    private static final int statementCacheSize = intSetting("StatementCacheSize", 32);
+
+    private static ConnectionPool pool = null;
 
     private Connection con = null;
 
     public ConnectionManager() {
-        try {
-            Class.forName(driverName);
-        } catch (ClassNotFoundException e) {
-            System.out.println(e.toString());
+        getPool();
+    }
+
+    // every ConnectionManager borrows from the same pool, which is created on first use
+    public static synchronized ConnectionPool getPool() {
+        if (pool == null) {
+            try {
+                Class.forName(driverName);
+            } catch (ClassNotFoundException e) {
+                System.out.println(e.toString());
+            }
+            pool = new ConnectionPool(connectionUrl, userName, userPass, poolMinSize, poolMaxSize,
+                    poolIdleTimeoutMillis, poolValidationIntervalMillis, poolLeakThresholdMillis,
+                    poolLeakStackTraces, poolBorrowTimeoutMillis, statementCacheSize);
+            ShutdownSequence.getInstance().addClose(pool::close);
         }
+        return pool;
     }
 
     public Connection createConnection() {
+        Metrics.Sample sample = Metrics.getInstance().startCall("db.connect");
         try {
-            con = DriverManager.getConnection(connectionUrl, userName, userPass);
+            con = getPool().borrow();
         } catch (SQLException e) {
             e.printStackTrace();
+        } finally {
+            sample.stop(con == null);
         }
         return con;
     }
 
+    // returns the connection to the pool; safe to call more than once
     public void closeConnection() {
+        if (this.con != null) {
+            getPool().release(this.con);
+            this.con = null;
+        }
+    }
+
+    private static int intSetting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
         try {
-            this.con.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
         }
     }
 }
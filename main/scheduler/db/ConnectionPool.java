@@ -0,0 +1,244 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// A bounded pool of JDBC connections shared by every ConnectionManager in the process.
+// Connections are handed out most-recently-used first so the warm ones get reused, idle
+// connections above the minimum size are closed after a while, connections that sat idle
+// are validated before they are handed out again, and connections that are held for too
+// long are reported, if asked for together with the stack trace of whoever borrowed them (which
+// means recording one on every borrow). Each connection keeps its own cache of prepared
+// statements (see StatementCache).
+public class ConnectionPool {
+
+    private final String connectionUrl;
+    private final String userName;
+    private final String userPass;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final long leakThresholdMillis;
+    private final boolean leakStackTraces;
+    private final long borrowTimeoutMillis;
+    private final int statementCacheSize;
+
+    // permits bound the number of borrowed connections; new connections are only opened when
+    // no idle one is left, so this also bounds the total number of open connections
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Map<Connection, PooledConnection> borrowed = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+    public ConnectionPool(String connectionUrl, String userName, String userPass, int minSize, int maxSize,
+                          long idleTimeoutMillis, long validationIntervalMillis, long leakThresholdMillis,
+                          boolean leakStackTraces, long borrowTimeoutMillis, int statementCacheSize) {
+        if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+        }
+        this.connectionUrl = connectionUrl;
+        this.userName = userName;
+        this.userPass = userPass;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.leakStackTraces = leakThresholdMillis > 0 && leakStackTraces;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = leakThresholdMillis > 0 ? Math.min(idleTimeoutMillis, leakThresholdMillis) : idleTimeoutMillis;
+        period = Math.max(1000, period / 2);
+        this.housekeeper.scheduleWithFixedDelay(this::housekeep, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("Timed out waiting for a database connection (max pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (isUsable(pc)) {
+                    break;
+                }
+                closeQuietly(pc);
+            }
+            if (pc == null) {
+                pc = open();
+            }
+            pc.borrowedAt = System.currentTimeMillis();
+            pc.borrowSite = leakStackTraces ? new Throwable("Connection borrowed here") : null;
+            pc.leakReported = false;
+            borrowed.put(pc.handle, pc);
+            return pc.handle;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(Connection con) {
+        if (con == null) {
+            return;
+        }
+        PooledConnection pc = borrowed.remove(con);
+        if (pc == null) {
+            // not ours (or already released), nothing to give back
+            return;
+        }
+        try {
+            if (closed || pc.connection.isClosed()) {
+                closeQuietly(pc);
+                return;
+            }
+            if (pc.statements != null) {
+                pc.statements.releaseAll();
+            }
+            if (!con.getAutoCommit()) {
+                // never hand out a connection with someone else's open transaction
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            pc.lastUsed = System.currentTimeMillis();
+            pc.borrowSite = null;
+            idle.offerFirst(pc);
+        } catch (SQLException e) {
+            closeQuietly(pc);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            closeQuietly(pc);
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        // skip the round trip for connections that were returned a moment ago
+        if (System.currentTimeMillis() - pc.lastUsed < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            return pc.connection.isValid(5);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            // idle eviction: close the least recently used connections above the minimum size
+            while (idle.size() > minSize) {
+                PooledConnection oldest = idle.peekLast();
+                if (oldest == null || now - oldest.lastUsed < idleTimeoutMillis) {
+                    break;
+                }
+                if (idle.removeLastOccurrence(oldest)) {
+                    closeQuietly(oldest);
+                }
+            }
+
+            // keep the minimum number of connections warm
+            while (!closed && idle.size() + borrowed.size() < minSize && permits.tryAcquire()) {
+                try {
+                    idle.offerLast(open());
+                } finally {
+                    permits.release();
+                }
+            }
+
+            // leak detection: report connections that have been out for too long, once each
+            for (PooledConnection pc : borrowed.values()) {
+                if (leakThresholdMillis > 0 && !pc.leakReported && now - pc.borrowedAt > leakThresholdMillis) {
+                    pc.leakReported = true;
+                    Throwable site = pc.borrowSite;
+                    System.err.println("Possible connection leak: connection held for "
+                            + (now - pc.borrowedAt) + " ms");
+                    if (site != null) {
+                        site.printStackTrace();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Connection pool housekeeping failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        return new PooledConnection(DriverManager.getConnection(connectionUrl, userName, userPass),
+                statementCacheSize);
+    }
+
+    private static void closeQuietly(PooledConnection pc) {
+        if (pc.statements != null) {
+            pc.statements.close();
+        }
+        try {
+            pc.connection.close();
+        } catch (SQLException e) {
+            // the connection is being thrown away anyway
+        }
+    }
+
+    private static class PooledConnection {
+        private final Connection connection;
+        // what borrowers get: the connection itself, or a proxy over it that caches statements
+        private final Connection handle;
+        private final StatementCache statements;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile long borrowedAt;
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+
+        private PooledConnection(Connection connection, int statementCacheSize) {
+            this.connection = connection;
+            this.statements = statementCacheSize > 0 ? new StatementCache(connection, statementCacheSize) : null;
+            this.handle = statements != null ? statements.handle() : connection;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package scheduler.db;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Locks partitioning the work on caregiver availability by date: each date maps to one of
+// ReservationStripes locks (default 64). Whoever changes a date's availability, in the storage
+// and in the AvailabilityIndex, holds that date's lock while doing so, so the changes to a date
+// are made one at a time and the index sees them in the order the storage did. Work on different
+// dates runs side by side.
+//
+// Anything that needs the locks of several dates takes them in stripe order, so no two callers can
+// deadlock. That only holds if nobody asks for more locks while already holding one, so a thread
+// that holds a lock (see holdsAny) may only take the same lock again.
+public class DateLocks {
+
+    private static final int stripeCount = Integer.highestOneBit(setting("ReservationStripes", 64));
+    private static final DateLocks instance = new DateLocks();
+
+    private final ReentrantLock[] stripes = new ReentrantLock[stripeCount];
+
+    private DateLocks() {
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public static DateLocks getInstance() {
+        return instance;
+    }
+
+    // takes the locks of all the dates, each stripe once, and returns them for unlock
+    public ReentrantLock[] lock(LocalDate... dates) {
+        int[] indexes = new int[dates.length];
+        for (int i = 0; i < dates.length; i++) {
+            indexes[i] = stripeOf(dates[i]);
+        }
+        return lockStripes(indexes);
+    }
+
+    // takes the locks of every date from first to last; a range longer than there are stripes
+    // covers every stripe anyway
+    public ReentrantLock[] lockRange(LocalDate first, LocalDate last) {
+        if (ChronoUnit.DAYS.between(first, last) >= stripeCount) {
+            return lockAll();
+        }
+        LocalDate[] dates = new LocalDate[(int) ChronoUnit.DAYS.between(first, last) + 1];
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = first.plusDays(i);
+        }
+        return lock(dates);
+    }
+
+    // takes every lock, for work that may touch any date
+    public ReentrantLock[] lockAll() {
+        int[] indexes = new int[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            indexes[i] = i;
+        }
+        return lockStripes(indexes);
+    }
+
+    public static void unlock(ReentrantLock[] locks) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    // whether the current thread holds any of the locks
+    public boolean holdsAny() {
+        for (ReentrantLock stripe : stripes) {
+            if (stripe.isHeldByCurrentThread()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ReentrantLock[] lockStripes(int[] indexes) {
+        Arrays.sort(indexes);
+        int distinct = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (i == 0 || indexes[i] != indexes[i - 1]) {
+                indexes[distinct++] = indexes[i];
+            }
+        }
+        ReentrantLock[] locks = new ReentrantLock[distinct];
+        for (int i = 0; i < distinct; i++) {
+            locks[i] = stripes[indexes[i]];
+            locks[i].lock();
+        }
+        return locks;
+    }
+
+    private static int stripeOf(LocalDate date) {
+        long day = date.toEpochDay();
+        int hash = (int) (day ^ (day >>> 32));
+        // consecutive days land on different stripes; the mixing keeps distant dates from lining up
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (stripeCount - 1);
+    }
+
+    private static int setting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        try {
+            return value == null ? defaultValue : Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package scheduler.db;
+
+import scheduler.storage.Storages;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands out vaccine doses from blocks leased off the Vaccines table. Instead of updating the
+// Vaccines row for every booking, this process takes up to DoseLeaseBlockSize doses (default 10)
+// from the row in one atomic update and then hands them out from a lock-free local counter.
+// Doses that are still unused when a lease expires (DoseLeaseSeconds, default 60) or when the
+// process shuts down are added back to the row, so other scheduler processes can lease them.
+// Listeners hear whenever doses go back, so whoever is waiting for them can try again.
+public class DoseLeaseManager {
+
+    public enum Status {
+        ACQUIRED,
+        UNKNOWN_VACCINE,
+        NO_DOSES
+    }
+
+    // told whenever doses of a vaccine go back to where acquire can take them again
+    public interface ReturnListener {
+        void dosesReturned(String vaccine, int doses);
+    }
+
+    private static final int blockSize = setting("DoseLeaseBlockSize", 10);
+    private static final long leaseMillis = setting("DoseLeaseSeconds", 60) * 1000L;
+    private static final DoseLeaseManager instance = new DoseLeaseManager();
+
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    private final List<ReturnListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService expirer;
+
+    private DoseLeaseManager() {
+        expirer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dose-lease-expirer");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, leaseMillis / 2);
+        expirer.scheduleWithFixedDelay(this::returnExpired, period, period, TimeUnit.MILLISECONDS);
+        // leases go back before the connection pool closes
+        ShutdownSequence.getInstance().addStep(this::returnAll);
+    }
+
+    public static DoseLeaseManager getInstance() {
+        return instance;
+    }
+
+    // takes one dose of the vaccine, leasing a new block from the database only when the local one is used up
+    public Status acquire(String vaccine) throws SQLException {
+        Lease lease = leases.get(vaccine);
+        if (lease != null && lease.tryTake()) {
+            return Status.ACQUIRED;
+        }
+        synchronized (lockFor(vaccine)) {
+            // someone else may have refilled the lease while we waited
+            lease = leases.get(vaccine);
+            if (lease != null && lease.tryTake()) {
+                return Status.ACQUIRED;
+            }
+            if (lease != null) {
+                giveBack(vaccine, lease);
+            }
+            int taken = leaseFromTable(vaccine, blockSize);
+            if (taken < 0) {
+                return Status.UNKNOWN_VACCINE;
+            } else if (taken == 0) {
+                return Status.NO_DOSES;
+            }
+            // keep one of the block for this caller
+            leases.put(vaccine, new Lease(taken - 1));
+            return Status.ACQUIRED;
+        }
+    }
+
+    // returns one dose, e.g. when a reservation that took it failed or an appointment was cancelled;
+    // it goes back into the live lease if there is one, otherwise straight to the Vaccines row
+    public void release(String vaccine) throws SQLException {
+        Lease lease = leases.get(vaccine);
+        if (lease == null || !lease.tryPut()) {
+            returnToTable(vaccine, 1);
+        }
+        returned(vaccine, 1);
+    }
+
+    // listeners are called on the thread that returned the doses, which may hold locks of its
+    // own, so they should only take note and do any real work elsewhere
+    public void addReturnListener(ReturnListener listener) {
+        listeners.add(listener);
+    }
+
+    // doses this process holds for the vaccine but has not handed out yet
+    public int getLeasedDoses(String vaccine) {
+        Lease lease = leases.get(vaccine);
+        return lease == null ? 0 : Math.max(0, lease.remaining.get());
+    }
+
+    private void returnExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            if (entry.getValue().expiresAt <= now) {
+                synchronized (lockFor(entry.getKey())) {
+                    try {
+                        giveBack(entry.getKey(), entry.getValue());
+                    } catch (SQLException e) {
+                        System.out.println("Could not return leased doses of " + entry.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    private void returnAll() {
+        expirer.shutdownNow();
+        for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+            try {
+                giveBack(entry.getKey(), entry.getValue());
+            } catch (SQLException e) {
+                System.out.println("Could not return leased doses of " + entry.getKey());
+            }
+        }
+    }
+
+    // retires the lease and adds whatever was left of it back to the row
+    private void giveBack(String vaccine, Lease lease) throws SQLException {
+        leases.remove(vaccine, lease);
+        int unused = lease.retire();
+        if (unused > 0) {
+            try {
+                returnToTable(vaccine, unused);
+            } catch (SQLException e) {
+                // keep the doses local rather than losing them, the next expiry run retries
+                leases.putIfAbsent(vaccine, new Lease(unused));
+                throw e;
+            }
+            returned(vaccine, unused);
+        }
+    }
+
+    private void returned(String vaccine, int doses) {
+        for (ReturnListener listener : listeners) {
+            listener.dosesReturned(vaccine, doses);
+        }
+    }
+
+    // takes min(Doses, want) off the row and reports how many were taken, -1 for an unknown vaccine
+    private int leaseFromTable(String vaccine, int want) throws SQLException {
+        return Storages.get().vaccines().takeDoses(vaccine, want);
+    }
+
+    private void returnToTable(String vaccine, int doses) throws SQLException {
+        Storages.get().vaccines().addDoses(vaccine, doses);
+    }
+
+    private Object lockFor(String vaccine) {
+        return locks.computeIfAbsent(vaccine, k -> new Object());
+    }
+
+    private static int setting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        try {
+            return value == null ? defaultValue : Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static class Lease {
+        // a retired lease is marked with a negative count so no one can take from or add to it
+        private final AtomicInteger remaining;
+        private final long expiresAt = System.currentTimeMillis() + leaseMillis;
+
+        private Lease(int doses) {
+            this.remaining = new AtomicInteger(doses);
+        }
+
+        private boolean tryTake() {
+            if (System.currentTimeMillis() >= expiresAt) {
+                return false;
+            }
+            while (true) {
+                int current = remaining.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (remaining.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean tryPut() {
+            while (true) {
+                int current = remaining.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (remaining.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private int retire() {
+            return Math.max(0, remaining.getAndSet(-1));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package scheduler.db;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.NavigableSet;
+
+// Always the alphabetically first caregiver available, which is how reserve used to pick. Every
+// booking on a date goes after the same caregiver, so concurrent ones collide on them.
+public class FirstAvailableStrategy implements AssignmentStrategy {
+
+    @Override
+    public String choose(LocalDate date, NavigableSet<String> available) {
+        Iterator<String> it = available.iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+}
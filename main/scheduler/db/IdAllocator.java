@@ -0,0 +1,64 @@
+package scheduler.db;
+
+import scheduler.storage.Storages;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands out appointment ids using hi/lo allocation. Each trip to the storage reserves a whole
+// block of ids (sp_sequence_get_range on the AppointmentIds sequence for the database), and
+// this process then hands them out from memory. Several scheduler processes sharing one
+// database each get disjoint blocks, so ids never collide, and ids left in a block when a
+// process exits are simply skipped.
+public class IdAllocator {
+
+    private final int blockSize;
+    private volatile Block current = new Block(0, 0);
+
+    public IdAllocator(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    public int nextId() throws SQLException {
+        while (true) {
+            Block block = current;
+            long id = block.next.getAndIncrement();
+            if (id < block.end) {
+                return (int) id;
+            }
+            refill(block);
+        }
+    }
+
+    // allocates count ids at once, e.g. for bulk booking paths; the ids are unique but not
+    // necessarily contiguous
+    public int[] nextIds(int count) throws SQLException {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = nextId();
+        }
+        return ids;
+    }
+
+    private synchronized void refill(Block exhausted) throws SQLException {
+        // another thread may have refilled while we waited for the lock
+        if (current != exhausted) {
+            return;
+        }
+        long start = Storages.get().appointments().nextIdBlock(blockSize);
+        current = new Block(start, start + blockSize);
+    }
+
+    private static class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
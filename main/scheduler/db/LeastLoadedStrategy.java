@@ -0,0 +1,165 @@
+package scheduler.db;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Gives each booking the available caregiver with the fewest appointments, caregivers with equal
+// counts taking turns. A caregiver chosen for a booking in progress counts as having that
+// appointment already and is not handed out again until the booking is done, so concurrent
+// bookings on the same date go after different caregivers instead of colliding on one.
+//
+// Every date has a priority queue of its caregivers by appointment count, built the first time
+// the date is booked. Counts change all the time on other dates, so queue entries are checked
+// when they come out: an entry whose count has grown past the runner-up's goes back in with its
+// current count, and one for a caregiver that is no longer available is dropped.
+public class LeastLoadedStrategy implements AssignmentStrategy {
+
+    // how many appointments more than the least loaded caregiver the chosen one may have, which
+    // spares re-sorting a date's queue every time counts move a little
+    private static final int slack = 1;
+
+    // appointments per caregiver, including bookings in progress
+    private final Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+    private final Map<LocalDate, DateQueue> queues = new ConcurrentHashMap<>();
+    // breaks ties between equal counts in the order caregivers went into the queue
+    private final AtomicLong turns = new AtomicLong();
+
+    @Override
+    public String choose(LocalDate date, NavigableSet<String> available) {
+        DateQueue queue = queues.computeIfAbsent(date, k -> new DateQueue());
+        synchronized (queue) {
+            if (queue.heap.isEmpty()) {
+                // first booking on the date, or everyone in the queue got booked or went away
+                for (String caregiver : available) {
+                    if (!queue.held.containsKey(caregiver)) {
+                        queue.push(caregiver);
+                    }
+                }
+            }
+            Candidate candidate;
+            while ((candidate = queue.heap.poll()) != null) {
+                if (queue.current.get(candidate.caregiver) != candidate || queue.held.containsKey(candidate.caregiver)) {
+                    continue;
+                }
+                if (!available.contains(candidate.caregiver)) {
+                    queue.current.remove(candidate.caregiver);
+                    continue;
+                }
+                // counts mostly grow together, which keeps the queue's order; the candidate only
+                // goes back in if its count has since grown past the runner-up's
+                Candidate next = queue.heap.peek();
+                if (next != null && load(candidate.caregiver).get() > load(next.caregiver).get() + slack) {
+                    queue.push(candidate.caregiver);
+                    continue;
+                }
+                // held until done, so it is out of the queue meanwhile
+                queue.current.remove(candidate.caregiver);
+                queue.held.put(candidate.caregiver, 1);
+                load(candidate.caregiver).incrementAndGet();
+                return candidate.caregiver;
+            }
+            // everyone available is held by another booking; share the first of them rather than
+            // turn the booking away, the storage hands out someone else if they are taken
+            Iterator<String> it = available.iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            String caregiver = it.next();
+            queue.held.merge(caregiver, 1, Integer::sum);
+            load(caregiver).incrementAndGet();
+            return caregiver;
+        }
+    }
+
+    @Override
+    public void done(LocalDate date, String chosen, String booked) {
+        load(chosen).decrementAndGet();
+        if (booked != null) {
+            load(booked).incrementAndGet();
+        }
+        DateQueue queue = queues.get(date);
+        if (queue != null) {
+            synchronized (queue) {
+                queue.held.computeIfPresent(chosen, (k, holds) -> holds == 1 ? null : holds - 1);
+                if (!chosen.equals(booked) && !queue.held.containsKey(chosen)) {
+                    // still available as far as we know; if not, it is dropped when it comes out again
+                    queue.push(chosen);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void reset(Map<String, Integer> appointments) {
+        loads.clear();
+        for (Map.Entry<String, Integer> entry : appointments.entrySet()) {
+            loads.put(entry.getKey(), new AtomicInteger(entry.getValue()));
+        }
+        queues.clear();
+    }
+
+    @Override
+    public void forget(LocalDate date) {
+        queues.remove(date);
+    }
+
+    @Override
+    public void added(LocalDate date, String caregiver) {
+        DateQueue queue = queues.get(date);
+        if (queue != null) {
+            synchronized (queue) {
+                queue.push(caregiver);
+            }
+        }
+    }
+
+    @Override
+    public void cancelled(String caregiver) {
+        load(caregiver).decrementAndGet();
+    }
+
+    private AtomicInteger load(String caregiver) {
+        return loads.computeIfAbsent(caregiver, k -> new AtomicInteger());
+    }
+
+    private class DateQueue {
+        private final PriorityQueue<Candidate> heap = new PriorityQueue<>();
+        // the live entry of each caregiver in the heap; any other entry of theirs is out of date
+        private final Map<String, Candidate> current = new HashMap<>();
+        // caregivers chosen for bookings that are not done yet, and for how many
+        private final Map<String, Integer> held = new HashMap<>();
+
+        private void push(String caregiver) {
+            Candidate candidate = new Candidate(caregiver, load(caregiver).get(), turns.getAndIncrement());
+            current.put(caregiver, candidate);
+            heap.add(candidate);
+        }
+    }
+
+    private static class Candidate implements Comparable<Candidate> {
+        private final String caregiver;
+        private final int load;
+        private final long turn;
+
+        private Candidate(String caregiver, int load, long turn) {
+            this.caregiver = caregiver;
+            this.load = load;
+            this.turn = turn;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (load != other.load) {
+                return Integer.compare(load, other.load);
+            }
+            return Long.compare(turn, other.turn);
+        }
+    }
+}
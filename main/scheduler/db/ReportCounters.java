@@ -0,0 +1,181 @@
+package scheduler.db;
+
+import scheduler.model.Appointment;
+import scheduler.model.Vaccine;
+import scheduler.storage.AppointmentCount;
+import scheduler.storage.Storages;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Counters behind the report command: appointments per date, per vaccine and per caregiver, and
+// the doses left of each vaccine. They are read from storage once, on the first report, and
+// from then on kept up to date by the ReservationEngine (every booking and cancellation) and
+// add_doses, so a report is answered from memory and never waits on the database next to the
+// bookings. How many caregivers are free, which the fill rates need, comes from the
+// AvailabilityIndex, which upload_availability already keeps up to date.
+//
+// Changes made by other scheduler processes aren't seen until the counters are rebuilt from
+// storage (report rebuild), which also tells how far the kept counters had drifted from it.
+public class ReportCounters {
+
+    // a rebuild that saw changes while reading is read again, at most this many times
+    private static final int rebuildAttempts = 3;
+    private static final ReportCounters instance = new ReportCounters();
+
+    // null until the first report; guarded by this
+    private Counts counts = null;
+    private long changes = 0;
+
+    public static ReportCounters getInstance() {
+        return instance;
+    }
+
+    public synchronized void booked(Appointment appointment) {
+        changes++;
+        if (counts != null) {
+            counts.add(appointment, 1);
+        }
+    }
+
+    public synchronized void cancelled(Appointment appointment) {
+        changes++;
+        if (counts != null) {
+            counts.add(appointment, -1);
+        }
+    }
+
+    public synchronized void dosesAdded(String vaccine, int doses) {
+        changes++;
+        if (counts != null) {
+            counts.dosesLeft.merge(vaccine, doses, Integer::sum);
+        }
+    }
+
+    // appointments per date from first to last, dates without any left out
+    public NavigableMap<LocalDate, Integer> getBookedByDate(LocalDate first, LocalDate last) throws SQLException {
+        load();
+        synchronized (this) {
+            return new TreeMap<>(counts.byDate.subMap(first, true, last, true));
+        }
+    }
+
+    // appointments per vaccine, by vaccine name
+    public NavigableMap<String, Integer> getBookedByVaccine() throws SQLException {
+        load();
+        synchronized (this) {
+            return new TreeMap<>(counts.byVaccine);
+        }
+    }
+
+    // doses left per vaccine, the ones leased by this process included, by vaccine name
+    public NavigableMap<String, Integer> getDosesLeft() throws SQLException {
+        load();
+        synchronized (this) {
+            return new TreeMap<>(counts.dosesLeft);
+        }
+    }
+
+    // appointments per caregiver, by username
+    public NavigableMap<String, Integer> getBookedByCaregiver() throws SQLException {
+        load();
+        synchronized (this) {
+            return new TreeMap<>(counts.byCaregiver);
+        }
+    }
+
+    // reads all counters from storage again and returns where the kept ones differed, one line each
+    public List<String> rebuild() throws SQLException {
+        for (int attempt = 1; ; attempt++) {
+            long before;
+            synchronized (this) {
+                before = changes;
+            }
+            Counts fresh = Counts.read();
+            synchronized (this) {
+                // a change made during the read may or may not be in it; after a few tries it is
+                // taken anyway, off by at most what changed meanwhile
+                if (changes == before || attempt >= rebuildAttempts) {
+                    List<String> differences = counts == null ? new ArrayList<>() : counts.differences(fresh);
+                    counts = fresh;
+                    return differences;
+                }
+            }
+        }
+    }
+
+    // reads the counters from storage if that hasn't happened yet
+    private void load() throws SQLException {
+        synchronized (this) {
+            if (counts != null) {
+                return;
+            }
+        }
+        rebuild();
+    }
+
+    private static class Counts {
+        private final TreeMap<LocalDate, Integer> byDate = new TreeMap<>();
+        private final TreeMap<String, Integer> byVaccine = new TreeMap<>();
+        private final TreeMap<String, Integer> byCaregiver = new TreeMap<>();
+        private final TreeMap<String, Integer> dosesLeft = new TreeMap<>();
+
+        private static Counts read() throws SQLException {
+            Counts counts = new Counts();
+            for (AppointmentCount count : Storages.get().appointments().countByDate()) {
+                counts.add(count.getTime().toLocalDate(), count.getVaccineName(), count.getCaregiverName(),
+                        count.getCount());
+            }
+            DoseLeaseManager doseLeases = DoseLeaseManager.getInstance();
+            for (Vaccine vaccine : Storages.get().vaccines().findAll()) {
+                counts.dosesLeft.put(vaccine.getVaccineName(),
+                        vaccine.getAvailableDoses() + doseLeases.getLeasedDoses(vaccine.getVaccineName()));
+            }
+            return counts;
+        }
+
+        private void add(Appointment appointment, int delta) {
+            add(appointment.getTime().toLocalDate(), appointment.getVaccineName(), appointment.getCaregiverName(),
+                    delta);
+            // a booking uses up a dose, a cancellation gives it back
+            dosesLeft.merge(appointment.getVaccineName(), -delta, Integer::sum);
+        }
+
+        private void add(LocalDate date, String vaccine, String caregiver, int delta) {
+            // counts that drop to zero are removed, so a rebuilt copy compares equal
+            byDate.merge(date, delta, (a, b) -> a + b == 0 ? null : a + b);
+            byVaccine.merge(vaccine, delta, (a, b) -> a + b == 0 ? null : a + b);
+            byCaregiver.merge(caregiver, delta, (a, b) -> a + b == 0 ? null : a + b);
+        }
+
+        private List<String> differences(Counts stored) {
+            List<String> differences = new ArrayList<>();
+            compare("date", byDate, stored.byDate, differences);
+            compare("vaccine", byVaccine, stored.byVaccine, differences);
+            compare("caregiver", byCaregiver, stored.byCaregiver, differences);
+            compare("doses left", dosesLeft, stored.dosesLeft, differences);
+            return differences;
+        }
+
+        private static <K> void compare(String what, Map<K, Integer> kept, Map<K, Integer> stored,
+                                        List<String> differences) {
+            TreeSet<K> keys = new TreeSet<>(kept.keySet());
+            keys.addAll(stored.keySet());
+            for (K key : keys) {
+                Integer counted = kept.get(key);
+                Integer read = stored.get(key);
+                if (!Objects.equals(counted, read)) {
+                    differences.add(what + " " + key + ": counted " + (counted == null ? 0 : counted)
+                            + ", stored " + (read == null ? 0 : read));
+                }
+            }
+        }
+    }
+}
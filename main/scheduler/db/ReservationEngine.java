@@ -0,0 +1,260 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.model.Appointment;
+import scheduler.storage.AppointmentFilter;
+import scheduler.storage.Storages;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Books an appointment in a single round trip. The dose comes from the DoseLeaseManager, which
+// only goes to the database once per leased block. The rest is one storage transaction (see
+// AppointmentRepository.book): the caregiver's availability is claimed and the appointment is
+// inserted. The caller may name a preferred caregiver (e.g. from the AvailabilityIndex); if
+// that day is already taken the first free caregiver is claimed instead. If nobody is left,
+// nothing is booked and the dose is handed back. Appointment ids come from an IdAllocator, so
+// no aggregate over Appointments is needed. Every booking and cancellation is passed on to the
+// AppointmentCache and the ReportCounters.
+//
+// Bookings and cancellations hold the DateLocks of their dates while the availability is claimed
+// or given back and the AvailabilityIndex is updated to match. Work on the same date takes turns,
+// so the index never sees a date's changes out of order and this process doesn't race itself for
+// the same rows, while work on different dates runs side by side. The claim itself is
+// optimistic: the storage only takes the caregiver if they are still free, and when the index
+// turns out to be out of date or the database reports a deadlock or lock timeout the booking is
+// tried again, up to ReservationAttempts times (default 3).
+public class ReservationEngine {
+
+    public enum Status {
+        RESERVED,
+        UNKNOWN_VACCINE,
+        NO_DOSES,
+        NO_CAREGIVER
+    }
+
+    private static final int maxAttempts = setting("ReservationAttempts", 3);
+
+    private final IdAllocator appointmentIds;
+    private final DoseLeaseManager doses;
+    private final AvailabilityIndex availabilityIndex;
+    private final DateLocks dateLocks = DateLocks.getInstance();
+    private final Metrics metrics = Metrics.getInstance();
+    private final AppointmentCache appointmentCache = AppointmentCache.getInstance();
+    private final ReportCounters reportCounters = ReportCounters.getInstance();
+
+    public ReservationEngine(IdAllocator appointmentIds, DoseLeaseManager doses, AvailabilityIndex availabilityIndex) {
+        this.appointmentIds = appointmentIds;
+        this.doses = doses;
+        this.availabilityIndex = availabilityIndex;
+    }
+
+    // books the patient with whichever caregiver the AvailabilityIndex chooses on the date
+    public Result reserve(Date date, String vaccine, String patient) throws SQLException {
+        ReentrantLock[] locks = lock(date.toLocalDate());
+        try {
+            for (int attempt = 1; ; attempt++) {
+                String caregiver = availabilityIndex.choose(date);
+                if (caregiver == null) {
+                    return new Result(Status.NO_CAREGIVER, 0, null);
+                }
+                Result result;
+                try {
+                    result = reserve(date, vaccine, patient, caregiver);
+                } catch (SQLException e) {
+                    availabilityIndex.done(date, caregiver, null);
+                    availabilityIndex.invalidate(date);
+                    if (!isTransient(e) || attempt >= maxAttempts) {
+                        throw e;
+                    }
+                    backOff(attempt);
+                    continue;
+                }
+                boolean reserved = result.getStatus() == Status.RESERVED;
+                availabilityIndex.done(date, caregiver, reserved ? result.getCaregiver() : null);
+                if (result.getStatus() != Status.NO_CAREGIVER) {
+                    return result;
+                }
+                // the storage had nobody left although the index did, so the index is out of
+                // date; it is re-read for the next attempt
+                availabilityIndex.invalidate(date);
+                if (attempt >= maxAttempts) {
+                    return result;
+                }
+            }
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    // one booking attempt with the given caregiver, or the first free one if they are taken;
+    // leaves the AvailabilityIndex to the caller
+    public Result reserve(Date date, String vaccine, String patient, String preferredCaregiver)
+            throws SQLException {
+        switch (doses.acquire(vaccine)) {
+            case UNKNOWN_VACCINE:
+                return new Result(Status.UNKNOWN_VACCINE, 0, null);
+            case NO_DOSES:
+                return new Result(Status.NO_DOSES, 0, null);
+            default:
+                break;
+        }
+
+        Result result = null;
+        try {
+            result = claimCaregiver(date, vaccine, patient, preferredCaregiver);
+            return result;
+        } finally {
+            if (result == null || result.getStatus() != Status.RESERVED) {
+                doses.release(vaccine);
+            }
+        }
+    }
+
+    // cancels the appointment and gives its caregiver the day back, returns the cancelled
+    // appointment or null if there was none; the dose is left to the caller
+    public Appointment cancel(int appointmentId) throws SQLException {
+        // the date says which lock to take, so the appointment is read first; the cancel itself
+        // only goes through if the appointment is still there by the time the lock is held
+        Appointment appointment = Storages.get().appointments().find(appointmentId);
+        if (appointment == null) {
+            return null;
+        }
+        ReentrantLock[] locks = lock(appointment.getTime().toLocalDate());
+        try {
+            for (int attempt = 1; ; attempt++) {
+                Appointment cancelled;
+                try {
+                    cancelled = Storages.get().appointments().cancel(appointmentId);
+                } catch (SQLException e) {
+                    if (!isTransient(e) || attempt >= maxAttempts) {
+                        throw e;
+                    }
+                    backOff(attempt);
+                    continue;
+                }
+                if (cancelled != null) {
+                    availabilityIndex.cancelled(cancelled.getTime(), cancelled.getCaregiverName());
+                    appointmentCache.cancelled(cancelled);
+                    reportCounters.cancelled(cancelled);
+                }
+                return cancelled;
+            }
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    // cancels every appointment the filter takes in one storage transaction, which also gives the
+    // caregivers their days back and returns the doses; returns the cancelled appointments
+    public List<Appointment> cancelAll(AppointmentFilter filter) throws SQLException {
+        Metrics.Sample sample = metrics.startCall("reservations.lock");
+        ReentrantLock[] locks = dateLocks.lockRange(filter.getFrom().toLocalDate(), filter.getTo().toLocalDate());
+        sample.stop(false);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                List<Appointment> cancelled;
+                try {
+                    cancelled = Storages.get().appointments().cancelAll(filter);
+                } catch (SQLException e) {
+                    if (!isTransient(e) || attempt >= maxAttempts) {
+                        throw e;
+                    }
+                    backOff(attempt);
+                    continue;
+                }
+                for (Appointment appointment : cancelled) {
+                    availabilityIndex.cancelled(appointment.getTime(), appointment.getCaregiverName());
+                    appointmentCache.cancelled(appointment);
+                    reportCounters.cancelled(appointment);
+                }
+                return cancelled;
+            }
+        } finally {
+            unlock(locks);
+        }
+    }
+
+    private Result claimCaregiver(Date date, String vaccine, String patient, String preferredCaregiver)
+            throws SQLException {
+        // taken up front so the batch stays a single round trip; ids of failed attempts are skipped
+        int aid = appointmentIds.nextId();
+
+        Appointment appointment = Storages.get().appointments()
+                .book(aid, date, vaccine, patient, preferredCaregiver);
+        if (appointment == null) {
+            return new Result(Status.NO_CAREGIVER, 0, null);
+        }
+        appointmentCache.booked(appointment);
+        reportCounters.booked(appointment);
+        return new Result(Status.RESERVED, aid, appointment.getCaregiverName());
+    }
+
+    // takes the locks of all the dates, timed as reservations.lock
+    private ReentrantLock[] lock(LocalDate... dates) {
+        Metrics.Sample sample = metrics.startCall("reservations.lock");
+        ReentrantLock[] locks = dateLocks.lock(dates);
+        sample.stop(false);
+        return locks;
+    }
+
+    private static void unlock(ReentrantLock[] locks) {
+        DateLocks.unlock(locks);
+    }
+
+    // a deadlock or lock timeout in the database, which is worth trying again
+    private static boolean isTransient(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientException || e.getErrorCode() == 1205 || e.getErrorCode() == 1222 ||
+                (state != null && state.startsWith("40"));
+    }
+
+    // waits a little longer after every failed attempt, with jitter so retries don't line up again
+    private static void backOff(int attempt) throws SQLException {
+        long millis = (5L << attempt) + ThreadLocalRandom.current().nextLong(5L << attempt);
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying a reservation", e);
+        }
+    }
+
+    private static int setting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        try {
+            return value == null ? defaultValue : Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static class Result {
+        private final Status status;
+        private final int appointmentId;
+        private final String caregiver;
+
+        public Result(Status status, int appointmentId, String caregiver) {
+            this.status = status;
+            this.appointmentId = appointmentId;
+            this.caregiver = caregiver;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public int getAppointmentId() {
+            return appointmentId;
+        }
+
+        public String getCaregiver() {
+            return caregiver;
+        }
+    }
+}
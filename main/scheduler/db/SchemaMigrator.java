@@ -0,0 +1,237 @@
+package scheduler.db;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Brings the database schema up to date at startup. Schema versions are the numbered scripts
+// V<version>__<description>.sql in the migrations directory on the classpath, or in the
+// MigrationsDir directory if that is set; each one is split into batches on lines reading GO and applied
+// in its own transaction, then recorded in the SchemaVersions table. An exclusive application
+// lock makes scheduler processes starting at the same time take turns, so every version is
+// applied exactly once. A database created from the original create.sql, before versions
+// were recorded, is taken to be at version 1.
+public class SchemaMigrator {
+
+    private static final Pattern fileName = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final Pattern batchSeparator = Pattern.compile("(?im)^\\s*GO\\s*$");
+
+    private static final String createVersions =
+            "IF OBJECT_ID(N'SchemaVersions') IS NULL\n" +
+            "    CREATE TABLE SchemaVersions (\n" +
+            "        Version int PRIMARY KEY,\n" +
+            "        Description varchar(255) NOT NULL,\n" +
+            "        Checksum char(64) NOT NULL,\n" +
+            "        AppliedAt datetime2 NOT NULL DEFAULT SYSUTCDATETIME(),\n" +
+            "        DurationMs int NOT NULL\n" +
+            "    );";
+    private static final String lock =
+            "DECLARE @result int;\n" +
+            "EXEC @result = sp_getapplock @Resource = N'SchemaMigrations', @LockMode = N'Exclusive',\n" +
+            "    @LockOwner = N'Session', @LockTimeout = 60000;\n" +
+            "IF @result < 0 THROW 50000, N'Timed out waiting for another process to finish migrating', 1;";
+    private static final String unlock =
+            "EXEC sp_releaseapplock @Resource = N'SchemaMigrations', @LockOwner = N'Session';";
+    private static final String recordVersion =
+            "INSERT INTO SchemaVersions (Version, Description, Checksum, DurationMs) VALUES (?, ?, ?, ?)";
+
+    // null to read the scripts from the classpath
+    private final Path directory;
+
+    public SchemaMigrator() {
+        String dir = System.getenv("MigrationsDir");
+        this.directory = dir == null || dir.isEmpty() ? null : Paths.get(dir);
+    }
+
+    // applies every version that is not in the database yet, returns how many were applied
+    public int migrate() throws SQLException, IOException {
+        TreeMap<Integer, Migration> migrations = load();
+
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException("No database connection available");
+        }
+        try (Statement statement = con.createStatement()) {
+            statement.execute(lock);
+            try {
+                statement.execute(createVersions);
+                Map<Integer, String> applied = appliedVersions(con);
+                if (applied.isEmpty() && tableExists(con, "Caregivers") && migrations.containsKey(1)) {
+                    record(con, migrations.get(1), 0);
+                    applied.put(1, migrations.get(1).checksum);
+                }
+
+                int count = 0;
+                for (Migration migration : migrations.values()) {
+                    String checksum = applied.get(migration.version);
+                    if (checksum != null) {
+                        if (!checksum.equals(migration.checksum)) {
+                            System.out.println("Warning: schema version " + migration.version +
+                                    " was changed after it was applied");
+                        }
+                        continue;
+                    }
+                    apply(con, migration);
+                    count++;
+                }
+                return count;
+            } finally {
+                statement.execute(unlock);
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private void apply(Connection con, Migration migration) throws SQLException {
+        System.out.println("Applying schema version " + migration.version + ": " + migration.description);
+        long start = System.nanoTime();
+        con.setAutoCommit(false);
+        try (Statement statement = con.createStatement()) {
+            for (String batch : migration.batches) {
+                statement.execute(batch);
+            }
+            record(con, migration, (int) ((System.nanoTime() - start) / 1_000_000));
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw new SQLException("Schema version " + migration.version + " failed: " + e.getMessage(), e);
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    private static void record(Connection con, Migration migration, int durationMillis) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(recordVersion)) {
+            statement.setInt(1, migration.version);
+            statement.setString(2, migration.description);
+            statement.setString(3, migration.checksum);
+            statement.setInt(4, durationMillis);
+            statement.executeUpdate();
+        }
+    }
+
+    private static Map<Integer, String> appliedVersions(Connection con) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (PreparedStatement statement = con.prepareStatement("SELECT Version, Checksum FROM SchemaVersions");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                applied.put(resultSet.getInt(1), resultSet.getString(2));
+            }
+        }
+        return applied;
+    }
+
+    private static boolean tableExists(Connection con, String table) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement("SELECT OBJECT_ID(?, N'U')")) {
+            statement.setString(1, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getObject(1) != null;
+            }
+        }
+    }
+
+    // the scripts from MigrationsDir or the classpath; without any the schema can't be brought up
+    // to date, so that is an error rather than nothing to do
+    private TreeMap<Integer, Migration> load() throws IOException {
+        if (directory != null) {
+            return load(directory);
+        }
+        URL url = SchemaMigrator.class.getClassLoader().getResource("migrations");
+        if (url == null) {
+            throw new IOException("No schema migrations found on the classpath");
+        }
+        URI uri;
+        try {
+            uri = url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IOException("Cannot read schema migrations from " + url, e);
+        }
+        if (!uri.getScheme().equals("jar")) {
+            return load(Paths.get(uri));
+        }
+        try (FileSystem jar = FileSystems.newFileSystem(uri, Collections.emptyMap())) {
+            return load(jar.getPath("migrations"));
+        }
+    }
+
+    private static TreeMap<Integer, Migration> load(Path directory) throws IOException {
+        TreeMap<Integer, Migration> migrations = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            throw new IOException("No schema migrations found in " + directory.toAbsolutePath());
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "V*__*.sql")) {
+            for (Path file : files) {
+                Matcher matcher = fileName.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                int version = Integer.parseInt(matcher.group(1));
+                String script = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                Migration migration = new Migration(version, matcher.group(2).replace('_', ' '), script);
+                if (migrations.put(version, migration) != null) {
+                    throw new IOException("Two migrations for schema version " + version);
+                }
+            }
+        }
+        if (migrations.isEmpty()) {
+            throw new IOException("No schema migrations found in " + directory.toUri());
+        }
+        return migrations;
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String checksum;
+        private final List<String> batches = new ArrayList<>();
+
+        private Migration(int version, String description, String script) {
+            this.version = version;
+            this.description = description;
+            this.checksum = sha256(script.replace("\r\n", "\n"));
+            for (String batch : batchSeparator.split(script)) {
+                if (!batch.isBlank()) {
+                    batches.add(batch);
+                }
+            }
+        }
+
+        private static String sha256(String text) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder(64);
+                for (byte b : digest) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
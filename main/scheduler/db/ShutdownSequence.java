@@ -0,0 +1,57 @@
+package scheduler.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The work to do when the process exits, in one shutdown hook so it happens in a set order.
+// The JVM runs separate hooks at the same time in no particular order, so a hook that still
+// writes to storage (e.g. the DoseLeaseManager giving back its leased doses) could otherwise
+// find the connection pool already closed. Steps run first, in the order they were added, and
+// only once they are all done are the resources closed.
+public class ShutdownSequence {
+
+    private static final ShutdownSequence instance = new ShutdownSequence();
+
+    // guarded by this
+    private final List<Runnable> steps = new ArrayList<>();
+    private final List<Runnable> closes = new ArrayList<>();
+
+    private ShutdownSequence() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::run, "shutdown"));
+    }
+
+    public static ShutdownSequence getInstance() {
+        return instance;
+    }
+
+    // work that still needs storage, e.g. handing something back to it
+    public synchronized void addStep(Runnable step) {
+        steps.add(step);
+    }
+
+    // closes a resource once every step is done
+    public synchronized void addClose(Runnable close) {
+        closes.add(close);
+    }
+
+    private void run() {
+        runAll(steps);
+        // read only now, so a resource first opened by one of the steps is closed too
+        runAll(closes);
+    }
+
+    private void runAll(List<Runnable> tasks) {
+        List<Runnable> copy;
+        synchronized (this) {
+            copy = new ArrayList<>(tasks);
+        }
+        for (Runnable task : copy) {
+            // one failing doesn't keep the rest from running
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
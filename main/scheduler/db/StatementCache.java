@@ -0,0 +1,184 @@
+package scheduler.db;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The prepared statements of one pooled connection, keyed by SQL text, so the same query is
+// parsed and planned once per connection rather than once per command. Callers keep using
+// con.prepareStatement(sql) and statement.close() as usual: the connection they borrow is a
+// proxy whose prepareStatement(String) hands out a cached statement, and closing that statement
+// clears its parameters and keeps it for the next caller. The least recently used statements
+// are closed once more than the capacity are cached. If the same SQL is already in use on the
+// connection, a separate uncached statement is handed out. Statements a borrower forgot to
+// close are reclaimed when the connection goes back to the pool.
+class StatementCache {
+
+    private final Connection connection;
+    private final Connection handle;
+    private final LinkedHashMap<String, Entry> statements;
+    // statements no longer in the cache but still held by the borrower, closed on release
+    private final List<PreparedStatement> extra = new ArrayList<>();
+
+    StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+        this.handle = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> onConnection(method, args));
+    }
+
+    // the connection to hand to borrowers
+    Connection handle() {
+        return handle;
+    }
+
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        Entry entry = statements.get(sql);
+        if (entry != null && entry.statement.isClosed()) {
+            statements.remove(sql);
+            entry = null;
+        }
+        if (entry == null) {
+            entry = new Entry(sql, connection.prepareStatement(sql));
+            statements.put(sql, entry);
+        } else if (entry.inUse) {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            extra.add(statement);
+            return statement;
+        }
+        entry.inUse = true;
+        return entry.proxy;
+    }
+
+    // called when the connection goes back to the pool
+    synchronized void releaseAll() {
+        // copied, since giving a statement back may drop it from the cache
+        for (Entry entry : new ArrayList<>(statements.values())) {
+            if (entry.inUse) {
+                entry.giveBack();
+            }
+        }
+        closeExtra();
+    }
+
+    synchronized void close() {
+        for (Entry entry : statements.values()) {
+            closeQuietly(entry.statement);
+        }
+        statements.clear();
+        closeExtra();
+    }
+
+    private void closeExtra() {
+        for (Iterator<PreparedStatement> it = extra.iterator(); it.hasNext(); ) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }
+
+    private Object onConnection(Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("prepareStatement") && method.getParameterCount() == 1) {
+            return prepare((String) args[0]);
+        }
+        if (method.getName().equals("close")) {
+            close();
+        }
+        return invoke(connection, method, args);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // the statement is being thrown away anyway
+        }
+    }
+
+    private class Entry {
+        private final String sql;
+        private final PreparedStatement statement;
+        private final PreparedStatement proxy;
+        private boolean inUse = false;
+        private boolean evicted = false;
+
+        private Entry(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (p, method, args) -> onStatement(method, args));
+        }
+
+        private Object onStatement(Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (StatementCache.this) {
+                        if (inUse) {
+                            giveBack();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    synchronized (StatementCache.this) {
+                        return !inUse || statement.isClosed();
+                    }
+                case "getConnection":
+                    return handle;
+                default:
+                    return invoke(statement, method, args);
+            }
+        }
+
+        // the borrower is done with the statement: keep it for the next one, or close it if it
+        // was pushed out of the cache in the meantime
+        private void giveBack() {
+            inUse = false;
+            if (evicted) {
+                closeQuietly(statement);
+                return;
+            }
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                // a statement that can't be reset is not reused
+                statements.remove(sql);
+                closeQuietly(statement);
+            }
+        }
+
+        private void evict() {
+            evicted = true;
+            if (inUse) {
+                // closed by its borrower, or at the latest when the connection is released
+                extra.add(statement);
+            } else {
+                closeQuietly(statement);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package scheduler.db;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.User;
+import scheduler.storage.Storages;
+import scheduler.storage.UserRepository;
+import scheduler.util.CredentialService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+// Bulk-creates patient or caregiver accounts from a CSV of "username,password" lines (a header
+// line starting with "username" is skipped). The file is streamed in chunks; for each chunk the
+// usernames that already exist are found in one go, the passwords of the rest are hashed in
+// parallel across all cores, and the accounts are saved in one transaction.
+//
+// Files are only read from the ImportDir directory (default "imports"), and rejected lines are
+// reported by number and reason only. The command can come from any client of the server, so
+// it must not be able to read, or echo back, any other file the process can read.
+public class UserImporter {
+
+    public enum Kind {
+        PATIENTS,
+        CAREGIVERS
+    }
+
+    private static final int chunkSize = 1000;
+    private static final int maxUsernameLength = 255;
+    private static final Path importDir = Paths.get(dirSetting());
+
+    private final Kind kind;
+
+    public UserImporter(Kind kind) {
+        this.kind = kind;
+    }
+
+    // the file of that name in the import directory; fails for a name that leads anywhere else,
+    // by way of .. or a link, in the same way as for a file that isn't there
+    public static Path resolve(String fileName) throws IOException {
+        Path dir = importDir.toRealPath();
+        Path file;
+        try {
+            file = dir.resolve(fileName).normalize();
+        } catch (InvalidPathException e) {
+            throw new IOException("Invalid file name", e);
+        }
+        if (!file.startsWith(dir) || !Files.isRegularFile(file) || !file.toRealPath().startsWith(dir)) {
+            throw new IOException("No such file in the import directory");
+        }
+        return file;
+    }
+
+    public Report importFrom(BufferedReader csv) throws IOException, SQLException {
+        Report report = new Report();
+        long start = System.nanoTime();
+        Set<String> seen = new HashSet<>();
+        List<Row> chunk = new ArrayList<>(chunkSize);
+
+        String line;
+        int lineNumber = 0;
+        while ((line = csv.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || (lineNumber == 1 && line.toLowerCase().startsWith("username"))) {
+                continue;
+            }
+            int comma = line.indexOf(',');
+            if (comma <= 0 || comma == line.length() - 1) {
+                report.reject(lineNumber, "expected username,password");
+                continue;
+            }
+            String username = line.substring(0, comma).trim();
+            String password = line.substring(comma + 1).trim();
+            if (username.isEmpty() || password.isEmpty() || username.length() > maxUsernameLength) {
+                report.reject(lineNumber, "invalid username or password");
+                continue;
+            }
+            if (!seen.add(username)) {
+                report.reject(lineNumber, "duplicate in file");
+                continue;
+            }
+            chunk.add(new Row(lineNumber, username, password));
+            if (chunk.size() == chunkSize) {
+                importChunk(chunk, report);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            importChunk(chunk, report);
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private void importChunk(List<Row> chunk, Report report) throws SQLException {
+        // 1. drop usernames that are already taken before spending any time hashing them
+        List<String> usernames = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            usernames.add(row.username);
+        }
+        Set<String> existing = kind == Kind.PATIENTS
+                ? Storages.get().patients().findExisting(usernames)
+                : Storages.get().caregivers().findExisting(usernames);
+        List<Row> fresh = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            if (existing.contains(row.username)) {
+                report.reject(row.lineNumber, "username taken");
+            } else {
+                fresh.add(row);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+
+        // 2. hashing dominates the cost of an import, so spread it over every core
+        CredentialService credentials = CredentialService.getInstance();
+        fresh.parallelStream().forEach(row -> {
+            row.salt = credentials.generateSalt();
+            row.hash = credentials.computeHash(row.password, row.salt);
+        });
+
+        // 3. save the chunk in one transaction
+        boolean[] saved;
+        try {
+            saved = kind == Kind.PATIENTS
+                    ? saveAll(Storages.get().patients(), fresh,
+                            row -> new Patient.PatientBuilder(row.username, row.salt, row.hash).build())
+                    : saveAll(Storages.get().caregivers(), fresh,
+                            row -> new Caregiver.CaregiverBuilder(row.username, row.salt, row.hash).build());
+        } catch (SQLException e) {
+            // the cause goes to the server's log, not to the client
+            e.printStackTrace();
+            for (Row row : fresh) {
+                report.reject(row.lineNumber, "batch failed");
+            }
+            return;
+        }
+        for (int i = 0; i < saved.length; i++) {
+            if (saved[i]) {
+                report.imported++;
+            } else {
+                report.reject(fresh.get(i).lineNumber, "username taken");
+            }
+        }
+    }
+
+    private static <U extends User> boolean[] saveAll(UserRepository<U> repository, List<Row> rows,
+                                                      Function<Row, U> toUser) throws SQLException {
+        List<U> users = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            users.add(toUser.apply(row));
+        }
+        return repository.saveAll(users);
+    }
+
+    private static String dirSetting() {
+        String value = System.getenv("ImportDir");
+        return value == null || value.trim().isEmpty() ? "imports" : value.trim();
+    }
+
+    private static class Row {
+        private final int lineNumber;
+        private final String username;
+        private final String password;
+        private byte[] salt;
+        private byte[] hash;
+
+        private Row(int lineNumber, String username, String password) {
+            this.lineNumber = lineNumber;
+            this.username = username;
+            this.password = password;
+        }
+    }
+
+    public static class Report {
+        private int imported = 0;
+        private final List<String> rejected = new ArrayList<>();
+        private long elapsedNanos = 0;
+
+        private void reject(int lineNumber, String reason) {
+            rejected.add("line " + lineNumber + ": " + reason);
+        }
+
+        public int getImported() {
+            return imported;
+        }
+
+        public List<String> getRejected() {
+            return rejected;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        public double getUsersPerSecond() {
+            return elapsedNanos == 0 ? 0 : imported * 1e9 / elapsedNanos;
+        }
+    }
+}
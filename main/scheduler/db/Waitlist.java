@@ -0,0 +1,351 @@
+package scheduler.db;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Patients waiting for an appointment on a date with a vaccine that reserve could not give them,
+// first come first served. Rather than patients retrying reserve until something opens up, the
+// commands that free capacity tell the waitlist what they freed: a caregiver's day
+// (caregiverFreed), doses of a vaccine (dosesAdded) or both (appointmentCancelled). Only the
+// queues that capacity can serve are looked at, and their oldest patients are booked through
+// the ReservationEngine until the freed capacity is used up. Bookings made this way are kept
+// for the patient to pick up with takeBooked, e.g. when they next log in.
+//
+// Doses that go back to the DoseLeaseManager some other way (a reservation that failed after
+// taking one, an expired lease) are noticed too: if a vaccine's waiting patients last found it
+// out of doses, they are served again in the background.
+//
+// The waitlist lives in this process only: it is gone after a restart, and capacity freed by
+// another scheduler process is only noticed here once something in this process frees more.
+// The waitlist's lock only covers choosing whom to book next: that patient is taken off their
+// queue, booked without the lock, and put back at the front if the booking didn't go through,
+// so looking at the waitlist never waits on the storage. While a booking is under way the next
+// patient in the same queue may be tried by another caller.
+public class Waitlist {
+
+    private final ReservationEngine reservationEngine;
+    // serves patients after doses come back, off the thread that gave them back
+    private final ExecutorService background;
+
+    // date -> vaccine -> patients waiting, oldest first; a patient being booked is not in here
+    private final TreeMap<LocalDate, Map<String, ArrayDeque<Entry>>> byDate = new TreeMap<>();
+    // vaccine -> dates someone is waiting on with it
+    private final Map<String, TreeSet<LocalDate>> datesByVaccine = new HashMap<>();
+    // patient -> entries still waiting, and bookings not picked up yet
+    private final Map<String, List<Entry>> waitingByPatient = new HashMap<>();
+    private final Map<String, List<Entry>> bookedByPatient = new HashMap<>();
+    // vaccines whose waiting patients last found no doses, and how many times doses of each
+    // vaccine came back, to tell whether some did while a booking was under way
+    private final Set<String> outOfDoses = new HashSet<>();
+    private final Map<String, Long> returns = new HashMap<>();
+    private long nextTicket = 0;
+
+    public Waitlist(ReservationEngine reservationEngine, DoseLeaseManager doses) {
+        this.reservationEngine = reservationEngine;
+        this.background = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "waitlist");
+            t.setDaemon(true);
+            return t;
+        });
+        doses.addReturnListener(this::dosesReturned);
+    }
+
+    // queues the patient for the date and vaccine, then tries to serve that date straight away in
+    // case something opened up in the meantime; false if the patient was already waiting for it
+    public boolean join(Date d, String vaccine, String patient) throws SQLException {
+        synchronized (this) {
+            LocalDate date = d.toLocalDate();
+            List<Entry> waiting = waitingByPatient.computeIfAbsent(patient, k -> new ArrayList<>());
+            for (Entry entry : waiting) {
+                if (entry.date.equals(date) && entry.vaccine.equals(vaccine)) {
+                    return false;
+                }
+            }
+            Entry entry = new Entry(nextTicket++, date, vaccine, patient);
+            enqueue(entry);
+            waiting.add(entry);
+        }
+        serveDate(d, 1, null);
+        return true;
+    }
+
+    // the entries the patient is still waiting on, oldest first
+    public synchronized List<Entry> getWaiting(String patient) {
+        List<Entry> waiting = waitingByPatient.get(patient);
+        return waiting == null ? new ArrayList<>() : new ArrayList<>(waiting);
+    }
+
+    // the patient's bookings made off the waitlist since they last asked
+    public synchronized List<Entry> takeBooked(String patient) {
+        List<Entry> booked = bookedByPatient.remove(patient);
+        return booked == null ? new ArrayList<>() : booked;
+    }
+
+    // a caregiver made the date available
+    public void caregiverFreed(Date d) throws SQLException {
+        serveDate(d, 1, null);
+    }
+
+    // doses of the vaccine were added; waiting patients are booked on any of their dates, oldest first
+    public void dosesAdded(String vaccine, int doses) throws SQLException {
+        Set<LocalDate> full = new HashSet<>();
+        while (doses > 0) {
+            Entry oldest = null;
+            long returnsBefore;
+            synchronized (this) {
+                TreeSet<LocalDate> dates = datesByVaccine.get(vaccine);
+                if (dates != null) {
+                    for (LocalDate date : dates) {
+                        Entry head = full.contains(date) ? null : byDate.get(date).get(vaccine).peek();
+                        if (head != null && (oldest == null || head.ticket < oldest.ticket)) {
+                            oldest = head;
+                        }
+                    }
+                }
+                if (oldest == null) {
+                    return;
+                }
+                take(oldest);
+                returnsBefore = returns.getOrDefault(vaccine, 0L);
+            }
+            ReservationEngine.Status status = assign(oldest, returnsBefore);
+            if (status == ReservationEngine.Status.RESERVED) {
+                doses--;
+            } else if (status == ReservationEngine.Status.NO_CAREGIVER) {
+                full.add(oldest.date);
+            } else if (status == ReservationEngine.Status.NO_DOSES) {
+                return;
+            }
+        }
+    }
+
+    // an appointment was cancelled, which frees its caregiver's day and one dose of its vaccine;
+    // patients waiting on that date get the day, and if none can take it the dose goes to
+    // someone waiting for the vaccine on another date
+    public void appointmentCancelled(Date d, String vaccine) throws SQLException {
+        appointmentsCancelled(d, vaccine, 1);
+    }
+
+    // count appointments of the vaccine on the date were cancelled at once; the days nobody
+    // waiting on the date takes leave their doses for other dates
+    public void appointmentsCancelled(Date d, String vaccine, int count) throws SQLException {
+        int booked = serveDate(d, count, vaccine);
+        if (booked < count) {
+            dosesAdded(vaccine, count - booked);
+        }
+    }
+
+    // books up to slots of the oldest patients waiting on the date, whatever their vaccine, and
+    // returns how many were booked; vaccines that have run out are passed over
+    private int serveDate(Date d, int slots, String preferredVaccine) throws SQLException {
+        Set<String> passedOver = new HashSet<>();
+        int booked = 0;
+        while (booked < slots) {
+            Entry oldest = null;
+            long returnsBefore;
+            synchronized (this) {
+                Map<String, ArrayDeque<Entry>> queues = byDate.get(d.toLocalDate());
+                if (queues == null) {
+                    break;
+                }
+                for (Map.Entry<String, ArrayDeque<Entry>> queue : queues.entrySet()) {
+                    Entry head = passedOver.contains(queue.getKey()) ? null : queue.getValue().peek();
+                    if (head == null) {
+                        continue;
+                    }
+                    // the vaccine whose dose was just freed goes first, it is sure to have one
+                    boolean preferred = head.vaccine.equals(preferredVaccine);
+                    boolean oldestPreferred = oldest != null && oldest.vaccine.equals(preferredVaccine);
+                    if (oldest == null || (preferred && !oldestPreferred) ||
+                            (preferred == oldestPreferred && head.ticket < oldest.ticket)) {
+                        oldest = head;
+                    }
+                }
+                if (oldest == null) {
+                    break;
+                }
+                take(oldest);
+                returnsBefore = returns.getOrDefault(oldest.vaccine, 0L);
+            }
+            ReservationEngine.Status status = assign(oldest, returnsBefore);
+            if (status == ReservationEngine.Status.RESERVED) {
+                booked++;
+            } else if (status == ReservationEngine.Status.NO_DOSES) {
+                passedOver.add(oldest.vaccine);
+            } else if (status == ReservationEngine.Status.NO_CAREGIVER) {
+                break;
+            }
+        }
+        return booked;
+    }
+
+    // doses came back to the DoseLeaseManager; if the vaccine's waiting patients were held up
+    // for lack of doses, as many as the doses go to are booked in the background
+    private void dosesReturned(String vaccine, int doses) {
+        synchronized (this) {
+            returns.merge(vaccine, 1L, Long::sum);
+            if (!outOfDoses.remove(vaccine)) {
+                return;
+            }
+        }
+        serveInBackground(vaccine);
+    }
+
+    private void serveInBackground(String vaccine) {
+        background.execute(() -> {
+            try {
+                // until the doses run out again, which marks the vaccine for the next return
+                dosesAdded(vaccine, Integer.MAX_VALUE);
+            } catch (SQLException e) {
+                System.out.println("Could not book waitlisted patients for " + vaccine);
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // tries to book an entry taken off its queue; it leaves the waitlist once booked or if its
+    // vaccine does not exist, and goes back to the front of its queue otherwise. returnsBefore is
+    // how many times doses of its vaccine had come back when it was taken.
+    private ReservationEngine.Status assign(Entry entry, long returnsBefore) throws SQLException {
+        ReservationEngine.Result result;
+        try {
+            result = reservationEngine.reserve(Date.valueOf(entry.date), entry.vaccine, entry.patient);
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                enqueue(entry);
+            }
+            throw e;
+        }
+        boolean retry = false;
+        synchronized (this) {
+            switch (result.getStatus()) {
+                case RESERVED:
+                    entry.appointmentId = result.getAppointmentId();
+                    entry.caregiver = result.getCaregiver();
+                    bookedByPatient.computeIfAbsent(entry.patient, k -> new ArrayList<>()).add(entry);
+                    forget(entry);
+                    break;
+                case UNKNOWN_VACCINE:
+                    forget(entry);
+                    break;
+                case NO_DOSES:
+                    enqueue(entry);
+                    // doses that came back during the booking may have been missed by it
+                    retry = returns.getOrDefault(entry.vaccine, 0L) != returnsBefore;
+                    if (!retry) {
+                        outOfDoses.add(entry.vaccine);
+                    }
+                    break;
+                default:
+                    enqueue(entry);
+                    break;
+            }
+        }
+        if (retry) {
+            serveInBackground(entry.vaccine);
+        }
+        return result.getStatus();
+    }
+
+    // called with the lock held; puts the entry in its queue in ticket order
+    private void enqueue(Entry entry) {
+        ArrayDeque<Entry> queue = byDate.computeIfAbsent(entry.date, k -> new HashMap<>())
+                .computeIfAbsent(entry.vaccine, k -> new ArrayDeque<>());
+        datesByVaccine.computeIfAbsent(entry.vaccine, k -> new TreeSet<>()).add(entry.date);
+        if (queue.isEmpty() || queue.peekLast().ticket < entry.ticket) {
+            queue.addLast(entry);
+            return;
+        }
+        // an entry going back after a booking that didn't go through
+        ArrayDeque<Entry> ordered = new ArrayDeque<>(queue.size() + 1);
+        boolean added = false;
+        for (Iterator<Entry> it = queue.iterator(); it.hasNext(); ) {
+            Entry next = it.next();
+            if (!added && entry.ticket < next.ticket) {
+                ordered.add(entry);
+                added = true;
+            }
+            ordered.add(next);
+        }
+        queue.clear();
+        queue.addAll(ordered);
+    }
+
+    // called with the lock held; takes the entry, the head of its queue, off the queue while it
+    // is being booked; the patient is still waiting on it until it is forgotten
+    private void take(Entry entry) {
+        Map<String, ArrayDeque<Entry>> queues = byDate.get(entry.date);
+        ArrayDeque<Entry> queue = queues.get(entry.vaccine);
+        queue.poll();
+        if (queue.isEmpty()) {
+            queues.remove(entry.vaccine);
+            if (queues.isEmpty()) {
+                byDate.remove(entry.date);
+            }
+            TreeSet<LocalDate> dates = datesByVaccine.get(entry.vaccine);
+            dates.remove(entry.date);
+            if (dates.isEmpty()) {
+                datesByVaccine.remove(entry.vaccine);
+            }
+        }
+    }
+
+    // called with the lock held; the patient no longer waits on the entry
+    private void forget(Entry entry) {
+        List<Entry> waiting = waitingByPatient.get(entry.patient);
+        waiting.remove(entry);
+        if (waiting.isEmpty()) {
+            waitingByPatient.remove(entry.patient);
+        }
+    }
+
+    public static class Entry {
+        private final long ticket;
+        private final LocalDate date;
+        private final String vaccine;
+        private final String patient;
+        private int appointmentId = 0;
+        private String caregiver = null;
+
+        private Entry(long ticket, LocalDate date, String vaccine, String patient) {
+            this.ticket = ticket;
+            this.date = date;
+            this.vaccine = vaccine;
+            this.patient = patient;
+        }
+
+        public Date getDate() {
+            return Date.valueOf(date);
+        }
+
+        public String getVaccine() {
+            return vaccine;
+        }
+
+        public String getPatient() {
+            return patient;
+        }
+
+        // set once the entry is booked
+        public int getAppointmentId() {
+            return appointmentId;
+        }
+
+        public String getCaregiver() {
+            return caregiver;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package scheduler.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// One call a command makes underneath: a storage operation, borrowing a database connection
+// or hashing a password.
+@Name("scheduler.Call")
+@Label("Scheduler Call")
+@Category("Vaccine Scheduler")
+@Description("A storage, connection or password hashing call made by the scheduler")
+class CallEvent extends TimedEvent {
+}
@@ -0,0 +1,14 @@
+package scheduler.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// One scheduler command, from dispatch to the last line of output.
+@Name("scheduler.Command")
+@Label("Scheduler Command")
+@Category("Vaccine Scheduler")
+@Description("A command run by a scheduler session")
+class CommandEvent extends TimedEvent {
+}
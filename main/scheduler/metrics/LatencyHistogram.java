@@ -0,0 +1,102 @@
+package scheduler.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts, errors and a latency histogram for one timed operation. Latencies are bucketed by
+// their highest set bit with 16 linear sub-buckets per power of two, so a percentile is off by
+// at most 1/16 (about 6%) while the whole histogram is a fixed array that is updated without
+// locks. Recording is safe from any number of threads.
+public class LatencyHistogram {
+
+    private static final int subBucketBits = 4;
+    private static final int subBuckets = 1 << subBucketBits;
+    private static final int bucketCount = (64 - subBucketBits) * subBuckets;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos, boolean failed) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        if (failed) {
+            errors.increment();
+        }
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    // the upper bound of the bucket holding the given percentile, never above the real maximum
+    public long getPercentileNanos(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        errors.reset();
+        max.set(0);
+    }
+
+    private static int indexOf(long value) {
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - subBucketBits)) & (subBuckets - 1);
+        return (exponent - subBucketBits + 1) * subBuckets + sub;
+    }
+
+    private static long upperBound(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        int exponent = index / subBuckets + subBucketBits - 1;
+        long sub = index % subBuckets;
+        long width = 1L << (exponent - subBucketBits);
+        return ((subBuckets + sub) << (exponent - subBucketBits)) + width - 1;
+    }
+}
@@ -0,0 +1,89 @@
+package scheduler.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Latency histograms for everything the scheduler times: each command ("command.reserve"),
+// each storage call ("storage.appointments.book"), borrowing a database connection
+// ("db.connect") and password hashing ("credentials.*"). Every timed operation is also written
+// as a JFR event. A command counts as failed if it throws, if it reported a failure to its
+// session (wrong password, unknown vaccine, ...) or if any call it made failed, since the
+// handlers report their errors by printing rather than throwing.
+public class Metrics {
+
+    private static final Metrics instance = new Metrics();
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    // calls that failed on each thread so far; a command compares it before and after
+    private final ThreadLocal<int[]> failures = ThreadLocal.withInitial(() -> new int[1]);
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    // all histograms ordered by name
+    public List<LatencyHistogram> getHistograms() {
+        List<LatencyHistogram> all = new ArrayList<>(histograms.values());
+        all.sort(Comparator.comparing(LatencyHistogram::getName));
+        return all;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    public Sample startCommand(String command) {
+        CommandEvent event = new CommandEvent();
+        event.begin();
+        return new Sample(histogram("command." + command), event, failures.get()[0]);
+    }
+
+    public Sample startCall(String name) {
+        CallEvent event = new CallEvent();
+        event.begin();
+        return new Sample(histogram(name), event, -1);
+    }
+
+    // one running timing, ended by stop
+    public class Sample {
+        private final LatencyHistogram histogram;
+        private final TimedEvent event;
+        private final int failuresAtStart;
+        private final long start = System.nanoTime();
+
+        private Sample(LatencyHistogram histogram, TimedEvent event, int failuresAtStart) {
+            this.histogram = histogram;
+            this.event = event;
+            this.failuresAtStart = failuresAtStart;
+        }
+
+        public void stop(boolean failed) {
+            long elapsed = System.nanoTime() - start;
+            int[] failedCalls = failures.get();
+            if (failuresAtStart < 0) {
+                if (failed) {
+                    failedCalls[0]++;
+                }
+            } else {
+                failed |= failedCalls[0] != failuresAtStart;
+            }
+            histogram.record(elapsed, failed);
+            event.end();
+            if (event.shouldCommit()) {
+                event.name = histogram.getName();
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package scheduler.metrics;
+
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+// What the scheduler's JFR events have in common. They are only written while a recording
+// that enables them is running, e.g. java -XX:StartFlightRecording:settings=profile.
+abstract class TimedEvent extends Event {
+
+    @Label("Name")
+    String name;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,72 @@
+package scheduler.model;
+
+import java.sql.Date;
+
+public class Appointment {
+    private final int appointmentId;
+    private final String vaccineName;
+    private final String patientName;
+    private final String caregiverName;
+    private final Date time;
+
+    private Appointment(AppointmentBuilder builder) {
+        this.appointmentId = builder.appointmentId;
+        this.vaccineName = builder.vaccineName;
+        this.patientName = builder.patientName;
+        this.caregiverName = builder.caregiverName;
+        this.time = builder.time;
+    }
+
+    // Getters
+    public int getAppointmentId() {
+        return appointmentId;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getPatientName() {
+        return patientName;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment{" +
+                "appointmentId=" + appointmentId +
+                ", vaccineName='" + vaccineName + '\'' +
+                ", patientName='" + patientName + '\'' +
+                ", caregiverName='" + caregiverName + '\'' +
+                ", time=" + time +
+                '}';
+    }
+
+    public static class AppointmentBuilder {
+        private final int appointmentId;
+        private final String vaccineName;
+        private final String patientName;
+        private final String caregiverName;
+        private final Date time;
+
+        public AppointmentBuilder(int appointmentId, String vaccineName, String patientName, String caregiverName,
+                                  Date time) {
+            this.appointmentId = appointmentId;
+            this.vaccineName = vaccineName;
+            this.patientName = patientName;
+            this.caregiverName = caregiverName;
+            this.time = time;
+        }
+
+        public Appointment build() {
+            return new Appointment(this);
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.AvailabilityIndex;
+import scheduler.db.BatchResult;
+import scheduler.db.DateLocks;
+import scheduler.storage.Storages;
+import scheduler.util.CredentialService;
 import scheduler.util.Util;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class Caregiver {
+public class Caregiver implements User {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -24,50 +31,69 @@ public class Caregiver {
     }
 
     // Getters
+    @Override
     public String getUsername() {
         return username;
     }
 
+    @Override
     public byte[] getSalt() {
         return salt;
     }
 
+    @Override
     public byte[] getHash() {
         return hash;
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        Storages.get().caregivers().save(this);
+    }
 
-        String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
+    // The storage and the AvailabilityIndex are both changed with the date's DateLocks lock
+    // held, like bookings and cancellations do, so the index sees the changes in storage order.
+    public void uploadAvailability(Date d) throws SQLException {
+        ReentrantLock[] locks = DateLocks.getInstance().lock(d.toLocalDate());
         try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
+            Storages.get().availabilities().add(d, this.username);
+            AvailabilityIndex.getInstance().add(d, this.username);
         } catch (SQLException e) {
-            throw new SQLException();
+            AvailabilityIndex.getInstance().invalidate(d);
+            throw e;
         } finally {
-            cm.closeConnection();
+            DateLocks.unlock(locks);
         }
     }
 
-    public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+    // Uploads many dates at once in a single transaction. Dates that are already uploaded are
+    // reported as skipped; any other failure rolls the whole upload back and the offending date
+    // is reported as failed.
+    public BatchResult uploadAvailability(List<Date> dates) throws SQLException {
+        LocalDate[] days = new LocalDate[dates.size()];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = dates.get(i).toLocalDate();
+        }
+        ReentrantLock[] locks = DateLocks.getInstance().lock(days);
         try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
-            statement.setDate(1, d);
-            statement.setString(2, this.username);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
+            BatchResult result;
+            try {
+                result = Storages.get().availabilities().addAll(this.username, dates);
+            } catch (SQLException e) {
+                for (Date d : dates) {
+                    AvailabilityIndex.getInstance().invalidate(d);
+                }
+                throw e;
+            }
+            for (int i = 0; i < dates.size(); i++) {
+                if (result.getOutcome(i) == BatchResult.Outcome.APPLIED) {
+                    AvailabilityIndex.getInstance().add(dates.get(i), this.username);
+                } else if (result.getOutcome(i) == BatchResult.Outcome.FAILED) {
+                    AvailabilityIndex.getInstance().invalidate(dates.get(i));
+                }
+            }
+            return result;
         } finally {
-            cm.closeConnection();
+            DateLocks.unlock(locks);
         }
     }
 
@@ -99,35 +125,21 @@ public class Caregiver {
         }
 
         public Caregiver get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
-                statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Caregiver(this);
-                    }
-                }
+            Caregiver stored = Storages.get().caregivers().find(this.username);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            byte[] salt = stored.getSalt();
+            // we need to call Util.trim() to get rid of the paddings,
+            // try to remove the use of Util.trim() and you'll see :)
+            byte[] hash = Util.trim(stored.getHash());
+            // check if the password matches
+            if (!CredentialService.getInstance().verify(password, salt, hash)) {
+                return null;
+            }
+            this.salt = salt;
+            this.hash = hash;
+            return new Caregiver(this);
         }
     }
 }
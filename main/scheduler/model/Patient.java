@@ -1,12 +1,12 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.storage.Storages;
+import scheduler.util.CredentialService;
 import scheduler.util.Util;
 
-import java.sql.*;
-import java.util.Arrays;
+import java.sql.SQLException;
 
-public class Patient {
+public class Patient implements User {
     private final String username;
     private final byte[] salt;
     private final byte[] hash;
@@ -24,34 +24,23 @@ public class Patient {
     }
 
     // getters
+    @Override
     public String getUsername() {
         return username;
     }
 
+    @Override
     public byte[] getSalt() {
         return salt;
     }
 
+    @Override
     public byte[] getHash() {
         return hash;
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addPatient = "INSERT INTO Patients VALUES (?, ?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addPatient);
-            statement.setString(1, username);
-            statement.setBytes(2, salt);
-            statement.setBytes(3, hash);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storages.get().patients().save(this);
     }
 
     public static class PatientBuilder {
@@ -82,33 +71,19 @@ public class Patient {
         }
 
         public Patient get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getPatient = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getPatient);
-                statement.setString(1, username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-
-                    if (!Arrays.equals(hash, calculatedHash)) {
-                        return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        return new Patient(this);
-                    }
-                }
+            Patient stored = Storages.get().patients().find(username);
+            if (stored == null) {
+                return null;
+            }
+            byte[] salt = stored.getSalt();
+            byte[] hash = Util.trim(stored.getHash());
+
+            if (!CredentialService.getInstance().verify(password, salt, hash)) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.salt = salt;
+            this.hash = hash;
+            return new Patient(this);
         }
     }
 }
@@ -0,0 +1,11 @@
+package scheduler.model;
+
+// What patients and caregivers have in common: an account with a salted password hash.
+public interface User {
+
+    String getUsername();
+
+    byte[] getSalt();
+
+    byte[] getHash();
+}
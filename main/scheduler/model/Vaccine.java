@@ -1,11 +1,10 @@
 package scheduler.model;
 
-import scheduler.db.ConnectionManager;
+import scheduler.db.BatchResult;
+import scheduler.storage.Storages;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Map;
 
 public class Vaccine {
     private final String vaccineName;
@@ -31,20 +30,7 @@ public class Vaccine {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storages.get().vaccines().save(this);
     }
 
     // Increment the available doses
@@ -53,21 +39,7 @@ public class Vaccine {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
         this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
-        }
+        Storages.get().vaccines().addDoses(this.vaccineName, num);
     }
 
     // Decrement the available doses
@@ -75,21 +47,17 @@ public class Vaccine {
         if (this.availableDoses - num < 0) {
             throw new IllegalArgumentException("Not enough available doses!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
-        try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+        if (!Storages.get().vaccines().removeDoses(this.vaccineName, num)) {
+            throw new IllegalArgumentException("Not enough available doses!");
         }
+        this.availableDoses -= num;
+    }
+
+    // Adds doses to many vaccines at once in a single transaction, creating vaccines that don't
+    // exist yet. If any amount isn't positive nothing is added at all and the offending vaccines
+    // are reported; any other failure rolls the whole batch back and the offending vaccine is reported.
+    public static BatchResult addDoses(Map<String, Integer> dosesByVaccine) throws SQLException {
+        return Storages.get().vaccines().addDoses(dosesByVaccine);
     }
 
     @Override
@@ -123,24 +91,12 @@ public class Vaccine {
         }
 
         public Vaccine get() throws SQLException {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
-            try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
-                statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    return new Vaccine(this);
-                }
+            Vaccine stored = Storages.get().vaccines().find(this.vaccineName);
+            if (stored == null) {
                 return null;
-            } catch (SQLException e) {
-                throw new SQLException();
-            } finally {
-                cm.closeConnection();
             }
+            this.availableDoses = stored.getAvailableDoses();
+            return new Vaccine(this);
         }
     }
 }
@@ -0,0 +1,35 @@
+package scheduler.storage;
+
+import java.sql.Date;
+
+// How many appointments one caregiver has of one vaccine on one date.
+public class AppointmentCount {
+
+    private final Date time;
+    private final String vaccineName;
+    private final String caregiverName;
+    private final int count;
+
+    public AppointmentCount(Date time, String vaccineName, String caregiverName, int count) {
+        this.time = time;
+        this.vaccineName = vaccineName;
+        this.caregiverName = caregiverName;
+        this.count = count;
+    }
+
+    public Date getTime() {
+        return time;
+    }
+
+    public String getVaccineName() {
+        return vaccineName;
+    }
+
+    public String getCaregiverName() {
+        return caregiverName;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
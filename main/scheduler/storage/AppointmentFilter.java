@@ -0,0 +1,46 @@
+package scheduler.storage;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+
+// Which appointments a bulk cancellation takes: those of one caregiver, of one vaccine, between
+// two dates (both inclusive), or any combination of these. Whatever is left out matches anything.
+public class AppointmentFilter {
+
+    private final String caregiver;
+    private final String vaccine;
+    private final Date from;
+    private final Date to;
+
+    public AppointmentFilter(String caregiver, String vaccine, Date from, Date to) {
+        this.caregiver = caregiver;
+        this.vaccine = vaccine;
+        this.from = from == null ? AppointmentPage.firstDate : from;
+        this.to = to == null ? AppointmentPage.lastDate : to;
+    }
+
+    // null for any caregiver
+    public String getCaregiver() {
+        return caregiver;
+    }
+
+    // null for any vaccine
+    public String getVaccine() {
+        return vaccine;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public boolean includes(Appointment appointment) {
+        return (caregiver == null || caregiver.equals(appointment.getCaregiverName())) &&
+                (vaccine == null || vaccine.equals(appointment.getVaccineName())) &&
+                appointment.getTime().compareTo(from) >= 0 && appointment.getTime().compareTo(to) <= 0;
+    }
+}
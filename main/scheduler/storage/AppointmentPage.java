@@ -0,0 +1,48 @@
+package scheduler.storage;
+
+import java.sql.Date;
+
+// Which slice of a user's appointments to read: the ones with an id above afterId, optionally
+// only between two dates (both inclusive), at most limit of them, ordered by id. The next
+// page starts after the last id of this one, so reading a page costs the same however many
+// appointments come before it.
+public class AppointmentPage {
+
+    public static final Date firstDate = Date.valueOf("0001-01-01");
+    public static final Date lastDate = Date.valueOf("9999-12-31");
+
+    private final int afterId;
+    private final Date from;
+    private final Date to;
+    private final int limit;
+
+    public AppointmentPage(int afterId, Date from, Date to, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        this.afterId = afterId;
+        this.from = from == null ? firstDate : from;
+        this.to = to == null ? lastDate : to;
+        this.limit = limit;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean includes(int appointmentId, Date time) {
+        return appointmentId > afterId && time.compareTo(from) >= 0 && time.compareTo(to) <= 0;
+    }
+}
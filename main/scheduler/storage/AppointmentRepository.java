@@ -0,0 +1,53 @@
+package scheduler.storage;
+
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+// Appointments, and the caregiver availability they use up.
+public interface AppointmentRepository {
+
+    // reserves size consecutive appointment ids and returns the first one; safe to call from
+    // several scheduler processes sharing the same storage
+    long nextIdBlock(int size) throws SQLException;
+
+    // in one transaction, claims the availability of the preferred caregiver on that day (or of
+    // the first free one if the preferred caregiver is taken or null) and books the appointment;
+    // returns null without changing anything if nobody is free
+    Appointment book(int appointmentId, Date d, String vaccine, String patient, String preferredCaregiver)
+            throws SQLException;
+
+    // null if there is no such appointment
+    Appointment find(int appointmentId) throws SQLException;
+
+    // in one transaction, deletes the appointment and gives the caregiver that day back;
+    // returns the cancelled appointment, or null if there was none
+    Appointment cancel(int appointmentId) throws SQLException;
+
+    // in one transaction, deletes every appointment the filter takes, gives the caregivers those
+    // days back and returns the doses to the vaccines; returns the cancelled appointments ordered
+    // by appointment id
+    List<Appointment> cancelAll(AppointmentFilter filter) throws SQLException;
+
+    // ordered by appointment id
+    List<Appointment> findByPatient(String patient) throws SQLException;
+
+    // ordered by appointment id
+    List<Appointment> findByCaregiver(String caregiver) throws SQLException;
+
+    // one page of the patient's appointments, ordered by appointment id
+    List<Appointment> findByPatient(String patient, AppointmentPage page) throws SQLException;
+
+    // one page of the caregiver's appointments, ordered by appointment id
+    List<Appointment> findByCaregiver(String caregiver, AppointmentPage page) throws SQLException;
+
+    // how many appointments each caregiver has; caregivers without any are left out
+    Map<String, Integer> countByCaregiver() throws SQLException;
+
+    // how many appointments each caregiver has of each vaccine on each date, in one pass over
+    // all of them; combinations without any are left out
+    List<AppointmentCount> countByDate() throws SQLException;
+}
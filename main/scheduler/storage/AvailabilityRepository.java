@@ -0,0 +1,29 @@
+package scheduler.storage;
+
+import scheduler.db.BatchResult;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+
+// The days caregivers are available on, one entry per caregiver and day.
+public interface AvailabilityRepository {
+
+    // every date with the caregivers available on it, in alphabetical order
+    NavigableMap<LocalDate, NavigableSet<String>> findAll() throws SQLException;
+
+    NavigableSet<String> findByDate(Date d) throws SQLException;
+
+    // the dates from first to last, both included, that someone is available on, with who is
+    NavigableMap<LocalDate, NavigableSet<String>> findByDateRange(Date first, Date last) throws SQLException;
+
+    // fails if the caregiver is already available that day
+    void add(Date d, String caregiver) throws SQLException;
+
+    // adds many days in one transaction; days that are already there are skipped, any other
+    // failure rolls everything back
+    BatchResult addAll(String caregiver, List<Date> dates) throws SQLException;
+}
@@ -0,0 +1,99 @@
+package scheduler.storage;
+
+import scheduler.metrics.Metrics;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Times every repository call of another Storage into Metrics ("storage.<repository>.<method>"),
+// so a slow command can be traced to the calls it made. The repositories are wrapped in
+// dynamic proxies, which keeps this independent of what each repository offers.
+class InstrumentedStorage implements Storage {
+
+    private final UserRepository<Patient> patients;
+    private final UserRepository<Caregiver> caregivers;
+    private final AvailabilityRepository availabilities;
+    private final VaccineRepository vaccines;
+    private final AppointmentRepository appointments;
+    private final Storage storage;
+
+    @SuppressWarnings("unchecked")
+    InstrumentedStorage(Storage storage) {
+        this.storage = storage;
+        this.patients = wrap(UserRepository.class, storage.patients(), "patients");
+        this.caregivers = wrap(UserRepository.class, storage.caregivers(), "caregivers");
+        this.availabilities = wrap(AvailabilityRepository.class, storage.availabilities(), "availabilities");
+        this.vaccines = wrap(VaccineRepository.class, storage.vaccines(), "vaccines");
+        this.appointments = wrap(AppointmentRepository.class, storage.appointments(), "appointments");
+    }
+
+    @Override
+    public UserRepository<Patient> patients() {
+        return patients;
+    }
+
+    @Override
+    public UserRepository<Caregiver> caregivers() {
+        return caregivers;
+    }
+
+    @Override
+    public AvailabilityRepository availabilities() {
+        return availabilities;
+    }
+
+    @Override
+    public VaccineRepository vaccines() {
+        return vaccines;
+    }
+
+    @Override
+    public AppointmentRepository appointments() {
+        return appointments;
+    }
+
+    @Override
+    public void migrate() throws SQLException, IOException {
+        storage.migrate();
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static <T> T wrap(Class type, Object repository, String name) {
+        // the histogram names are built once here rather than on every call
+        Map<Method, String> names = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            names.put(method, "storage." + name + "." + method.getName());
+        }
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> invoke(repository, method, args, names.get(method)));
+    }
+
+    private static Object invoke(Object repository, Method method, Object[] args, String name) throws Throwable {
+        if (name == null) {
+            // toString, equals and hashCode
+            try {
+                return method.invoke(repository, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+        Metrics.Sample sample = Metrics.getInstance().startCall(name);
+        boolean failed = true;
+        try {
+            Object result = method.invoke(repository, args);
+            failed = false;
+            return result;
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            sample.stop(failed);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package scheduler.storage;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+// One storage backend: where the scheduler keeps its patients, caregivers, availabilities,
+// vaccines and appointments.
+public interface Storage {
+
+    UserRepository<Patient> patients();
+
+    UserRepository<Caregiver> caregivers();
+
+    AvailabilityRepository availabilities();
+
+    VaccineRepository vaccines();
+
+    AppointmentRepository appointments();
+
+    // brings the backend's schema up to date; called once at startup
+    default void migrate() throws SQLException, IOException {
+    }
+}
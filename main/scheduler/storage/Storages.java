@@ -0,0 +1,46 @@
+package scheduler.storage;
+
+import scheduler.storage.file.FileStorage;
+import scheduler.storage.jdbc.JdbcStorage;
+import scheduler.storage.memory.MemoryStorage;
+
+// Holds the storage backend the process runs on. It is chosen once at startup, from the
+// --storage argument or the Storage environment variable: "jdbc" (the default) for the SQL
+// Server database ConnectionManager points at, "memory" for a throwaway in-process store, or
+// "file" for an in-process store kept durable in a local directory (see FileStorage).
+public class Storages {
+
+    private static volatile Storage current = null;
+
+    private Storages() {
+    }
+
+    public static Storage create(String kind) {
+        if (kind == null || kind.isEmpty() || kind.equals("jdbc")) {
+            return new JdbcStorage();
+        } else if (kind.equals("memory")) {
+            return new MemoryStorage();
+        } else if (kind.equals("file")) {
+            return new FileStorage();
+        }
+        throw new IllegalArgumentException("Unknown storage: " + kind);
+    }
+
+    // every call into the backend is timed (see InstrumentedStorage)
+    public static synchronized void use(Storage storage) {
+        current = new InstrumentedStorage(storage);
+    }
+
+    public static Storage get() {
+        Storage storage = current;
+        if (storage == null) {
+            synchronized (Storages.class) {
+                if (current == null) {
+                    current = new InstrumentedStorage(create(System.getenv("Storage")));
+                }
+                storage = current;
+            }
+        }
+        return storage;
+    }
+}
@@ -0,0 +1,27 @@
+package scheduler.storage;
+
+import scheduler.model.User;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+// Accounts of one kind, patients or caregivers, keyed by username.
+public interface UserRepository<U extends User> {
+
+    boolean exists(String username) throws SQLException;
+
+    // the stored account, or null if there is none; the password is not checked here
+    U find(String username) throws SQLException;
+
+    // fails if the username is taken
+    void save(U user) throws SQLException;
+
+    // which of the given usernames are taken, answered in one go
+    Set<String> findExisting(Collection<String> usernames) throws SQLException;
+
+    // saves all users in one transaction, skipping usernames that are taken by then;
+    // the result says for each user whether it was saved
+    boolean[] saveAll(List<U> users) throws SQLException;
+}
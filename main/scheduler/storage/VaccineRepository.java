@@ -0,0 +1,33 @@
+package scheduler.storage;
+
+import scheduler.db.BatchResult;
+import scheduler.model.Vaccine;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+// Vaccines and the number of doses left of each.
+public interface VaccineRepository {
+
+    // null if there is no such vaccine
+    Vaccine find(String name) throws SQLException;
+
+    // all vaccines ordered by name
+    List<Vaccine> findAll() throws SQLException;
+
+    // fails if the vaccine already exists
+    void save(Vaccine vaccine) throws SQLException;
+
+    // relative update, does nothing for an unknown vaccine
+    void addDoses(String name, int doses) throws SQLException;
+
+    // takes the doses only if that many are left, returns whether it did
+    boolean removeDoses(String name, int doses) throws SQLException;
+
+    // takes up to the wanted number of doses, returns how many were taken or -1 for an unknown vaccine
+    int takeDoses(String name, int wanted) throws SQLException;
+
+    // adds doses to many vaccines in one transaction, creating the ones that don't exist yet
+    BatchResult addDoses(Map<String, Integer> dosesByVaccine) throws SQLException;
+}
@@ -0,0 +1,181 @@
+package scheduler.storage.file;
+
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.User;
+import scheduler.model.Vaccine;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+
+// How changes are written to the WriteAheadLog and applied again on recovery. What is logged is
+// what a change did, not what was asked for: a booking records the caregiver it got and a dose
+// lease the doses it took, so replaying the log in order rebuilds exactly the same state.
+class Changes {
+
+    private static final byte patient = 1;
+    private static final byte caregiver = 2;
+    private static final byte availability = 3;
+    private static final byte vaccine = 4;
+    // relative change to an existing vaccine's doses
+    private static final byte doses = 5;
+    // doses added to a vaccine, creating it if it doesn't exist yet
+    private static final byte stock = 6;
+    private static final byte idBlock = 7;
+    private static final byte booking = 8;
+    private static final byte cancellation = 9;
+
+    private Changes() {
+    }
+
+    static void writePatient(DataOutputStream out, Patient user) throws IOException {
+        writeUser(out, patient, user);
+    }
+
+    static void writeCaregiver(DataOutputStream out, Caregiver user) throws IOException {
+        writeUser(out, caregiver, user);
+    }
+
+    static void writeAvailability(DataOutputStream out, Date d, String caregiverName) throws IOException {
+        out.writeByte(availability);
+        out.writeLong(d.toLocalDate().toEpochDay());
+        out.writeUTF(caregiverName);
+    }
+
+    static void writeVaccine(DataOutputStream out, String name, int available) throws IOException {
+        out.writeByte(vaccine);
+        out.writeUTF(name);
+        out.writeInt(available);
+    }
+
+    static void writeDoses(DataOutputStream out, String name, int delta) throws IOException {
+        out.writeByte(doses);
+        out.writeUTF(name);
+        out.writeInt(delta);
+    }
+
+    static void writeStock(DataOutputStream out, String name, int added) throws IOException {
+        out.writeByte(stock);
+        out.writeUTF(name);
+        out.writeInt(added);
+    }
+
+    static void writeIdBlock(DataOutputStream out, int size) throws IOException {
+        out.writeByte(idBlock);
+        out.writeInt(size);
+    }
+
+    static void writeBooking(DataOutputStream out, Appointment appointment) throws IOException {
+        out.writeByte(booking);
+        writeAppointment(out, appointment);
+    }
+
+    static void writeCancellation(DataOutputStream out, int appointmentId) throws IOException {
+        out.writeByte(cancellation);
+        out.writeInt(appointmentId);
+    }
+
+    // applies every change in one frame of the log
+    static void replay(DataInputStream in, MemoryStorage memory) throws SQLException, IOException {
+        while (in.available() > 0) {
+            byte type = in.readByte();
+            switch (type) {
+                case patient: {
+                    String username = in.readUTF();
+                    memory.patients().save(new Patient.PatientBuilder(username, readBytes(in), readBytes(in)).build());
+                    break;
+                }
+                case caregiver: {
+                    String username = in.readUTF();
+                    memory.caregivers().save(
+                            new Caregiver.CaregiverBuilder(username, readBytes(in), readBytes(in)).build());
+                    break;
+                }
+                case availability: {
+                    Date d = readDate(in);
+                    memory.availabilities().add(d, in.readUTF());
+                    break;
+                }
+                case vaccine: {
+                    String name = in.readUTF();
+                    memory.vaccines().save(new Vaccine.VaccineBuilder(name, in.readInt()).build());
+                    break;
+                }
+                case doses:
+                    memory.vaccines().addDoses(in.readUTF(), in.readInt());
+                    break;
+                case stock:
+                    memory.vaccines().addDoses(Collections.singletonMap(in.readUTF(), in.readInt()));
+                    break;
+                case idBlock:
+                    memory.appointments().nextIdBlock(in.readInt());
+                    break;
+                case booking: {
+                    Appointment logged = readAppointment(in);
+                    Appointment booked = memory.appointments().book(logged.getAppointmentId(), logged.getTime(),
+                            logged.getVaccineName(), logged.getPatientName(), logged.getCaregiverName());
+                    if (booked == null || !booked.getCaregiverName().equals(logged.getCaregiverName())) {
+                        throw new IOException("Log does not match the state it is replayed on: appointment "
+                                + logged.getAppointmentId());
+                    }
+                    break;
+                }
+                case cancellation:
+                    memory.appointments().cancel(in.readInt());
+                    break;
+                default:
+                    throw new IOException("Unknown change in the log: " + type);
+            }
+        }
+    }
+
+    static void writeAppointment(DataOutputStream out, Appointment appointment) throws IOException {
+        out.writeInt(appointment.getAppointmentId());
+        out.writeLong(appointment.getTime().toLocalDate().toEpochDay());
+        out.writeUTF(appointment.getVaccineName());
+        out.writeUTF(appointment.getPatientName());
+        out.writeUTF(appointment.getCaregiverName());
+    }
+
+    static Appointment readAppointment(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        Date d = readDate(in);
+        String vaccineName = in.readUTF();
+        String patientName = in.readUTF();
+        String caregiverName = in.readUTF();
+        return new Appointment.AppointmentBuilder(id, vaccineName, patientName, caregiverName, d).build();
+    }
+
+    static void writeUserFields(DataOutputStream out, User user) throws IOException {
+        out.writeUTF(user.getUsername());
+        writeBytes(out, user.getSalt());
+        writeBytes(out, user.getHash());
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static Date readDate(DataInputStream in) throws IOException {
+        return Date.valueOf(LocalDate.ofEpochDay(in.readLong()));
+    }
+
+    private static void writeUser(DataOutputStream out, byte type, User user) throws IOException {
+        out.writeByte(type);
+        writeUserFields(out, user);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,112 @@
+package scheduler.storage.file;
+
+import scheduler.model.Appointment;
+import scheduler.storage.AppointmentCount;
+import scheduler.storage.AppointmentFilter;
+import scheduler.storage.AppointmentPage;
+import scheduler.storage.AppointmentRepository;
+import scheduler.storage.memory.MemoryAppointmentRepository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Appointments: read from memory, every booking logged with the caregiver it got, so it is
+// replayed onto the same caregiver. Id blocks are logged too, so ids are never handed out twice
+// across a restart.
+class FileAppointmentRepository implements AppointmentRepository {
+
+    private final MemoryAppointmentRepository memory;
+    private final WriteAheadLog log;
+
+    FileAppointmentRepository(MemoryAppointmentRepository memory, WriteAheadLog log) {
+        this.memory = memory;
+        this.log = log;
+    }
+
+    @Override
+    public long nextIdBlock(int size) throws SQLException {
+        return log.commit(out -> {
+            long first = memory.nextIdBlock(size);
+            Changes.writeIdBlock(out, size);
+            return first;
+        });
+    }
+
+    @Override
+    public Appointment book(int appointmentId, Date d, String vaccine, String patient, String preferredCaregiver)
+            throws SQLException {
+        return log.commit(out -> {
+            Appointment appointment = memory.book(appointmentId, d, vaccine, patient, preferredCaregiver);
+            if (appointment != null) {
+                Changes.writeBooking(out, appointment);
+            }
+            return appointment;
+        });
+    }
+
+    @Override
+    public Appointment find(int appointmentId) {
+        return memory.find(appointmentId);
+    }
+
+    @Override
+    public Appointment cancel(int appointmentId) throws SQLException {
+        return log.commit(out -> {
+            Appointment appointment = memory.cancel(appointmentId);
+            if (appointment != null) {
+                Changes.writeCancellation(out, appointmentId);
+            }
+            return appointment;
+        });
+    }
+
+    @Override
+    public List<Appointment> cancelAll(AppointmentFilter filter) throws SQLException {
+        return log.commit(out -> {
+            List<Appointment> cancelled = memory.cancelAll(filter);
+            Map<String, Integer> doses = new HashMap<>();
+            for (Appointment appointment : cancelled) {
+                Changes.writeCancellation(out, appointment.getAppointmentId());
+                doses.merge(appointment.getVaccineName(), 1, Integer::sum);
+            }
+            // a replayed cancellation gives the day back but leaves the doses to these
+            for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+                Changes.writeDoses(out, entry.getKey(), entry.getValue());
+            }
+            return cancelled;
+        });
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patient) {
+        return memory.findByPatient(patient);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiver) {
+        return memory.findByCaregiver(caregiver);
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patient, AppointmentPage page) {
+        return memory.findByPatient(patient, page);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiver, AppointmentPage page) {
+        return memory.findByCaregiver(caregiver, page);
+    }
+
+    @Override
+    public Map<String, Integer> countByCaregiver() {
+        return memory.countByCaregiver();
+    }
+
+    @Override
+    public List<AppointmentCount> countByDate() {
+        return memory.countByDate();
+    }
+}
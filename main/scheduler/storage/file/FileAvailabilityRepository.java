@@ -0,0 +1,61 @@
+package scheduler.storage.file;
+
+import scheduler.db.BatchResult;
+import scheduler.storage.AvailabilityRepository;
+import scheduler.storage.memory.MemoryAvailabilityRepository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+
+// Caregiver availability: read from memory, the days that were added logged in one frame per call.
+class FileAvailabilityRepository implements AvailabilityRepository {
+
+    private final MemoryAvailabilityRepository memory;
+    private final WriteAheadLog log;
+
+    FileAvailabilityRepository(MemoryAvailabilityRepository memory, WriteAheadLog log) {
+        this.memory = memory;
+        this.log = log;
+    }
+
+    @Override
+    public NavigableMap<LocalDate, NavigableSet<String>> findAll() {
+        return memory.findAll();
+    }
+
+    @Override
+    public NavigableSet<String> findByDate(Date d) {
+        return memory.findByDate(d);
+    }
+
+    @Override
+    public NavigableMap<LocalDate, NavigableSet<String>> findByDateRange(Date first, Date last) {
+        return memory.findByDateRange(first, last);
+    }
+
+    @Override
+    public void add(Date d, String caregiver) throws SQLException {
+        log.commit(out -> {
+            memory.add(d, caregiver);
+            Changes.writeAvailability(out, d, caregiver);
+            return null;
+        });
+    }
+
+    @Override
+    public BatchResult addAll(String caregiver, List<Date> dates) throws SQLException {
+        return log.commit(out -> {
+            BatchResult result = memory.addAll(caregiver, dates);
+            for (int i = 0; i < result.size(); i++) {
+                if (result.getOutcome(i) == BatchResult.Outcome.APPLIED) {
+                    Changes.writeAvailability(out, dates.get(i), caregiver);
+                }
+            }
+            return result;
+        });
+    }
+}
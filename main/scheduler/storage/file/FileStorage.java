@@ -0,0 +1,191 @@
+package scheduler.storage.file;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.storage.AppointmentRepository;
+import scheduler.storage.AvailabilityRepository;
+import scheduler.storage.Storage;
+import scheduler.storage.UserRepository;
+import scheduler.storage.VaccineRepository;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Everything kept in memory like MemoryStorage, and made durable on local disk in the directory
+// named by the StorageDir environment variable (default "scheduler-data"). Every change is
+// appended to a WriteAheadLog and on disk before the call that made it returns, so a booking
+// costs a local fsync, shared with whatever else is being written at the time, instead of a
+// round trip to a database. Once StorageSnapshotEvery changes (default 500000) have been logged
+// since the last snapshot, the state is copied and written out as a Snapshot in the background
+// and the log it covers is deleted. Writers only wait for the in-memory copy, not for the file.
+//
+// migrate opens the store: it loads the newest snapshot, replays the log written after it, cuts
+// off a frame the process died in the middle of writing, and then starts logging. So startup
+// takes as long as reading one snapshot and at most StorageSnapshotEvery changes.
+public class FileStorage implements Storage {
+
+    private static final Pattern segmentName = Pattern.compile("wal-(\\d+)\\.log");
+    private static final Pattern snapshotName = Pattern.compile("snapshot-(\\d+)\\.bin");
+
+    private final Path dir;
+    private final long snapshotEvery;
+    private final MemoryStorage memory = new MemoryStorage();
+    private final WriteAheadLog log;
+    private final UserRepository<Patient> patients;
+    private final UserRepository<Caregiver> caregivers;
+    private final AvailabilityRepository availabilities;
+    private final VaccineRepository vaccines;
+    private final AppointmentRepository appointments;
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+
+    public FileStorage() {
+        this(Paths.get(dirSetting()), snapshotSetting());
+    }
+
+    public FileStorage(Path dir, long snapshotEvery) {
+        this.dir = dir;
+        this.snapshotEvery = snapshotEvery;
+        this.log = new WriteAheadLog(dir, this::snapshotIfDue);
+        this.patients = new FileUserRepository<>(memory.patients(), log, Changes::writePatient);
+        this.caregivers = new FileUserRepository<>(memory.caregivers(), log, Changes::writeCaregiver);
+        this.availabilities = new FileAvailabilityRepository(memory.availabilities(), log);
+        this.vaccines = new FileVaccineRepository(memory.vaccines(), log);
+        this.appointments = new FileAppointmentRepository(memory.appointments(), log);
+    }
+
+    @Override
+    public UserRepository<Patient> patients() {
+        return patients;
+    }
+
+    @Override
+    public UserRepository<Caregiver> caregivers() {
+        return caregivers;
+    }
+
+    @Override
+    public AvailabilityRepository availabilities() {
+        return availabilities;
+    }
+
+    @Override
+    public VaccineRepository vaccines() {
+        return vaccines;
+    }
+
+    @Override
+    public AppointmentRepository appointments() {
+        return appointments;
+    }
+
+    // recovers the state from disk and starts logging
+    @Override
+    public void migrate() throws SQLException, IOException {
+        Files.createDirectories(dir);
+        List<Integer> snapshots = numbered(snapshotName);
+        int first = 1;
+        if (!snapshots.isEmpty()) {
+            first = Snapshot.read(Snapshot.file(dir, snapshots.get(snapshots.size() - 1)), memory);
+        }
+        List<Integer> segments = new ArrayList<>();
+        for (int segment : numbered(segmentName)) {
+            if (segment >= first) {
+                segments.add(segment);
+            }
+        }
+        long frames = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            // only the segment being written when the process stopped can end in a torn frame
+            boolean last = i == segments.size() - 1;
+            frames = log.replay(segments.get(i), last, frame -> Changes.replay(frame, memory));
+        }
+        log.open(segments.isEmpty() ? first : segments.get(segments.size() - 1), frames);
+        // what an interrupted snapshot left behind
+        deleteBefore(first);
+    }
+
+    // starts a snapshot in the background once enough has been logged since the last one
+    private void snapshotIfDue() {
+        if (log.getFramesInSegment() < snapshotEvery || !snapshotting.compareAndSet(false, true)) {
+            return;
+        }
+        Thread writer = new Thread(() -> {
+            try {
+                snapshot();
+            } catch (SQLException | IOException e) {
+                System.out.println("Could not write a storage snapshot");
+                e.printStackTrace();
+            } finally {
+                snapshotting.set(false);
+            }
+        }, "snapshot");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // writes a snapshot of the current state and deletes the log and snapshots it replaces
+    public void snapshot() throws SQLException, IOException {
+        Snapshot snapshot = log.rotate(segment -> Snapshot.capture(memory, segment));
+        snapshot.write(dir);
+        deleteBefore(snapshot.getSegment());
+    }
+
+    private void deleteBefore(int segment) throws IOException {
+        for (int old : numbered(segmentName)) {
+            if (old < segment) {
+                Files.deleteIfExists(log.segmentFile(old));
+            }
+        }
+        for (int old : numbered(snapshotName)) {
+            if (old < segment) {
+                Files.deleteIfExists(Snapshot.file(dir, old));
+            }
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // the numbers of the files in the directory matching the pattern, in order
+    private List<Integer> numbered(Pattern pattern) throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = pattern.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    numbers.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private static String dirSetting() {
+        String value = System.getenv("StorageDir");
+        return value == null || value.trim().isEmpty() ? "scheduler-data" : value.trim();
+    }
+
+    private static long snapshotSetting() {
+        String value = System.getenv("StorageSnapshotEvery");
+        try {
+            return value == null ? 500000 : Math.max(1, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 500000;
+        }
+    }
+}
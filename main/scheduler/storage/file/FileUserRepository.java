@@ -0,0 +1,67 @@
+package scheduler.storage.file;
+
+import scheduler.model.User;
+import scheduler.storage.UserRepository;
+import scheduler.storage.memory.MemoryUserRepository;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+// Patients or caregivers: read from memory, every new account logged before it is reported saved.
+class FileUserRepository<U extends User> implements UserRepository<U> {
+
+    interface UserWriter<U> {
+        void write(DataOutputStream out, U user) throws IOException;
+    }
+
+    private final MemoryUserRepository<U> memory;
+    private final WriteAheadLog log;
+    private final UserWriter<U> writer;
+
+    FileUserRepository(MemoryUserRepository<U> memory, WriteAheadLog log, UserWriter<U> writer) {
+        this.memory = memory;
+        this.log = log;
+        this.writer = writer;
+    }
+
+    @Override
+    public boolean exists(String username) {
+        return memory.exists(username);
+    }
+
+    @Override
+    public U find(String username) {
+        return memory.find(username);
+    }
+
+    @Override
+    public void save(U user) throws SQLException {
+        log.commit(out -> {
+            memory.save(user);
+            writer.write(out, user);
+            return null;
+        });
+    }
+
+    @Override
+    public Set<String> findExisting(Collection<String> usernames) {
+        return memory.findExisting(usernames);
+    }
+
+    @Override
+    public boolean[] saveAll(List<U> users) throws SQLException {
+        return log.commit(out -> {
+            boolean[] saved = memory.saveAll(users);
+            for (int i = 0; i < saved.length; i++) {
+                if (saved[i]) {
+                    writer.write(out, users.get(i));
+                }
+            }
+            return saved;
+        });
+    }
+}
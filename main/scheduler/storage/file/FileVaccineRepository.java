@@ -0,0 +1,87 @@
+package scheduler.storage.file;
+
+import scheduler.db.BatchResult;
+import scheduler.model.Vaccine;
+import scheduler.storage.VaccineRepository;
+import scheduler.storage.memory.MemoryVaccineRepository;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+// Vaccines: read from memory, every change to the doses logged as the number of doses it moved.
+class FileVaccineRepository implements VaccineRepository {
+
+    private final MemoryVaccineRepository memory;
+    private final WriteAheadLog log;
+
+    FileVaccineRepository(MemoryVaccineRepository memory, WriteAheadLog log) {
+        this.memory = memory;
+        this.log = log;
+    }
+
+    @Override
+    public Vaccine find(String name) throws SQLException {
+        return memory.find(name);
+    }
+
+    @Override
+    public List<Vaccine> findAll() throws SQLException {
+        return memory.findAll();
+    }
+
+    @Override
+    public void save(Vaccine vaccine) throws SQLException {
+        log.commit(out -> {
+            memory.save(vaccine);
+            Changes.writeVaccine(out, vaccine.getVaccineName(), vaccine.getAvailableDoses());
+            return null;
+        });
+    }
+
+    @Override
+    public void addDoses(String name, int doses) throws SQLException {
+        log.commit(out -> {
+            if (memory.find(name) != null) {
+                memory.addDoses(name, doses);
+                Changes.writeDoses(out, name, doses);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean removeDoses(String name, int doses) throws SQLException {
+        return log.commit(out -> {
+            boolean removed = memory.removeDoses(name, doses);
+            if (removed) {
+                Changes.writeDoses(out, name, -doses);
+            }
+            return removed;
+        });
+    }
+
+    @Override
+    public int takeDoses(String name, int wanted) throws SQLException {
+        return log.commit(out -> {
+            int taken = memory.takeDoses(name, wanted);
+            if (taken > 0) {
+                Changes.writeDoses(out, name, -taken);
+            }
+            return taken;
+        });
+    }
+
+    @Override
+    public BatchResult addDoses(Map<String, Integer> dosesByVaccine) throws SQLException {
+        return log.commit(out -> {
+            BatchResult result = memory.addDoses(dosesByVaccine);
+            for (int i = 0; i < result.size(); i++) {
+                if (result.getOutcome(i) == BatchResult.Outcome.APPLIED) {
+                    Changes.writeStock(out, result.getRow(i), dosesByVaccine.get(result.getRow(i)));
+                }
+            }
+            return result;
+        });
+    }
+}
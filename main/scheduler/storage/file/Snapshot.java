@@ -0,0 +1,179 @@
+package scheduler.storage.file;
+
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.User;
+import scheduler.model.Vaccine;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// A copy of everything a FileStorage holds, as of the start of a log segment: the state after
+// every segment before it, so recovery loads the snapshot and replays that segment and the ones
+// after it. Written to a temporary file that is renamed into place once it is on disk, so a
+// snapshot file is always complete; a CRC32 at the end catches a damaged one.
+class Snapshot {
+
+    private static final int magic = 0x56414d53;
+    private static final int version = 1;
+
+    private final int segment;
+    private final long nextAppointmentId;
+    private final List<Patient> patients;
+    private final List<Caregiver> caregivers;
+    private final List<Vaccine> vaccines;
+    // free days only; the days appointments took are in the appointments
+    private final NavigableMap<LocalDate, NavigableSet<String>> availabilities;
+    private final List<Appointment> appointments;
+
+    private Snapshot(int segment, long nextAppointmentId, List<Patient> patients, List<Caregiver> caregivers,
+                     List<Vaccine> vaccines, NavigableMap<LocalDate, NavigableSet<String>> availabilities,
+                     List<Appointment> appointments) {
+        this.segment = segment;
+        this.nextAppointmentId = nextAppointmentId;
+        this.patients = patients;
+        this.caregivers = caregivers;
+        this.vaccines = vaccines;
+        this.availabilities = availabilities;
+        this.appointments = appointments;
+    }
+
+    // copies the state; nothing may change it meanwhile (see WriteAheadLog.rotate)
+    static Snapshot capture(MemoryStorage memory, int segment) {
+        try {
+            return new Snapshot(segment, memory.appointments().nextIdBlock(0), memory.patients().findAll(),
+                    memory.caregivers().findAll(), memory.vaccines().findAll(), memory.availabilities().findAll(),
+                    memory.appointments().findAll());
+        } catch (SQLException e) {
+            // the in-memory repositories don't throw
+            throw new IllegalStateException(e);
+        }
+    }
+
+    int getSegment() {
+        return segment;
+    }
+
+    static Path file(Path dir, int segment) {
+        return dir.resolve(String.format("snapshot-%010d.bin", segment));
+    }
+
+    void write(Path dir) throws IOException {
+        Path file = file(dir, segment);
+        Path temporary = dir.resolve(file.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream, 1 << 16),
+                    new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(segment);
+            out.writeLong(nextAppointmentId);
+            writeUsers(out, patients);
+            writeUsers(out, caregivers);
+            out.writeInt(vaccines.size());
+            for (Vaccine vaccine : vaccines) {
+                out.writeUTF(vaccine.getVaccineName());
+                out.writeInt(vaccine.getAvailableDoses());
+            }
+            out.writeInt(availabilities.size());
+            for (Map.Entry<LocalDate, NavigableSet<String>> entry : availabilities.entrySet()) {
+                out.writeLong(entry.getKey().toEpochDay());
+                out.writeInt(entry.getValue().size());
+                for (String caregiver : entry.getValue()) {
+                    out.writeUTF(caregiver);
+                }
+            }
+            out.writeInt(appointments.size());
+            for (Appointment appointment : appointments) {
+                Changes.writeAppointment(out, appointment);
+            }
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // the segments the snapshot replaces are deleted next, which must not outlast the rename
+        WriteAheadLog.syncDirectory(dir);
+    }
+
+    // loads the snapshot into an empty storage and returns the segment replay starts at
+    static int read(Path file, MemoryStorage memory) throws SQLException, IOException {
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != magic || in.readInt() != version) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            int segment = in.readInt();
+            long nextAppointmentId = in.readLong();
+            memory.patients().saveAll(readUsers(in, (username, salt, hash) ->
+                    new Patient.PatientBuilder(username, salt, hash).build()));
+            memory.caregivers().saveAll(readUsers(in, (username, salt, hash) ->
+                    new Caregiver.CaregiverBuilder(username, salt, hash).build()));
+            for (int i = in.readInt(); i > 0; i--) {
+                String name = in.readUTF();
+                memory.vaccines().save(new Vaccine.VaccineBuilder(name, in.readInt()).build());
+            }
+            for (int days = in.readInt(); days > 0; days--) {
+                Date d = Date.valueOf(LocalDate.ofEpochDay(in.readLong()));
+                for (int i = in.readInt(); i > 0; i--) {
+                    memory.availabilities().add(d, in.readUTF());
+                }
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                memory.appointments().restore(Changes.readAppointment(in));
+            }
+            // the sequence of a fresh storage starts at 1
+            memory.appointments().nextIdBlock((int) (nextAppointmentId - 1));
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Damaged snapshot: " + file);
+            }
+            return segment;
+        }
+    }
+
+    private static void writeUsers(DataOutputStream out, List<? extends User> users) throws IOException {
+        out.writeInt(users.size());
+        for (User user : users) {
+            Changes.writeUserFields(out, user);
+        }
+    }
+
+    private static <U extends User> List<U> readUsers(DataInputStream in, UserFactory<U> factory) throws IOException {
+        int count = in.readInt();
+        List<U> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String username = in.readUTF();
+            users.add(factory.create(username, Changes.readBytes(in), Changes.readBytes(in)));
+        }
+        return users;
+    }
+
+    private interface UserFactory<U extends User> {
+        U create(String username, byte[] salt, byte[] hash);
+    }
+}
@@ -0,0 +1,303 @@
+package scheduler.storage.file;
+
+import scheduler.metrics.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.function.IntFunction;
+import java.util.zip.CRC32;
+
+// The changes made to a FileStorage, appended to numbered segment files (wal-<n>.log). Each
+// entry is one frame: the length of its contents, their CRC32, then the contents, which are
+// one or more changes made together (see Changes). A frame is either replayed whole or, if it
+// was only partly written when the process died, cut off with everything after it.
+//
+// Group commit: a change is made and its frame appended to a buffer under the log's lock, so
+// frames are in the order the changes were made, and the caller then waits outside the lock
+// until the frame is on disk. A single writer thread writes whatever has been appended since
+// its last turn and forces it to disk with one fsync, so every caller waiting at the time
+// shares that sync. Nothing is reported done before it is durable. If a write fails the log
+// refuses every change after it; restarting recovers whatever made it to disk.
+//
+// The change is applied to the in-memory state before its frame is durable, and it is visible
+// to other sessions from then on. That is deliberate: holding every read back until the sync
+// would serialize reads behind the disk. So another session can see a change (a booking, say)
+// that is lost after a crash, or after a failed write until the process is restarted. The
+// session that made the change is only told it went through once it is on disk.
+class WriteAheadLog {
+
+    // runs a change against the in-memory state and writes what it did to out
+    interface Change<T> {
+        T apply(DataOutputStream out) throws SQLException, IOException;
+    }
+
+    // called with the contents of each frame read back
+    interface FrameHandler {
+        void handle(DataInputStream frame) throws SQLException, IOException;
+    }
+
+    // a frame longer than this can only be a length field that was never fully written
+    private static final int maxFrameLength = 64 << 20;
+
+    private final Path dir;
+    private final Runnable afterCommit;
+    private final Metrics metrics = Metrics.getInstance();
+    // frames appended but not handed to the writer yet, and the frames of the previous segment
+    // if the log moved to a new one since the writer's last turn
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private ByteArrayOutputStream sealed = null;
+    private int segment = 0;
+    private long appended = 0;
+    private long durable = 0;
+    private long framesInSegment = 0;
+    private IOException failure = null;
+    private FileChannel channel = null;
+
+    // afterCommit runs after every commit, outside the log's lock
+    WriteAheadLog(Path dir, Runnable afterCommit) {
+        this.dir = dir;
+        this.afterCommit = afterCommit;
+    }
+
+    // starts appending to the given segment, once whatever was in the log has been replayed;
+    // frames is how many it already holds
+    synchronized void open(int segment, long frames) throws IOException {
+        this.segment = segment;
+        this.framesInSegment = frames;
+        channel = openSegment(segment);
+        syncDirectory(dir);
+        Thread writer = new Thread(this::writeLoop, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // makes the change and logs it, returning once it is on disk
+    <T> T commit(Change<T> change) throws SQLException {
+        long position;
+        T result;
+        synchronized (this) {
+            if (channel == null) {
+                throw new SQLException("File storage is not open");
+            }
+            if (failure != null) {
+                throw new SQLException("File storage stopped after a failed write", failure);
+            }
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            try {
+                result = change.apply(new DataOutputStream(contents));
+            } catch (IOException e) {
+                throw new SQLException("Could not log a change", e);
+            }
+            if (contents.size() > 0) {
+                appendFrame(contents.toByteArray());
+                framesInSegment++;
+                notifyAll();
+            }
+            // a change that did nothing still waits for the ones before it, whose effects it may have seen
+            position = appended;
+        }
+        await(position);
+        afterCommit.run();
+        return result;
+    }
+
+    // moves the log on to a new segment, calling capture under the log's lock with the new
+    // segment's number; so whatever capture sees is exactly what the earlier segments hold.
+    // Returns once all of those are on disk.
+    <T> T rotate(IntFunction<T> capture) throws SQLException {
+        long position;
+        T captured;
+        synchronized (this) {
+            // the writer has to have taken the previous rotation's frames first
+            while (sealed != null && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while rotating the log", e);
+                }
+            }
+            captured = capture.apply(segment + 1);
+            sealed = pending;
+            pending = new ByteArrayOutputStream();
+            segment++;
+            framesInSegment = 0;
+            position = appended;
+            notifyAll();
+        }
+        await(position);
+        return captured;
+    }
+
+    synchronized long getFramesInSegment() {
+        return framesInSegment;
+    }
+
+    Path segmentFile(int segment) {
+        return dir.resolve(String.format("wal-%010d.log", segment));
+    }
+
+    // reads every frame of a segment in order and returns how many there were; a frame cut short
+    // or failing its checksum ends the segment, and if truncate is set the file is cut back to
+    // the last good frame
+    long replay(int segment, boolean truncate, FrameHandler handler) throws SQLException, IOException {
+        Path file = segmentFile(segment);
+        long good = 0;
+        long frames = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            DataInputStream data = new DataInputStream(in);
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] contents;
+                try {
+                    int length = data.readInt();
+                    int checksum = data.readInt();
+                    if (length < 0 || length > maxFrameLength) {
+                        break;
+                    }
+                    contents = new byte[length];
+                    data.readFully(contents);
+                    crc.reset();
+                    crc.update(contents);
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                handler.handle(new DataInputStream(new ByteArrayInputStream(contents)));
+                good += 8 + contents.length;
+                frames++;
+            }
+        }
+        if (good < Files.size(file)) {
+            if (!truncate) {
+                throw new IOException("Damaged log segment " + file);
+            }
+            try (FileChannel damaged = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                damaged.truncate(good);
+                damaged.force(true);
+            }
+        }
+        return frames;
+    }
+
+    private void appendFrame(byte[] contents) {
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        DataOutputStream out = new DataOutputStream(pending);
+        try {
+            out.writeInt(contents.length);
+            out.writeInt((int) crc.getValue());
+            out.write(contents);
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        appended++;
+    }
+
+    private void await(long position) throws SQLException {
+        synchronized (this) {
+            while (durable < position && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for the log", e);
+                }
+            }
+            if (durable < position) {
+                throw new SQLException("Could not write the log", failure);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            ByteArrayOutputStream previous;
+            ByteArrayOutputStream current;
+            long position;
+            int currentSegment;
+            synchronized (this) {
+                while (pending.size() == 0 && sealed == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                previous = sealed;
+                current = pending;
+                sealed = null;
+                pending = new ByteArrayOutputStream();
+                position = appended;
+                currentSegment = segment;
+                notifyAll();
+            }
+            Metrics.Sample sample = metrics.startCall("wal.sync");
+            try {
+                if (previous != null) {
+                    write(channel, previous);
+                    channel.force(false);
+                    channel.close();
+                    channel = openSegment(currentSegment);
+                    // the new segment's frames are only durable once its directory entry is
+                    syncDirectory(dir);
+                }
+                write(channel, current);
+                channel.force(false);
+                sample.stop(false);
+            } catch (IOException e) {
+                sample.stop(true);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                durable = position;
+                notifyAll();
+            }
+        }
+    }
+
+    private FileChannel openSegment(int segment) throws IOException {
+        return FileChannel.open(segmentFile(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    // makes the files created, renamed or deleted in the directory durable. Some platforms
+    // (Windows) can't open a directory; there the file system is trusted to keep its entries.
+    static void syncDirectory(Path dir) throws IOException {
+        FileChannel directory;
+        try {
+            directory = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (FileChannel channel = directory) {
+            channel.force(true);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteArrayOutputStream frames) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(frames.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.Appointment;
+import scheduler.storage.AppointmentCount;
+import scheduler.storage.AppointmentFilter;
+import scheduler.storage.AppointmentPage;
+import scheduler.storage.AppointmentRepository;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Appointments in the Appointments table. Booking, cancelling and bulk cancelling each run as a
+// single T-SQL batch in one transaction, so each is one round trip.
+public class JdbcAppointmentRepository implements AppointmentRepository {
+
+    // takes a range of ids off the AppointmentIds sequence in one call
+    private static final String nextIdBlock =
+            "SET NOCOUNT ON;\n" +
+            "DECLARE @first sql_variant;\n" +
+            "EXEC sys.sp_sequence_get_range @sequence_name = N'AppointmentIds', @range_size = ?,\n" +
+            "    @range_first_value = @first OUTPUT;\n" +
+            "SELECT CAST(@first AS bigint) AS BlockStart;";
+
+    // claims the preferred caregiver's availability row, or else the first free one (skipping rows
+    // locked by a concurrent booking rather than waiting on them), then inserts the appointment
+    private static final String book =
+            "SET NOCOUNT ON; SET XACT_ABORT ON;\n" +
+            "DECLARE @aid int = ?, @date date = ?, @vaccine varchar(255) = ?, @patient varchar(255) = ?,\n" +
+            "        @preferred varchar(255) = ?;\n" +
+            "DECLARE @claimed TABLE (Username varchar(255));\n" +
+            "DECLARE @caregiver varchar(255);\n" +
+            "BEGIN TRANSACTION;\n" +
+            "DELETE FROM Availabilities OUTPUT deleted.Username INTO @claimed\n" +
+            "    WHERE Time = @date AND Username = @preferred;\n" +
+            "IF @@ROWCOUNT = 0\n" +
+            "    DELETE FROM Availabilities OUTPUT deleted.Username INTO @claimed\n" +
+            "        WHERE Time = @date AND Username = (SELECT TOP (1) Username FROM Availabilities\n" +
+            "            WITH (UPDLOCK, ROWLOCK, READPAST) WHERE Time = @date ORDER BY Username);\n" +
+            "SELECT @caregiver = Username FROM @claimed;\n" +
+            "IF @caregiver IS NULL\n" +
+            "BEGIN\n" +
+            "    ROLLBACK TRANSACTION;\n" +
+            "    SELECT NULL AS Caregiver;\n" +
+            "    RETURN;\n" +
+            "END;\n" +
+            "INSERT INTO Appointments VALUES (@aid, @vaccine, @patient, @caregiver, @date);\n" +
+            "COMMIT TRANSACTION;\n" +
+            "SELECT @caregiver AS Caregiver;";
+
+    // deletes the appointment and puts the caregiver's day back
+    private static final String cancel =
+            "SET NOCOUNT ON; SET XACT_ABORT ON;\n" +
+            "DECLARE @aid int = ?;\n" +
+            "DECLARE @cancelled TABLE (aid int, vaccine_name varchar(255), patient_name varchar(255),\n" +
+            "                          caregiver_name varchar(255), Time date);\n" +
+            "BEGIN TRANSACTION;\n" +
+            "DELETE FROM Appointments\n" +
+            "    OUTPUT deleted.aid, deleted.vaccine_name, deleted.patient_name, deleted.caregiver_name, deleted.Time\n" +
+            "    INTO @cancelled WHERE aid = @aid;\n" +
+            "INSERT INTO Availabilities SELECT C.Time, C.caregiver_name FROM @cancelled C\n" +
+            "    WHERE NOT EXISTS (SELECT 1 FROM Availabilities A WHERE A.Time = C.Time AND A.Username = C.caregiver_name);\n" +
+            "COMMIT TRANSACTION;\n" +
+            "SELECT aid, vaccine_name, patient_name, caregiver_name, Time FROM @cancelled;";
+
+    // deletes every matching appointment, puts the caregivers' days back and returns the doses,
+    // each as one statement over all of them
+    private static final String cancelAll =
+            "SET NOCOUNT ON; SET XACT_ABORT ON;\n" +
+            "DECLARE @caregiver varchar(255) = ?, @vaccine varchar(255) = ?, @from date = ?, @to date = ?;\n" +
+            "DECLARE @cancelled TABLE (aid int, vaccine_name varchar(255), patient_name varchar(255),\n" +
+            "                          caregiver_name varchar(255), Time date);\n" +
+            "BEGIN TRANSACTION;\n" +
+            "DELETE FROM Appointments\n" +
+            "    OUTPUT deleted.aid, deleted.vaccine_name, deleted.patient_name, deleted.caregiver_name, deleted.Time\n" +
+            "    INTO @cancelled\n" +
+            "    WHERE Time BETWEEN @from AND @to AND (@caregiver IS NULL OR caregiver_name = @caregiver)\n" +
+            "        AND (@vaccine IS NULL OR vaccine_name = @vaccine)\n" +
+            "    OPTION (RECOMPILE);\n" +
+            "INSERT INTO Availabilities SELECT DISTINCT C.Time, C.caregiver_name FROM @cancelled C\n" +
+            "    WHERE NOT EXISTS (SELECT 1 FROM Availabilities A WHERE A.Time = C.Time AND A.Username = C.caregiver_name);\n" +
+            "UPDATE V SET Doses = V.Doses + C.Doses FROM Vaccines V\n" +
+            "    JOIN (SELECT vaccine_name, COUNT(*) AS Doses FROM @cancelled GROUP BY vaccine_name) C\n" +
+            "    ON V.Name = C.vaccine_name;\n" +
+            "COMMIT TRANSACTION;\n" +
+            "SELECT aid, vaccine_name, patient_name, caregiver_name, Time FROM @cancelled ORDER BY aid;";
+
+    @Override
+    public long nextIdBlock(int size) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(nextIdBlock)) {
+            statement.setInt(1, size);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Sequence AppointmentIds returned no value");
+                }
+                return resultSet.getLong("BlockStart");
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Appointment book(int appointmentId, Date d, String vaccine, String patient, String preferredCaregiver)
+            throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(book)) {
+            statement.setInt(1, appointmentId);
+            statement.setDate(2, d);
+            statement.setString(3, vaccine);
+            statement.setString(4, patient);
+            statement.setString(5, preferredCaregiver);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new SQLException("Booking returned no result");
+                }
+                String caregiver = resultSet.getString("Caregiver");
+                if (caregiver == null) {
+                    return null;
+                }
+                return new Appointment.AppointmentBuilder(appointmentId, vaccine, patient, caregiver, d).build();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Appointment find(int appointmentId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String getAppointment = "SELECT aid, vaccine_name, patient_name, caregiver_name, Time FROM Appointments WHERE aid = ?";
+        try (PreparedStatement statement = con.prepareStatement(getAppointment)) {
+            statement.setInt(1, appointmentId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? toAppointment(resultSet) : null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Appointment cancel(int appointmentId) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(cancel)) {
+            statement.setInt(1, appointmentId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? toAppointment(resultSet) : null;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> cancelAll(AppointmentFilter filter) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(cancelAll)) {
+            statement.setString(1, filter.getCaregiver());
+            statement.setString(2, filter.getVaccine());
+            statement.setDate(3, filter.getFrom());
+            statement.setDate(4, filter.getTo());
+            List<Appointment> cancelled = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    cancelled.add(toAppointment(resultSet));
+                }
+            }
+            return cancelled;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patient) throws SQLException {
+        return findBy("SELECT aid, vaccine_name, patient_name, caregiver_name, Time FROM Appointments " +
+                "WHERE patient_name = ? ORDER BY aid", patient);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiver) throws SQLException {
+        return findBy("SELECT aid, vaccine_name, patient_name, caregiver_name, Time FROM Appointments " +
+                "WHERE caregiver_name = ? ORDER BY aid", caregiver);
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patient, AppointmentPage page) throws SQLException {
+        return findPage("SELECT TOP (?) aid, vaccine_name, patient_name, caregiver_name, Time FROM Appointments " +
+                "WHERE patient_name = ? AND aid > ? AND Time BETWEEN ? AND ? ORDER BY aid", patient, page);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiver, AppointmentPage page) throws SQLException {
+        return findPage("SELECT TOP (?) aid, vaccine_name, patient_name, caregiver_name, Time FROM Appointments " +
+                "WHERE caregiver_name = ? AND aid > ? AND Time BETWEEN ? AND ? ORDER BY aid", caregiver, page);
+    }
+
+    @Override
+    public Map<String, Integer> countByCaregiver() throws SQLException {
+        Map<String, Integer> counts = new HashMap<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String countAppointments = "SELECT caregiver_name, COUNT(*) FROM Appointments GROUP BY caregiver_name";
+        try (PreparedStatement statement = con.prepareStatement(countAppointments);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                counts.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return counts;
+    }
+
+    @Override
+    public List<AppointmentCount> countByDate() throws SQLException {
+        List<AppointmentCount> counts = new ArrayList<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String countAppointments = "SELECT Time, vaccine_name, caregiver_name, COUNT(*) FROM Appointments " +
+                "GROUP BY Time, vaccine_name, caregiver_name";
+        try (PreparedStatement statement = con.prepareStatement(countAppointments);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                counts.add(new AppointmentCount(resultSet.getDate(1), resultSet.getString(2),
+                        resultSet.getString(3), resultSet.getInt(4)));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return counts;
+    }
+
+    // seeks the (user, aid) index straight to the first id of the page and reads on from there
+    private List<Appointment> findPage(String query, String username, AppointmentPage page) throws SQLException {
+        List<Appointment> appointments = new ArrayList<>(Math.min(page.getLimit(), 1000));
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(query)) {
+            statement.setInt(1, page.getLimit());
+            statement.setString(2, username);
+            statement.setInt(3, page.getAfterId());
+            statement.setDate(4, page.getFrom());
+            statement.setDate(5, page.getTo());
+            // the whole page in one round trip
+            statement.setFetchSize(page.getLimit());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    appointments.add(toAppointment(resultSet));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return appointments;
+    }
+
+    private List<Appointment> findBy(String query, String username) throws SQLException {
+        List<Appointment> appointments = new ArrayList<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(query)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    appointments.add(toAppointment(resultSet));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return appointments;
+    }
+
+    private static Appointment toAppointment(ResultSet resultSet) throws SQLException {
+        return new Appointment.AppointmentBuilder(resultSet.getInt("aid"), resultSet.getString("vaccine_name"),
+                resultSet.getString("patient_name"), resultSet.getString("caregiver_name"),
+                resultSet.getDate("Time")).build();
+    }
+}
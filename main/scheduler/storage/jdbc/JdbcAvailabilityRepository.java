@@ -0,0 +1,135 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.BatchResult;
+import scheduler.db.ConnectionManager;
+import scheduler.storage.AvailabilityRepository;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Caregiver availability in the Availabilities table.
+public class JdbcAvailabilityRepository implements AvailabilityRepository {
+
+    @Override
+    public NavigableMap<LocalDate, NavigableSet<String>> findAll() throws SQLException {
+        NavigableMap<LocalDate, NavigableSet<String>> all = new TreeMap<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String getAll = "SELECT Time, Username FROM Availabilities";
+        try (PreparedStatement statement = con.prepareStatement(getAll);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                all.computeIfAbsent(resultSet.getDate(1).toLocalDate(), k -> new TreeSet<>())
+                        .add(resultSet.getString(2));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return all;
+    }
+
+    @Override
+    public NavigableSet<String> findByDate(Date d) throws SQLException {
+        NavigableSet<String> caregivers = new TreeSet<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String getDate = "SELECT Username FROM Availabilities WHERE Time = ?";
+        try (PreparedStatement statement = con.prepareStatement(getDate)) {
+            statement.setDate(1, d);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    caregivers.add(resultSet.getString(1));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return caregivers;
+    }
+
+    @Override
+    public NavigableMap<LocalDate, NavigableSet<String>> findByDateRange(Date first, Date last) throws SQLException {
+        NavigableMap<LocalDate, NavigableSet<String>> range = new TreeMap<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        // a single range seek on the (Time, Username) primary key
+        String getRange = "SELECT Time, Username FROM Availabilities WHERE Time BETWEEN ? AND ?";
+        try (PreparedStatement statement = con.prepareStatement(getRange)) {
+            statement.setDate(1, first);
+            statement.setDate(2, last);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    range.computeIfAbsent(resultSet.getDate(1).toLocalDate(), k -> new TreeSet<>())
+                            .add(resultSet.getString(2));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return range;
+    }
+
+    @Override
+    public void add(Date d, String caregiver) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
+        try (PreparedStatement statement = con.prepareStatement(addAvailability)) {
+            statement.setDate(1, d);
+            statement.setString(2, caregiver);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public BatchResult addAll(String caregiver, List<Date> dates) throws SQLException {
+        BatchResult result = new BatchResult();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+
+        String addAvailability = "INSERT INTO Availabilities SELECT ?, ? WHERE NOT EXISTS " +
+                "(SELECT 1 FROM Availabilities WITH (UPDLOCK, HOLDLOCK) WHERE Time = ? AND Username = ?)";
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = con.prepareStatement(addAvailability)) {
+                for (Date d : dates) {
+                    statement.setDate(1, d);
+                    statement.setString(2, caregiver);
+                    statement.setDate(3, d);
+                    statement.setString(4, caregiver);
+                    statement.addBatch();
+                    result.add(d.toString(), BatchResult.Outcome.APPLIED, null);
+                }
+                int[] counts = statement.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] == 0) {
+                        result.set(i, BatchResult.Outcome.SKIPPED, "already available");
+                    }
+                }
+            }
+            con.commit();
+        } catch (BatchUpdateException e) {
+            con.rollback();
+            result.rollBack("rolled back");
+            int failed = BatchResult.failedRow(e.getUpdateCounts());
+            if (failed < result.size()) {
+                result.set(failed, BatchResult.Outcome.FAILED, e.getMessage());
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.SchemaMigrator;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.storage.AppointmentRepository;
+import scheduler.storage.AvailabilityRepository;
+import scheduler.storage.Storage;
+import scheduler.storage.UserRepository;
+import scheduler.storage.VaccineRepository;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// The SQL Server database described by the scripts in resources/migrations (see SchemaMigrator),
+// reached through ConnectionManager.
+public class JdbcStorage implements Storage {
+
+    private final UserRepository<Patient> patients = new JdbcUserRepository<>("Patients",
+            (username, salt, hash) -> new Patient.PatientBuilder(username, salt, hash).build());
+    private final UserRepository<Caregiver> caregivers = new JdbcUserRepository<>("Caregivers",
+            (username, salt, hash) -> new Caregiver.CaregiverBuilder(username, salt, hash).build());
+    private final AvailabilityRepository availabilities = new JdbcAvailabilityRepository();
+    private final VaccineRepository vaccines = new JdbcVaccineRepository();
+    private final AppointmentRepository appointments = new JdbcAppointmentRepository();
+
+    @Override
+    public UserRepository<Patient> patients() {
+        return patients;
+    }
+
+    @Override
+    public UserRepository<Caregiver> caregivers() {
+        return caregivers;
+    }
+
+    @Override
+    public AvailabilityRepository availabilities() {
+        return availabilities;
+    }
+
+    @Override
+    public VaccineRepository vaccines() {
+        return vaccines;
+    }
+
+    @Override
+    public AppointmentRepository appointments() {
+        return appointments;
+    }
+
+    @Override
+    public void migrate() throws SQLException, IOException {
+        new SchemaMigrator().migrate();
+    }
+
+    // borrows a connection, failing loudly instead of handing back null
+    static Connection connect(ConnectionManager cm) throws SQLException {
+        Connection con = cm.createConnection();
+        if (con == null) {
+            throw new SQLException("No database connection available");
+        }
+        return con;
+    }
+}
@@ -0,0 +1,165 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.ConnectionManager;
+import scheduler.model.User;
+import scheduler.storage.UserRepository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Patients or caregivers in the Patients / Caregivers table, which share the same layout.
+public class JdbcUserRepository<U extends User> implements UserRepository<U> {
+
+    // builds the model object for a row
+    public interface UserFactory<U> {
+        U create(String username, byte[] salt, byte[] hash);
+    }
+
+    private final UserFactory<U> factory;
+    private final String selectUsername;
+    private final String getUser;
+    private final String addUser;
+    private final String findExisting;
+    private final String addUserIfAbsent;
+
+    public JdbcUserRepository(String table, UserFactory<U> factory) {
+        this.factory = factory;
+        this.selectUsername = "SELECT * FROM " + table + " WHERE Username = ?";
+        this.getUser = "SELECT Salt, Hash FROM " + table + " WHERE Username = ?";
+        this.addUser = "INSERT INTO " + table + " VALUES (?, ?, ?)";
+        // the usernames travel as one JSON array parameter, so this is a single query
+        this.findExisting = "SELECT U.Username FROM " + table + " U JOIN OPENJSON(?) J ON U.Username = J.value";
+        // guards against accounts created concurrently by someone else; those rows update nothing
+        this.addUserIfAbsent = "INSERT INTO " + table + " SELECT ?, ?, ? WHERE NOT EXISTS " +
+                "(SELECT 1 FROM " + table + " WITH (UPDLOCK, HOLDLOCK) WHERE Username = ?)";
+    }
+
+    @Override
+    public boolean exists(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(selectUsername)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                // returns false if the cursor is not before the first record or if there are no rows in the ResultSet.
+                return resultSet.isBeforeFirst();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public U find(String username) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(getUser)) {
+            statement.setString(1, username);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                return factory.create(username, resultSet.getBytes("Salt"), resultSet.getBytes("Hash"));
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void save(U user) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(addUser)) {
+            statement.setString(1, user.getUsername());
+            statement.setBytes(2, user.getSalt());
+            statement.setBytes(3, user.getHash());
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public Set<String> findExisting(Collection<String> usernames) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        if (usernames.isEmpty()) {
+            return existing;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(findExisting)) {
+            statement.setString(1, toJsonArray(usernames));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString(1));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return existing;
+    }
+
+    @Override
+    public boolean[] saveAll(List<U> users) throws SQLException {
+        boolean[] saved = new boolean[users.size()];
+        if (users.isEmpty()) {
+            return saved;
+        }
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = con.prepareStatement(addUserIfAbsent)) {
+                for (U user : users) {
+                    statement.setString(1, user.getUsername());
+                    statement.setBytes(2, user.getSalt());
+                    statement.setBytes(3, user.getHash());
+                    statement.setString(4, user.getUsername());
+                    statement.addBatch();
+                }
+                int[] counts = statement.executeBatch();
+                con.commit();
+                for (int i = 0; i < counts.length; i++) {
+                    saved[i] = counts[i] != 0;
+                }
+            } catch (SQLException e) {
+                con.rollback();
+                throw e;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return saved;
+    }
+
+    private static String toJsonArray(Collection<String> values) {
+        StringBuilder json = new StringBuilder(values.size() * 16).append('[');
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"');
+            for (char c : value.toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+        return json.append(']').toString();
+    }
+}
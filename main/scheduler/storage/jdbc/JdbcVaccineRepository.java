@@ -0,0 +1,172 @@
+package scheduler.storage.jdbc;
+
+import scheduler.db.BatchResult;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Vaccine;
+import scheduler.storage.VaccineRepository;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Vaccines and their doses in the Vaccines table. Dose changes are always relative updates so
+// concurrent changes to a row are never overwritten.
+public class JdbcVaccineRepository implements VaccineRepository {
+
+    // takes min(Doses, @want) off the row and reports how many were taken, -1 for an unknown vaccine
+    private static final String takeDoses =
+            "SET NOCOUNT ON;\n" +
+            "DECLARE @name varchar(255) = ?, @want int = ?;\n" +
+            "DECLARE @taken TABLE (Taken int);\n" +
+            "UPDATE Vaccines SET Doses = Doses - CASE WHEN Doses < @want THEN Doses ELSE @want END\n" +
+            "    OUTPUT deleted.Doses - inserted.Doses INTO @taken\n" +
+            "    WHERE Name = @name AND Doses > 0;\n" +
+            "SELECT ISNULL((SELECT Taken FROM @taken),\n" +
+            "    CASE WHEN EXISTS (SELECT 1 FROM Vaccines WHERE Name = @name) THEN 0 ELSE -1 END) AS Taken;";
+
+    @Override
+    public Vaccine find(String name) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
+        try (PreparedStatement statement = con.prepareStatement(getVaccine)) {
+            statement.setString(1, name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                return new Vaccine.VaccineBuilder(resultSet.getString("Name"), resultSet.getInt("Doses")).build();
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public List<Vaccine> findAll() throws SQLException {
+        List<Vaccine> vaccines = new ArrayList<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String getAll = "SELECT Name, Doses FROM Vaccines ORDER BY Vaccines.Name";
+        try (PreparedStatement statement = con.prepareStatement(getAll);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                vaccines.add(new Vaccine.VaccineBuilder(resultSet.getString("Name"), resultSet.getInt("Doses")).build());
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return vaccines;
+    }
+
+    @Override
+    public void save(Vaccine vaccine) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String addVaccine = "INSERT INTO vaccines VALUES (?, ?)";
+        try (PreparedStatement statement = con.prepareStatement(addVaccine)) {
+            statement.setString(1, vaccine.getVaccineName());
+            statement.setInt(2, vaccine.getAvailableDoses());
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public void addDoses(String name, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        String addDoses = "UPDATE vaccines SET Doses = Doses + ? WHERE name = ?;";
+        try (PreparedStatement statement = con.prepareStatement(addDoses)) {
+            statement.setInt(1, doses);
+            statement.setString(2, name);
+            statement.executeUpdate();
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public boolean removeDoses(String name, int doses) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        // conditional, so the row can never go negative
+        String removeDoses = "UPDATE vaccines SET Doses = Doses - ? WHERE name = ? AND Doses >= ?;";
+        try (PreparedStatement statement = con.prepareStatement(removeDoses)) {
+            statement.setInt(1, doses);
+            statement.setString(2, name);
+            statement.setInt(3, doses);
+            return statement.executeUpdate() > 0;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public int takeDoses(String name, int wanted) throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+        try (PreparedStatement statement = con.prepareStatement(takeDoses)) {
+            statement.setString(1, name);
+            statement.setInt(2, wanted);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt("Taken") : -1;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    @Override
+    public BatchResult addDoses(Map<String, Integer> dosesByVaccine) throws SQLException {
+        BatchResult result = BatchResult.rejectNonPositive(dosesByVaccine);
+        if (result != null) {
+            return result;
+        }
+        result = new BatchResult();
+        List<String> sent = new ArrayList<>();
+        ConnectionManager cm = new ConnectionManager();
+        Connection con = JdbcStorage.connect(cm);
+
+        String mergeDoses = "MERGE Vaccines WITH (HOLDLOCK) AS V USING (SELECT ? AS Name, ? AS Doses) AS S " +
+                "ON V.Name = S.Name " +
+                "WHEN MATCHED THEN UPDATE SET Doses = V.Doses + S.Doses " +
+                "WHEN NOT MATCHED THEN INSERT (Name, Doses) VALUES (S.Name, S.Doses);";
+        try {
+            con.setAutoCommit(false);
+            try (PreparedStatement statement = con.prepareStatement(mergeDoses)) {
+                for (Map.Entry<String, Integer> entry : dosesByVaccine.entrySet()) {
+                    statement.setString(1, entry.getKey());
+                    statement.setInt(2, entry.getValue());
+                    statement.addBatch();
+                    result.add(entry.getKey(), BatchResult.Outcome.APPLIED, null);
+                    sent.add(entry.getKey());
+                }
+                if (!sent.isEmpty()) {
+                    statement.executeBatch();
+                }
+            }
+            con.commit();
+        } catch (BatchUpdateException e) {
+            con.rollback();
+            result.rollBack("rolled back");
+            int failed = BatchResult.failedRow(e.getUpdateCounts());
+            if (failed < sent.size()) {
+                for (int i = 0; i < result.size(); i++) {
+                    if (result.getRow(i).equals(sent.get(failed))) {
+                        result.set(i, BatchResult.Outcome.FAILED, e.getMessage());
+                    }
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,165 @@
+package scheduler.storage.memory;
+
+import scheduler.model.Appointment;
+import scheduler.storage.AppointmentCount;
+import scheduler.storage.AppointmentFilter;
+import scheduler.storage.AppointmentPage;
+import scheduler.storage.AppointmentRepository;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Appointments kept in a map keyed by appointment id. Booking claims the caregiver's day from
+// the availability repository first, so two bookings can never get the same caregiver and day.
+public class MemoryAppointmentRepository implements AppointmentRepository {
+
+    private final ConcurrentMap<Integer, Appointment> appointments = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong(1);
+    private final MemoryAvailabilityRepository availabilities;
+    private final MemoryVaccineRepository vaccines;
+
+    MemoryAppointmentRepository(MemoryAvailabilityRepository availabilities, MemoryVaccineRepository vaccines) {
+        this.availabilities = availabilities;
+        this.vaccines = vaccines;
+    }
+
+    @Override
+    public long nextIdBlock(int size) {
+        return sequence.getAndAdd(size);
+    }
+
+    @Override
+    public Appointment book(int appointmentId, Date d, String vaccine, String patient, String preferredCaregiver) {
+        String caregiver = availabilities.claim(d.toLocalDate(), preferredCaregiver);
+        if (caregiver == null) {
+            return null;
+        }
+        Appointment appointment = new Appointment.AppointmentBuilder(appointmentId, vaccine, patient, caregiver, d)
+                .build();
+        appointments.put(appointmentId, appointment);
+        return appointment;
+    }
+
+    @Override
+    public Appointment find(int appointmentId) {
+        return appointments.get(appointmentId);
+    }
+
+    @Override
+    public Appointment cancel(int appointmentId) {
+        Appointment appointment = appointments.remove(appointmentId);
+        if (appointment != null) {
+            availabilities.restore(appointment.getTime().toLocalDate(), appointment.getCaregiverName());
+        }
+        return appointment;
+    }
+
+    @Override
+    public List<Appointment> cancelAll(AppointmentFilter filter) {
+        List<Appointment> cancelled = new ArrayList<>();
+        Map<String, Integer> doses = new HashMap<>();
+        for (Appointment appointment : appointments.values()) {
+            if (filter.includes(appointment) && appointments.remove(appointment.getAppointmentId()) != null) {
+                availabilities.restore(appointment.getTime().toLocalDate(), appointment.getCaregiverName());
+                doses.merge(appointment.getVaccineName(), 1, Integer::sum);
+                cancelled.add(appointment);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : doses.entrySet()) {
+            vaccines.addDoses(entry.getKey(), entry.getValue());
+        }
+        cancelled.sort(Comparator.comparingInt(Appointment::getAppointmentId));
+        return cancelled;
+    }
+
+    // puts back an appointment as it was, without claiming its caregiver's day again; for
+    // restoring a saved copy of the storage
+    public void restore(Appointment appointment) {
+        appointments.put(appointment.getAppointmentId(), appointment);
+    }
+
+    // every appointment, in no particular order
+    public List<Appointment> findAll() {
+        return new ArrayList<>(appointments.values());
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patient) {
+        List<Appointment> found = new ArrayList<>();
+        for (Appointment appointment : appointments.values()) {
+            if (appointment.getPatientName().equals(patient)) {
+                found.add(appointment);
+            }
+        }
+        found.sort(Comparator.comparingInt(Appointment::getAppointmentId));
+        return found;
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiver) {
+        List<Appointment> found = new ArrayList<>();
+        for (Appointment appointment : appointments.values()) {
+            if (appointment.getCaregiverName().equals(caregiver)) {
+                found.add(appointment);
+            }
+        }
+        found.sort(Comparator.comparingInt(Appointment::getAppointmentId));
+        return found;
+    }
+
+    @Override
+    public List<Appointment> findByPatient(String patient, AppointmentPage page) {
+        return page(findByPatient(patient), page);
+    }
+
+    @Override
+    public List<Appointment> findByCaregiver(String caregiver, AppointmentPage page) {
+        return page(findByCaregiver(caregiver), page);
+    }
+
+    @Override
+    public Map<String, Integer> countByCaregiver() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Appointment appointment : appointments.values()) {
+            counts.merge(appointment.getCaregiverName(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Override
+    public List<AppointmentCount> countByDate() {
+        Map<List<Object>, Integer> counts = new HashMap<>();
+        for (Appointment appointment : appointments.values()) {
+            counts.merge(Arrays.asList(appointment.getTime(), appointment.getVaccineName(),
+                    appointment.getCaregiverName()), 1, Integer::sum);
+        }
+        List<AppointmentCount> found = new ArrayList<>();
+        for (Map.Entry<List<Object>, Integer> entry : counts.entrySet()) {
+            List<Object> key = entry.getKey();
+            found.add(new AppointmentCount((Date) key.get(0), (String) key.get(1), (String) key.get(2),
+                    entry.getValue()));
+        }
+        return found;
+    }
+
+    private static List<Appointment> page(List<Appointment> sorted, AppointmentPage page) {
+        List<Appointment> found = new ArrayList<>();
+        for (Appointment appointment : sorted) {
+            if (found.size() == page.getLimit()) {
+                break;
+            }
+            if (page.includes(appointment.getAppointmentId(), appointment.getTime())) {
+                found.add(appointment);
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,116 @@
+package scheduler.storage.memory;
+
+import scheduler.db.BatchResult;
+import scheduler.storage.AvailabilityRepository;
+import scheduler.storage.UserRepository;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Caregiver availability kept as a sorted set of caregivers per date. Removing a caregiver from
+// the set is atomic, which is what lets a booking claim a day without a lock.
+public class MemoryAvailabilityRepository implements AvailabilityRepository {
+
+    private final ConcurrentSkipListMap<LocalDate, ConcurrentSkipListSet<String>> byDate =
+            new ConcurrentSkipListMap<>();
+    private final UserRepository<?> caregivers;
+
+    MemoryAvailabilityRepository(UserRepository<?> caregivers) {
+        this.caregivers = caregivers;
+    }
+
+    @Override
+    public NavigableMap<LocalDate, NavigableSet<String>> findAll() {
+        NavigableMap<LocalDate, NavigableSet<String>> all = new TreeMap<>();
+        for (Map.Entry<LocalDate, ConcurrentSkipListSet<String>> entry : byDate.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                all.put(entry.getKey(), new TreeSet<>(entry.getValue()));
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public NavigableSet<String> findByDate(Date d) {
+        ConcurrentSkipListSet<String> caregivers = byDate.get(d.toLocalDate());
+        return caregivers == null ? new TreeSet<>() : new TreeSet<>(caregivers);
+    }
+
+    @Override
+    public NavigableMap<LocalDate, NavigableSet<String>> findByDateRange(Date first, Date last) {
+        NavigableMap<LocalDate, NavigableSet<String>> range = new TreeMap<>();
+        for (Map.Entry<LocalDate, ConcurrentSkipListSet<String>> entry :
+                byDate.subMap(first.toLocalDate(), true, last.toLocalDate(), true).entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                range.put(entry.getKey(), new TreeSet<>(entry.getValue()));
+            }
+        }
+        return range;
+    }
+
+    @Override
+    public void add(Date d, String caregiver) throws SQLException {
+        if (!caregivers.exists(caregiver)) {
+            throw new SQLException("No such caregiver: " + caregiver);
+        }
+        if (!put(d.toLocalDate(), caregiver)) {
+            throw new SQLException(caregiver + " is already available on " + d);
+        }
+    }
+
+    @Override
+    public BatchResult addAll(String caregiver, List<Date> dates) throws SQLException {
+        BatchResult result = new BatchResult();
+        if (!caregivers.exists(caregiver)) {
+            for (Date d : dates) {
+                result.add(d.toString(), BatchResult.Outcome.FAILED, "no such caregiver");
+            }
+            return result;
+        }
+        for (Date d : dates) {
+            if (put(d.toLocalDate(), caregiver)) {
+                result.add(d.toString(), BatchResult.Outcome.APPLIED, null);
+            } else {
+                result.add(d.toString(), BatchResult.Outcome.SKIPPED, "already available");
+            }
+        }
+        return result;
+    }
+
+    // takes the preferred caregiver's day, or else the first free one; null if nobody is free
+    String claim(LocalDate date, String preferred) {
+        ConcurrentSkipListSet<String> free = byDate.get(date);
+        if (free == null) {
+            return null;
+        }
+        if (preferred != null && free.remove(preferred)) {
+            return preferred;
+        }
+        for (Iterator<String> it = free.iterator(); it.hasNext(); ) {
+            String caregiver = it.next();
+            if (free.remove(caregiver)) {
+                return caregiver;
+            }
+        }
+        return null;
+    }
+
+    // puts a day back after a cancellation
+    void restore(LocalDate date, String caregiver) {
+        put(date, caregiver);
+    }
+
+    private boolean put(LocalDate date, String caregiver) {
+        return byDate.computeIfAbsent(date, k -> new ConcurrentSkipListSet<>()).add(caregiver);
+    }
+}
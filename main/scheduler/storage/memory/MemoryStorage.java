@@ -0,0 +1,42 @@
+package scheduler.storage.memory;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.storage.Storage;
+
+// Everything kept in memory for the life of the process. Needs no database, which makes it the
+// backend for trying the scheduler out and for benchmarking the code above the storage layer.
+// The file storage keeps its state in one of these too, hence the concrete repository types.
+public class MemoryStorage implements Storage {
+
+    private final MemoryUserRepository<Patient> patients = new MemoryUserRepository<>();
+    private final MemoryUserRepository<Caregiver> caregivers = new MemoryUserRepository<>();
+    private final MemoryAvailabilityRepository availabilities = new MemoryAvailabilityRepository(caregivers);
+    private final MemoryVaccineRepository vaccines = new MemoryVaccineRepository();
+    private final MemoryAppointmentRepository appointments = new MemoryAppointmentRepository(availabilities, vaccines);
+
+    @Override
+    public MemoryUserRepository<Patient> patients() {
+        return patients;
+    }
+
+    @Override
+    public MemoryUserRepository<Caregiver> caregivers() {
+        return caregivers;
+    }
+
+    @Override
+    public MemoryAvailabilityRepository availabilities() {
+        return availabilities;
+    }
+
+    @Override
+    public MemoryVaccineRepository vaccines() {
+        return vaccines;
+    }
+
+    @Override
+    public MemoryAppointmentRepository appointments() {
+        return appointments;
+    }
+}
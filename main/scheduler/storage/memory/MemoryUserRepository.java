@@ -0,0 +1,62 @@
+package scheduler.storage.memory;
+
+import scheduler.model.User;
+import scheduler.storage.UserRepository;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Patients or caregivers kept in a map keyed by username.
+public class MemoryUserRepository<U extends User> implements UserRepository<U> {
+
+    private final ConcurrentMap<String, U> users = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean exists(String username) {
+        return users.containsKey(username);
+    }
+
+    @Override
+    public U find(String username) {
+        return users.get(username);
+    }
+
+    @Override
+    public void save(U user) throws SQLException {
+        if (users.putIfAbsent(user.getUsername(), user) != null) {
+            throw new SQLException("Username taken: " + user.getUsername());
+        }
+    }
+
+    @Override
+    public Set<String> findExisting(Collection<String> usernames) {
+        Set<String> existing = new HashSet<>();
+        for (String username : usernames) {
+            if (users.containsKey(username)) {
+                existing.add(username);
+            }
+        }
+        return existing;
+    }
+
+    @Override
+    public boolean[] saveAll(List<U> users) {
+        boolean[] saved = new boolean[users.size()];
+        for (int i = 0; i < saved.length; i++) {
+            U user = users.get(i);
+            saved[i] = this.users.putIfAbsent(user.getUsername(), user) == null;
+        }
+        return saved;
+    }
+
+    // every user, in no particular order
+    public List<U> findAll() {
+        return new ArrayList<>(users.values());
+    }
+}
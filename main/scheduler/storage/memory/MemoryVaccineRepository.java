@@ -0,0 +1,95 @@
+package scheduler.storage.memory;
+
+import scheduler.db.BatchResult;
+import scheduler.model.Vaccine;
+import scheduler.storage.VaccineRepository;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Vaccines kept as an atomic dose counter per name; every change is a compare-and-set so
+// concurrent changes are never lost.
+public class MemoryVaccineRepository implements VaccineRepository {
+
+    private final ConcurrentSkipListMap<String, AtomicInteger> doses = new ConcurrentSkipListMap<>();
+
+    @Override
+    public Vaccine find(String name) throws SQLException {
+        AtomicInteger left = doses.get(name);
+        return left == null ? null : new Vaccine.VaccineBuilder(name, left.get()).build();
+    }
+
+    @Override
+    public List<Vaccine> findAll() throws SQLException {
+        List<Vaccine> vaccines = new ArrayList<>();
+        for (Map.Entry<String, AtomicInteger> entry : doses.entrySet()) {
+            vaccines.add(new Vaccine.VaccineBuilder(entry.getKey(), entry.getValue().get()).build());
+        }
+        return vaccines;
+    }
+
+    @Override
+    public void save(Vaccine vaccine) throws SQLException {
+        if (doses.putIfAbsent(vaccine.getVaccineName(), new AtomicInteger(vaccine.getAvailableDoses())) != null) {
+            throw new SQLException("Vaccine already exists: " + vaccine.getVaccineName());
+        }
+    }
+
+    @Override
+    public void addDoses(String name, int doses) {
+        AtomicInteger left = this.doses.get(name);
+        if (left != null) {
+            left.addAndGet(doses);
+        }
+    }
+
+    @Override
+    public boolean removeDoses(String name, int doses) {
+        AtomicInteger left = this.doses.get(name);
+        if (left == null) {
+            return false;
+        }
+        while (true) {
+            int current = left.get();
+            if (current < doses) {
+                return false;
+            }
+            if (left.compareAndSet(current, current - doses)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public int takeDoses(String name, int wanted) {
+        AtomicInteger left = doses.get(name);
+        if (left == null) {
+            return -1;
+        }
+        while (true) {
+            int current = left.get();
+            int taken = Math.min(current, wanted);
+            if (taken <= 0 || left.compareAndSet(current, current - taken)) {
+                return Math.max(taken, 0);
+            }
+        }
+    }
+
+    @Override
+    public BatchResult addDoses(Map<String, Integer> dosesByVaccine) {
+        BatchResult result = BatchResult.rejectNonPositive(dosesByVaccine);
+        if (result != null) {
+            return result;
+        }
+        result = new BatchResult();
+        for (Map.Entry<String, Integer> entry : dosesByVaccine.entrySet()) {
+            doses.computeIfAbsent(entry.getKey(), k -> new AtomicInteger()).addAndGet(entry.getValue());
+            result.add(entry.getKey(), BatchResult.Outcome.APPLIED, null);
+        }
+        return result;
+    }
+}
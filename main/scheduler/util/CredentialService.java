@@ -0,0 +1,138 @@
+package scheduler.util;
+
+import scheduler.metrics.Metrics;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Salts, hashes and verifies passwords with the same parameters as Util.generateHash, but
+// without its per-call setup: every thread keeps its own SecretKeyFactory and SecureRandom, and
+// the hashing for logins and account creation runs on a bounded pool of HashWorkers threads
+// (default: one per core) with a queue of HashQueueCapacity (default 256). A burst of logins
+// therefore queues up behind the pool instead of occupying every caller's thread, and once the
+// queue is full further requests fail fast rather than piling up.
+public class CredentialService {
+
+    private static final String algorithm = "PBKDF2WithHmacSHA1";
+    private static final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<SecureRandom> randoms = ThreadLocal.withInitial(SecureRandom::new);
+
+    private static final CredentialService instance = new CredentialService(
+            setting("HashWorkers", Runtime.getRuntime().availableProcessors()),
+            setting("HashQueueCapacity", 256));
+
+    private final ThreadPoolExecutor workers;
+
+    public CredentialService(int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "credential-worker-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static CredentialService getInstance() {
+        return instance;
+    }
+
+    public byte[] generateSalt() {
+        byte[] salt = new byte[Util.SALT_LENGTH];
+        randoms.get().nextBytes(salt);
+        return salt;
+    }
+
+    // hashes on the calling thread; meant for callers that already run on their own worker
+    // threads, such as the parallel stages of a bulk import
+    public byte[] computeHash(String password, byte[] salt) {
+        Metrics.Sample sample = Metrics.getInstance().startCall("credentials.compute");
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, Util.HASH_STRENGTH, Util.KEY_LENGTH);
+        boolean failed = true;
+        try {
+            byte[] hash = factories.get().generateSecret(spec).getEncoded();
+            failed = false;
+            return hash;
+        } catch (InvalidKeySpecException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+            sample.stop(failed);
+        }
+    }
+
+    public CompletableFuture<byte[]> hashAsync(String password, byte[] salt) {
+        try {
+            return CompletableFuture.supplyAsync(() -> computeHash(password, salt), workers);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<byte[]> busy = new CompletableFuture<>();
+            busy.completeExceptionally(new IllegalStateException("Too many password checks in progress"));
+            return busy;
+        }
+    }
+
+    // compares in constant time; stored hashes come back from BINARY columns zero-padded, so
+    // trailing zero bytes are ignored on both sides
+    public CompletableFuture<Boolean> verifyAsync(String password, byte[] salt, byte[] storedHash) {
+        byte[] expected = Util.trim(storedHash);
+        return hashAsync(password, salt).thenApply(hash -> MessageDigest.isEqual(expected, Util.trim(hash)));
+    }
+
+    // blocking versions for the command handlers, the work itself still runs on the pool; their
+    // timings include the wait for a worker, credentials.compute is the hashing alone
+    public byte[] hash(String password, byte[] salt) {
+        Metrics.Sample sample = Metrics.getInstance().startCall("credentials.hash");
+        return join(sample, hashAsync(password, salt));
+    }
+
+    public boolean verify(String password, byte[] salt, byte[] storedHash) {
+        Metrics.Sample sample = Metrics.getInstance().startCall("credentials.verify");
+        return join(sample, verifyAsync(password, salt, storedHash));
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    private static <T> T join(Metrics.Sample sample, CompletableFuture<T> future) {
+        boolean failed = true;
+        try {
+            T result = future.join();
+            failed = false;
+            return result;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            sample.stop(failed);
+        }
+    }
+
+    private static int setting(String name, int defaultValue) {
+        String value = System.getenv(name);
+        try {
+            return value == null ? defaultValue : Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -10,14 +10,15 @@ import java.util.Arrays;
 
 public class Util {
 
-    // constants for handling password
-    private static final int HASH_STRENGTH = 10;
-    private static final int KEY_LENGTH = 16;
+    // constants for handling password, shared with CredentialService
+    static final int HASH_STRENGTH = 10;
+    static final int KEY_LENGTH = 16;
+    static final int SALT_LENGTH = 16;
 
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
         SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[16];
+        byte[] salt = new byte[SALT_LENGTH];
         random.nextBytes(salt);
         return salt;
     }
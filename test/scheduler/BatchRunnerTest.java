@@ -0,0 +1,112 @@
+package scheduler;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import scheduler.db.AvailabilityIndex;
+import scheduler.storage.Storages;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Scripts run by the BatchRunner on the in-memory storage: what is skipped, what is echoed, how
+// failures are counted and where quit stops, and that with several jobs the parts of a script run
+// side by side but print exactly what running it one command at a time prints.
+class BatchRunnerTest {
+
+    private MemoryStorage storage;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        storage = new MemoryStorage();
+        Storages.use(storage);
+        AvailabilityIndex.getInstance().load();
+    }
+
+    @Test
+    void runsAScriptOneCommandAtATime() throws Exception {
+        String script = String.join("\n",
+                "# a comment, then a blank line",
+                "",
+                "create_caregiver alice pw",
+                "login_caregiver alice pw",
+                "upload_availability 2030-02-01",
+                "upload_availability not-a-date",
+                "no_such_command",
+                "logout",
+                "quit",
+                "create_caregiver bob pw");
+        List<String> lines = new ArrayList<>();
+        boolean succeeded = run(script, 1, lines);
+
+        assertFalse(succeeded);
+        assertEquals("> create_caregiver alice pw", lines.get(0));
+        assertFalse(lines.contains("# a comment, then a blank line"));
+        assertTrue(lines.contains("> no_such_command"), lines.toString());
+        assertTrue(lines.get(lines.size() - 1).startsWith("Ran 6 commands: 4 succeeded, 2 failed"), lines.toString());
+        // nothing after quit ran
+        assertFalse(storage.caregivers().exists("bob"));
+        assertEquals(1, storage.availabilities().findAll().size());
+    }
+
+    @Test
+    void runsPartsSideBySideInScriptOrder() throws Exception {
+        List<String> script = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            script.add("create_caregiver carer" + i + " pw");
+        }
+        script.add("sync");
+        for (int i = 0; i < 20; i++) {
+            script.add("login_caregiver carer" + i + " pw");
+            script.add("upload_availability_range 2030-02-01 2030-02-" + String.format("%02d", 1 + i));
+            script.add("logout");
+            // a command outside any login is a part of its own
+            script.add("create_patient patient" + i + " pw");
+        }
+        List<String> parallel = new ArrayList<>();
+        assertTrue(run(String.join("\n", script), 4, parallel));
+        // carer<i> uploaded i + 1 days
+        int uploaded = 0;
+        for (Set<String> caregivers : storage.availabilities().findAll().values()) {
+            uploaded += caregivers.size();
+        }
+        assertEquals(20 * 21 / 2, uploaded);
+
+        setUp();
+        List<String> sequential = new ArrayList<>();
+        assertTrue(run(String.join("\n", script), 1, sequential));
+        // the same output line for line, but for the running time in the summary
+        assertEquals(withoutTime(sequential), withoutTime(parallel));
+    }
+
+    // runs the script, adds what it printed to lines and returns whether every command succeeded
+    private static boolean run(String script, int jobs, List<String> lines) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        boolean succeeded;
+        try (PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8)) {
+            succeeded = new BatchRunner(out, jobs).run(new BufferedReader(new StringReader(script)));
+        }
+        lines.addAll(Arrays.asList(output.toString(StandardCharsets.UTF_8).split("\\R")));
+        return succeeded;
+    }
+
+    private static List<String> withoutTime(List<String> lines) {
+        List<String> kept = new ArrayList<>(lines);
+        String summary = kept.remove(kept.size() - 1);
+        kept.add(summary.substring(0, summary.indexOf(" in ")));
+        return kept;
+    }
+}
@@ -0,0 +1,207 @@
+package scheduler;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import scheduler.db.AvailabilityIndex;
+import scheduler.db.DoseLeaseManager;
+import scheduler.model.Appointment;
+import scheduler.storage.Storage;
+import scheduler.storage.Storages;
+import scheduler.storage.file.FileStorage;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// cancel_bulk run the way the console runs it, on the in-memory and the file storage: a caregiver
+// cancels only their own appointments unless they name another caregiver or all of them, the
+// caregivers get their days back, the doses go back, patients waiting on the freed days are
+// booked, and on the file storage all of it is still there after reopening.
+class CancelBulkTest {
+
+    // the scheduler's singletons outlive each test's storage, so every test has its own names
+    private static int runs = 0;
+
+    @TempDir
+    Path dir;
+
+    private Storage storage;
+    private Session session;
+    private ByteArrayOutputStream output;
+    private String alice;
+    private String bob;
+    private String patient;
+    private String vaccine;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "file"})
+    void cancelsOwnAppointmentsByDefault(String backend) throws Exception {
+        setUp(backend);
+        bookFourAppointments();
+
+        login("login_caregiver", alice);
+        execute("cancel_bulk", "from", "2030-03-01", "to", "2030-03-31");
+        assertTrue(output().contains("Cancelled 2 appointments"), output());
+        assertTrue(output().contains(vaccine + ": 2 doses returned"), output());
+        assertEquals(0, caregiverAppointments(alice));
+        assertEquals(2, caregiverAppointments(bob));
+        // alice is free again, bob is still booked
+        assertEquals(Set.of(alice), storage.availabilities().findByDate(day(1)));
+        assertEquals(Set.of(alice, bob), storage.availabilities().findByDate(day(3)));
+
+        execute("cancel_bulk", "caregiver", bob, "vaccine", vaccine);
+        assertTrue(output().contains("Cancelled 2 appointments"), output());
+        assertEquals(0, caregiverAppointments(bob));
+        assertEquals(10, storage.vaccines().find(vaccine).getAvailableDoses() + leased());
+        assertSurvivesReopen(backend);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "file"})
+    void cancelsForEveryCaregiver(String backend) throws Exception {
+        setUp(backend);
+        bookFourAppointments();
+
+        login("login_caregiver", bob);
+        // only the first day
+        execute("cancel_bulk", "caregiver", "*", "to", day(1).toString());
+        assertTrue(output().contains("Cancelled 2 appointments"), output());
+        assertEquals(1, caregiverAppointments(alice));
+        assertEquals(1, caregiverAppointments(bob));
+        assertSurvivesReopen(backend);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "file"})
+    void freedDaysGoToWaitingPatients(String backend) throws Exception {
+        setUp(backend);
+        bookFourAppointments();
+        String waiting = patient + "_waiting";
+        execute("create_patient", waiting, "pw");
+        login("login_patient", waiting);
+        // both caregivers are taken that day
+        execute("reserve", day(1).toString(), vaccine);
+        assertTrue(session.hasFailed());
+        execute("waitlist", day(1).toString(), vaccine);
+        assertFalse(session.hasFailed(), output());
+
+        login("login_caregiver", alice);
+        execute("cancel_bulk", "from", day(1).toString(), "to", day(1).toString());
+        List<Appointment> booked = storage.appointments().findByPatient(waiting);
+        assertEquals(1, booked.size());
+        assertEquals(day(1), booked.get(0).getTime());
+        assertEquals(alice, booked.get(0).getCaregiverName());
+        assertSurvivesReopen(backend);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "file"})
+    void refusesBadRequests(String backend) throws Exception {
+        setUp(backend);
+        bookFourAppointments();
+
+        login("login_patient", patient);
+        execute("cancel_bulk", "caregiver", "*");
+        assertTrue(output().contains("Please login as a caregiver first!"), output());
+        login("login_caregiver", alice);
+        execute("cancel_bulk", "from", "2030-03-05", "to", "2030-03-01");
+        assertTrue(output().contains("Please enter an end date on or after the start date!"), output());
+        execute("cancel_bulk", "patient", patient);
+        assertTrue(session.hasFailed());
+        assertEquals(2, caregiverAppointments(alice));
+        assertEquals(2, caregiverAppointments(bob));
+    }
+
+    private void setUp(String backend) throws SQLException, IOException {
+        if (backend.equals("file")) {
+            storage = openFileStorage();
+        } else {
+            storage = new MemoryStorage();
+        }
+        Storages.use(storage);
+        AvailabilityIndex.getInstance().load();
+        output = new ByteArrayOutputStream();
+        session = new Session(new PrintStream(output, true, StandardCharsets.UTF_8));
+        String run = "bulk" + (++runs);
+        alice = run + "_alice";
+        bob = run + "_bob";
+        patient = run + "_pat";
+        vaccine = run + "_vaccine";
+    }
+
+    // two appointments with each caregiver, on the first two days
+    private void bookFourAppointments() {
+        for (String caregiver : List.of(alice, bob)) {
+            execute("create_caregiver", caregiver, "pw");
+            login("login_caregiver", caregiver);
+            execute("upload_availability_range", day(1).toString(), day(3).toString());
+        }
+        execute("add_doses", vaccine, "10");
+        execute("create_patient", patient, "pw");
+        login("login_patient", patient);
+        for (int i = 0; i < 4; i++) {
+            execute("reserve", day(1 + i / 2).toString(), vaccine);
+            assertFalse(session.hasFailed(), output());
+        }
+        execute("logout");
+    }
+
+    // on the file storage, what cancel_bulk left is what a restart finds
+    private void assertSurvivesReopen(String backend) throws SQLException, IOException {
+        if (!backend.equals("file")) {
+            return;
+        }
+        Storage reopened = openFileStorage();
+        for (String caregiver : List.of(alice, bob)) {
+            assertEquals(storage.appointments().findByCaregiver(caregiver).toString(),
+                    reopened.appointments().findByCaregiver(caregiver).toString());
+        }
+        assertEquals(storage.availabilities().findAll(), reopened.availabilities().findAll());
+        assertEquals(storage.vaccines().findAll().toString(), reopened.vaccines().findAll().toString());
+    }
+
+    private FileStorage openFileStorage() throws SQLException, IOException {
+        FileStorage fileStorage = new FileStorage(dir, Long.MAX_VALUE);
+        fileStorage.migrate();
+        return fileStorage;
+    }
+
+    private void login(String command, String username) {
+        execute("logout");
+        execute(command, username, "pw");
+        assertFalse(session.hasFailed(), output());
+    }
+
+    private void execute(String... tokens) {
+        output.reset();
+        Scheduler.execute(session, tokens);
+    }
+
+    private String output() {
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private int caregiverAppointments(String caregiver) throws SQLException {
+        return storage.appointments().findByCaregiver(caregiver).size();
+    }
+
+    private int leased() {
+        return DoseLeaseManager.getInstance().getLeasedDoses(vaccine);
+    }
+
+    private static Date day(int day) {
+        return Date.valueOf("2030-03-0" + day);
+    }
+}
@@ -0,0 +1,152 @@
+package scheduler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import scheduler.db.AvailabilityIndex;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Vaccine;
+import scheduler.storage.Storages;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Many clients connected to one SchedulerServer at the same time, on the in-memory storage. The
+// clients all log in and then wait for each other before booking, so the test only gets through
+// if the server runs their sessions side by side, and each session must only ever see its own
+// user.
+class SchedulerServerTest {
+
+    private static final int clients = 30;
+    private static final Date day = Date.valueOf("2030-05-01");
+
+    private MemoryStorage storage;
+    private SchedulerServer server;
+    private Thread serving;
+
+    @BeforeEach
+    void startServer() throws SQLException, InterruptedException {
+        storage = new MemoryStorage();
+        Storages.use(storage);
+        storage.vaccines().save(new Vaccine.VaccineBuilder("served", clients).build());
+        for (int i = 0; i < clients; i++) {
+            storage.caregivers().save(new Caregiver.CaregiverBuilder("carer" + i, new byte[16], new byte[16]).build());
+            storage.availabilities().add(day, "carer" + i);
+        }
+        AvailabilityIndex.getInstance().load();
+
+        server = new SchedulerServer(0);
+        serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }, "server");
+        serving.setDaemon(true);
+        serving.start();
+        for (int i = 0; i < 500 && server.getLocalPort() < 0; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(server.getLocalPort() > 0);
+    }
+
+    @AfterEach
+    void stopServer() throws IOException, InterruptedException {
+        server.close();
+        serving.join(5000);
+    }
+
+    @Test
+    void servesClientsSideBySide() throws Exception {
+        CyclicBarrier allLoggedIn = new CyclicBarrier(clients);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<List<String>>> sessions = new ArrayList<>();
+        try {
+            for (int i = 0; i < clients; i++) {
+                String patient = "client" + i;
+                sessions.add(pool.submit(() -> session(patient, allLoggedIn)));
+            }
+            for (int i = 0; i < clients; i++) {
+                List<String> lines = sessions.get(i).get(30, TimeUnit.SECONDS);
+                String patient = "client" + i;
+                assertTrue(lines.stream().anyMatch(line -> line.endsWith("Logged in as " + patient)), lines.toString());
+                assertTrue(lines.get(lines.size() - 1).endsWith("Bye!"), lines.toString());
+                // nothing of another client's session ended up in this one
+                for (String line : lines) {
+                    assertFalse(line.matches(".*client(?!" + i + "\\b)\\d+.*"), line);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<String> booked = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            List<Appointment> appointments = storage.appointments().findByPatient("client" + i);
+            assertEquals(1, appointments.size(), "client" + i);
+            booked.add(appointments.get(0).getCaregiverName());
+        }
+        // every caregiver was booked once
+        assertEquals(clients, booked.stream().distinct().count());
+        for (int i = 0; i < 100 && server.getActiveSessions() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, server.getActiveSessions());
+    }
+
+    // one client: creates and logs in its patient, waits until every other client has too, then
+    // books, lists its appointments and quits; returns what the server sent
+    private List<String> session(String patient, CyclicBarrier allLoggedIn) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>();
+            out.println("create_patient " + patient + " pw");
+            out.println("login_patient " + patient + " pw");
+            readUntil(in, "Logged in as " + patient, lines);
+            allLoggedIn.await(20, TimeUnit.SECONDS);
+
+            out.println("reserve " + day + " served");
+            out.println("show_appointments");
+            out.println("quit");
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        }
+    }
+
+    private static void readUntil(BufferedReader in, String wanted, List<String> lines) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            lines.add(line);
+            if (line.endsWith(wanted)) {
+                return;
+            }
+        }
+        throw new IOException("Session ended before " + wanted + ": " + lines);
+    }
+}
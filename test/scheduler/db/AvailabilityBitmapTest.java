@@ -0,0 +1,171 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// The AvailabilityBitmap's range queries against the same questions answered one day and one
+// caregiver at a time. The edges of the 64-day words and of each caregiver's span are where a
+// word at a time goes wrong, so the ranges start and end on, next to and across them.
+class AvailabilityBitmapTest {
+
+    // the first day of a 64-day word
+    private static final long wordStart = 64 * 400;
+
+    private final AvailabilityBitmap bitmap = new AvailabilityBitmap();
+    // date -> caregivers available, the way the bitmap should see it
+    private final Map<Long, Set<String>> days = new HashMap<>();
+
+    @Test
+    void rangesOnWordEdges() {
+        set(wordStart - 1, "alice");
+        set(wordStart + 63, "bob");
+        set(wordStart + 64, "carol");
+
+        assertEquals(Set.of("alice"), bitmap.freeOnAnyDay(day(wordStart - 1), day(wordStart - 1)));
+        assertEquals(Set.of(), bitmap.freeOnAnyDay(day(wordStart), day(wordStart + 62)));
+        assertEquals(Set.of("bob"), bitmap.freeOnAnyDay(day(wordStart + 63), day(wordStart + 63)));
+        assertEquals(Set.of("bob", "carol"), bitmap.freeOnAnyDay(day(wordStart + 1), day(wordStart + 64)));
+        assertEquals(Set.of("alice", "bob", "carol"), bitmap.freeOnAnyDay(day(0), day(wordStart * 2)));
+        // outside everyone's span
+        assertEquals(Set.of(), bitmap.freeOnAnyDay(day(wordStart + 65), day(wordStart + 1000)));
+        assertEquals(Set.of(), bitmap.freeOnAnyDay(day(0), day(wordStart - 2)));
+        assertMatchesDays(wordStart - 200, wordStart + 200);
+    }
+
+    @Test
+    void spansGrowBothWays() {
+        set(wordStart + 10, "alice");
+        set(wordStart - 500, "alice");
+        set(wordStart + 700, "alice");
+        clear(wordStart + 10, "alice");
+
+        assertEquals(Set.of(), bitmap.freeOnAnyDay(day(wordStart - 499), day(wordStart + 699)));
+        assertEquals(Set.of("alice"), bitmap.freeOnAnyDay(day(wordStart - 500), day(wordStart - 500)));
+        assertEquals(Map.of("alice", 2), bitmap.daysByCaregiver());
+        assertMatchesDays(wordStart - 1000, wordStart + 1000);
+    }
+
+    @Test
+    void setDayReplacesWhoIsFree() {
+        set(wordStart, "alice");
+        set(wordStart, "bob");
+        set(wordStart + 1, "bob");
+        setDay(wordStart, List.of("bob", "carol"));
+
+        assertEquals(Set.of("bob", "carol"), bitmap.freeOnAnyDay(day(wordStart), day(wordStart)));
+        assertEquals(Map.of(day(wordStart), 2), bitmap.daysWithAtLeast(2, day(wordStart), day(wordStart + 1)));
+        assertMatchesDays(wordStart - 100, wordStart + 100);
+    }
+
+    @Test
+    void matchesDayByDayAfterRandomChanges() {
+        Random random = new Random(42);
+        String[] caregivers = {"alice", "bob", "carol", "dave", "erin", "frank"};
+        for (int change = 0; change < 5000; change++) {
+            long day = wordStart + random.nextInt(600) - 300;
+            String caregiver = caregivers[random.nextInt(caregivers.length)];
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                set(day, caregiver);
+            } else if (kind < 9) {
+                clear(day, caregiver);
+            } else {
+                List<String> free = new ArrayList<>();
+                for (String c : caregivers) {
+                    if (random.nextInt(3) == 0) {
+                        free.add(c);
+                    }
+                }
+                setDay(day, free);
+            }
+            if (change % 500 == 0) {
+                assertMatchesDays(wordStart - 320, wordStart + 320);
+            }
+        }
+        for (int query = 0; query < 2000; query++) {
+            long first = wordStart + random.nextInt(700) - 350;
+            long last = first + random.nextInt(200);
+            assertEquals(freeOnAnyDay(first, last), bitmap.freeOnAnyDay(day(first), day(last)),
+                    "free from " + day(first) + " to " + day(last));
+            int minimum = random.nextInt(5);
+            assertEquals(daysWithAtLeast(minimum, first, last), bitmap.daysWithAtLeast(minimum, day(first), day(last)),
+                    minimum + " free from " + day(first) + " to " + day(last));
+        }
+    }
+
+    // every single day and every range starting on each day of the window agree with the days
+    private void assertMatchesDays(long from, long to) {
+        for (long first = from; first <= to; first++) {
+            assertEquals(freeOnAnyDay(first, first), bitmap.freeOnAnyDay(day(first), day(first)), "free on " + day(first));
+            long last = Math.min(to, first + 70);
+            assertEquals(freeOnAnyDay(first, last), bitmap.freeOnAnyDay(day(first), day(last)),
+                    "free from " + day(first) + " to " + day(last));
+        }
+        for (int minimum = 0; minimum <= 3; minimum++) {
+            assertEquals(daysWithAtLeast(minimum, from, to), bitmap.daysWithAtLeast(minimum, day(from), day(to)));
+        }
+        Map<String, Integer> byCaregiver = new HashMap<>();
+        for (Set<String> free : days.values()) {
+            for (String caregiver : free) {
+                byCaregiver.merge(caregiver, 1, Integer::sum);
+            }
+        }
+        assertEquals(byCaregiver, bitmap.daysByCaregiver());
+    }
+
+    private TreeSet<String> freeOnAnyDay(long first, long last) {
+        TreeSet<String> free = new TreeSet<>();
+        for (long d = first; d <= last; d++) {
+            free.addAll(days.getOrDefault(d, Set.of()));
+        }
+        return free;
+    }
+
+    private NavigableMap<LocalDate, Integer> daysWithAtLeast(int minimum, long first, long last) {
+        NavigableMap<LocalDate, Integer> found = new TreeMap<>();
+        for (long d = first; d <= last; d++) {
+            int count = days.getOrDefault(d, Set.of()).size();
+            if (count > 0 && count >= minimum) {
+                found.put(day(d), count);
+            }
+        }
+        return found;
+    }
+
+    private void set(long day, String caregiver) {
+        bitmap.set(day(day), caregiver);
+        days.computeIfAbsent(day, k -> new TreeSet<>()).add(caregiver);
+    }
+
+    private void clear(long day, String caregiver) {
+        bitmap.clear(day(day), caregiver);
+        Set<String> free = days.get(day);
+        if (free != null && free.remove(caregiver) && free.isEmpty()) {
+            days.remove(day);
+        }
+    }
+
+    private void setDay(long day, List<String> caregivers) {
+        bitmap.setDay(day(day), caregivers);
+        days.remove(day);
+        if (!caregivers.isEmpty()) {
+            days.put(day, new TreeSet<>(caregivers));
+        }
+    }
+
+    private static LocalDate day(long epochDay) {
+        return LocalDate.ofEpochDay(epochDay);
+    }
+}
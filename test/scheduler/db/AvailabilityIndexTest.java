@@ -0,0 +1,213 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.storage.Storages;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// The AvailabilityIndex against the table it copies, on the in-memory storage: after every kind
+// of change the index sees, and after changes it only hears about through invalidate or a reload,
+// what it answers has to be exactly what AvailabilityRepository.findAll holds.
+class AvailabilityIndexTest {
+
+    private static final Date first = Date.valueOf("2030-01-01");
+    private static final Date last = Date.valueOf("2030-01-31");
+    // the DoseLeaseManager outlives each test's storage, so every test leases its own vaccine
+    private static int vaccines = 0;
+
+    private final AvailabilityIndex index = AvailabilityIndex.getInstance();
+    private MemoryStorage storage;
+    private ReservationEngine engine;
+    private String vaccine;
+    private Caregiver alice;
+    private Caregiver bob;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        storage = new MemoryStorage();
+        Storages.use(storage);
+        alice = caregiver("alice");
+        bob = caregiver("bob");
+        storage.patients().save(new Patient.PatientBuilder("pat", new byte[16], new byte[16]).build());
+        vaccine = "vaccine" + (++vaccines);
+        storage.vaccines().save(new Vaccine.VaccineBuilder(vaccine, 100).build());
+        index.load();
+        engine = new ReservationEngine(new IdAllocator(10), DoseLeaseManager.getInstance(), index);
+    }
+
+    @Test
+    void matchesAfterUploads() throws SQLException {
+        alice.uploadAvailability(date(1));
+        bob.uploadAvailability(date(1));
+        assertMatchesTable();
+
+        bob.uploadAvailability(Arrays.asList(date(2), date(3), date(5)));
+        // a day that is already there is skipped, the rest still go in
+        alice.uploadAvailability(Arrays.asList(date(1), date(3)));
+        assertMatchesTable();
+    }
+
+    @Test
+    void matchesAfterReservations() throws SQLException {
+        alice.uploadAvailability(Arrays.asList(date(1), date(2)));
+        bob.uploadAvailability(date(1));
+
+        assertEquals(ReservationEngine.Status.RESERVED, engine.reserve(date(1), vaccine, "pat").getStatus());
+        assertMatchesTable();
+        assertEquals(ReservationEngine.Status.RESERVED, engine.reserve(date(1), vaccine, "pat").getStatus());
+        assertMatchesTable();
+        // nobody is left that day, and nothing changes
+        assertEquals(ReservationEngine.Status.NO_CAREGIVER, engine.reserve(date(1), vaccine, "pat").getStatus());
+        assertMatchesTable();
+        assertEquals(ReservationEngine.Status.RESERVED, engine.reserve(date(2), vaccine, "pat").getStatus());
+        assertMatchesTable();
+    }
+
+    @Test
+    void matchesAfterCancellations() throws SQLException {
+        alice.uploadAvailability(Arrays.asList(date(1), date(2)));
+        bob.uploadAvailability(date(2));
+        int firstBooking = engine.reserve(date(1), vaccine, "pat").getAppointmentId();
+        int secondBooking = engine.reserve(date(2), vaccine, "pat").getAppointmentId();
+        assertMatchesTable();
+
+        Appointment cancelled = engine.cancel(firstBooking);
+        assertNotNull(cancelled);
+        assertMatchesTable();
+        assertNotNull(engine.cancel(secondBooking));
+        assertMatchesTable();
+        // the caregiver that got the day back can be booked again
+        assertEquals(ReservationEngine.Status.RESERVED, engine.reserve(date(1), vaccine, "pat").getStatus());
+        assertMatchesTable();
+    }
+
+    @Test
+    void matchesAfterInvalidate() throws SQLException {
+        alice.uploadAvailability(date(1));
+        // written behind the index's back, as another scheduler process would
+        storage.availabilities().add(date(1), "bob");
+        storage.availabilities().add(date(4), "bob");
+        index.invalidate(date(1));
+        index.invalidate(date(4));
+        assertMatchesTable();
+
+        // a day claimed behind the index's back: the booking finds out, and the day is re-read
+        storage.appointments().book(900, date(1), vaccine, "pat", "alice");
+        storage.appointments().book(901, date(1), vaccine, "pat", "bob");
+        assertEquals(ReservationEngine.Status.NO_CAREGIVER, engine.reserve(date(1), vaccine, "pat").getStatus());
+        assertMatchesTable();
+    }
+
+    @Test
+    void matchesAfterReload() throws SQLException {
+        alice.uploadAvailability(Arrays.asList(date(1), date(2)));
+        storage.availabilities().add(date(2), "bob");
+        storage.availabilities().add(date(3), "bob");
+        storage.appointments().book(900, date(1), vaccine, "pat", "alice");
+
+        index.reload(date(1));
+        index.reload(date(2));
+        index.reload(date(3));
+        assertMatchesTable();
+
+        storage.availabilities().add(date(6), "alice");
+        index.load();
+        assertMatchesTable();
+    }
+
+    @Test
+    void loadNeverShowsAnEmptyIndex() throws Exception {
+        alice.uploadAvailability(date(1));
+        Thread loader = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++) {
+                    index.load();
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        loader.start();
+        while (loader.isAlive()) {
+            assertEquals(new TreeSet<>(List.of("alice")), index.getCaregivers(date(1)));
+        }
+        loader.join();
+    }
+
+    @Test
+    void matchesAfterChangesDuringLoads() throws Exception {
+        for (int day = 1; day <= 20; day++) {
+            alice.uploadAvailability(date(day));
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                for (int i = 0; i < 50; i++) {
+                    index.load();
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        loader.start();
+        for (int day = 1; day <= 20; day++) {
+            bob.uploadAvailability(date(day));
+            assertEquals(ReservationEngine.Status.RESERVED, engine.reserve(date(day), vaccine, "pat").getStatus());
+        }
+        loader.join();
+        assertMatchesTable();
+    }
+
+    // every way of asking the index agrees with the table
+    private void assertMatchesTable() throws SQLException {
+        NavigableMap<LocalDate, NavigableSet<String>> table =
+                storage.availabilities().findAll().subMap(first.toLocalDate(), true, last.toLocalDate(), true);
+
+        NavigableMap<LocalDate, NavigableSet<String>> calendar = new TreeMap<>();
+        for (Map.Entry<LocalDate, NavigableSet<String>> day : index.getCalendar(first, last).entrySet()) {
+            if (!day.getValue().isEmpty()) {
+                calendar.put(day.getKey(), day.getValue());
+            }
+        }
+        assertEquals(table, calendar);
+
+        Map<String, Integer> freeDays = new HashMap<>();
+        for (LocalDate date = first.toLocalDate(); !date.isAfter(last.toLocalDate()); date = date.plusDays(1)) {
+            NavigableSet<String> caregivers = table.get(date);
+            NavigableSet<String> expected = caregivers == null ? new TreeSet<>() : caregivers;
+            assertEquals(expected, index.getCaregivers(Date.valueOf(date)), "caregivers on " + date);
+            for (String caregiver : expected) {
+                freeDays.merge(caregiver, 1, Integer::sum);
+            }
+        }
+        assertEquals(freeDays, index.getFreeDaysByCaregiver());
+    }
+
+    private Caregiver caregiver(String username) throws SQLException {
+        Caregiver caregiver = new Caregiver.CaregiverBuilder(username, new byte[16], new byte[16]).build();
+        storage.caregivers().save(caregiver);
+        return caregiver;
+    }
+
+    private static Date date(int day) {
+        return Date.valueOf(LocalDate.of(2030, 1, day));
+    }
+}
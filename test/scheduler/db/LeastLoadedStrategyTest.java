@@ -0,0 +1,107 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The LeastLoadedStrategy on its own, fed the calls the AvailabilityIndex makes: bookings go to
+// the caregivers with the fewest appointments and end up spread evenly, a caregiver held by a
+// booking in progress isn't handed out again, and caregivers that went away or had appointments
+// cancelled are taken into account.
+class LeastLoadedStrategyTest {
+
+    private static final LocalDate day = LocalDate.of(2030, 4, 1);
+
+    private final LeastLoadedStrategy strategy = new LeastLoadedStrategy();
+
+    @Test
+    void spreadsBookingsEvenly() {
+        strategy.reset(Map.of());
+        NavigableSet<String> everyone = caregivers("alice", "bob", "carol", "dave");
+        Map<String, Integer> booked = new HashMap<>();
+        for (int i = 0; i < 400; i++) {
+            // everyone is booked on a date before the next one
+            LocalDate date = day.plusDays(i / 4);
+            String chosen = strategy.choose(date, everyone);
+            strategy.done(date, chosen, chosen);
+            booked.merge(chosen, 1, Integer::sum);
+        }
+        assertEquals(4, booked.size());
+        int fewest = booked.values().stream().min(Integer::compare).orElseThrow();
+        int most = booked.values().stream().max(Integer::compare).orElseThrow();
+        assertTrue(most - fewest <= 2, booked.toString());
+    }
+
+    @Test
+    void busyCaregiversWaitForTheOthersToCatchUp() {
+        strategy.reset(Map.of("alice", 10, "bob", 2));
+        NavigableSet<String> everyone = caregivers("alice", "bob", "carol");
+        for (int i = 0; i < 10; i++) {
+            LocalDate date = day.plusDays(i);
+            String chosen = strategy.choose(date, everyone);
+            assertFalse(chosen.equals("alice"), "booking " + i);
+            strategy.done(date, chosen, chosen);
+        }
+    }
+
+    @Test
+    void holdsAChoiceUntilItsBookingIsDone() {
+        strategy.reset(Map.of());
+        NavigableSet<String> everyone = caregivers("alice", "bob", "carol");
+        Set<String> held = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            held.add(strategy.choose(day, everyone));
+        }
+        // three bookings in progress went after three different caregivers
+        assertEquals(everyone, held);
+        // a fourth shares one rather than being turned away
+        String shared = strategy.choose(day, everyone);
+        assertNotNull(shared);
+        strategy.done(day, shared, null);
+
+        // a booking that went to someone else gives its choice back
+        strategy.done(day, "alice", "bob");
+        strategy.done(day, "bob", null);
+        strategy.done(day, "carol", "carol");
+        assertEquals("alice", strategy.choose(day, caregivers("alice", "carol")));
+    }
+
+    @Test
+    void followsAvailabilityAndCancellations() {
+        strategy.reset(Map.of("alice", 5, "bob", 5, "carol", 5));
+        assertNull(strategy.choose(day, caregivers()));
+
+        // bob went away after the date's queue was built
+        String chosen = strategy.choose(day, caregivers("alice", "bob", "carol"));
+        strategy.done(day, chosen, chosen);
+        for (int i = 0; i < 4; i++) {
+            chosen = strategy.choose(day, caregivers("alice", "carol"));
+            assertTrue(List.of("alice", "carol").contains(chosen), chosen);
+            strategy.done(day, chosen, chosen);
+        }
+
+        // carol's appointments were cancelled; once the date is read again carol is first in line
+        for (int i = 0; i < 5; i++) {
+            strategy.cancelled("carol");
+        }
+        strategy.forget(day);
+        assertEquals("carol", strategy.choose(day, caregivers("alice", "bob", "carol")));
+    }
+
+    private static NavigableSet<String> caregivers(String... names) {
+        return new TreeSet<>(List.of(names));
+    }
+}
@@ -0,0 +1,126 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.storage.AppointmentFilter;
+import scheduler.storage.Storages;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The ReportCounters kept up to date booking by booking against the same counters read from
+// storage by a rebuild, on the in-memory storage: after bookings, cancellations one at a time and
+// in bulk, and added doses, a rebuild finds nothing to correct. Changes made behind the
+// counters' back are what a rebuild reports.
+class ReportCountersTest {
+
+    private static final LocalDate first = LocalDate.of(2030, 1, 1);
+    private static final LocalDate last = LocalDate.of(2030, 1, 31);
+    // the DoseLeaseManager outlives each test's storage, so every test leases its own vaccines
+    private static int vaccines = 0;
+
+    private final ReportCounters counters = ReportCounters.getInstance();
+    private final DoseLeaseManager doses = DoseLeaseManager.getInstance();
+    private MemoryStorage storage;
+    private ReservationEngine engine;
+    private String pfizer;
+    private String moderna;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        storage = new MemoryStorage();
+        Storages.use(storage);
+        storage.patients().save(new Patient.PatientBuilder("pat", new byte[16], new byte[16]).build());
+        List<Date> days = new ArrayList<>();
+        for (int day = 1; day <= 10; day++) {
+            days.add(date(day));
+        }
+        for (String caregiver : Arrays.asList("alice", "bob", "carol")) {
+            storage.caregivers().save(new Caregiver.CaregiverBuilder(caregiver, new byte[16], new byte[16]).build());
+            storage.availabilities().addAll(caregiver, days);
+        }
+        pfizer = vaccine(40);
+        moderna = vaccine(5);
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        index.load();
+        engine = new ReservationEngine(new IdAllocator(10), doses, index);
+        // the counters start from this test's storage
+        counters.rebuild();
+    }
+
+    @Test
+    void rebuildMatchesKeptCounters() throws SQLException {
+        Random random = new Random(7);
+        List<Integer> booked = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            String vaccine = random.nextBoolean() ? pfizer : moderna;
+            ReservationEngine.Result result = engine.reserve(date(1 + random.nextInt(10)), vaccine, "pat");
+            if (result.getStatus() == ReservationEngine.Status.RESERVED) {
+                booked.add(result.getAppointmentId());
+            }
+        }
+        assertTrue(booked.size() > 10);
+        for (int i = 0; i < 5; i++) {
+            Appointment cancelled = engine.cancel(booked.remove(random.nextInt(booked.size())));
+            doses.release(cancelled.getVaccineName());
+        }
+        engine.cancelAll(new AppointmentFilter("bob", null, date(1), date(5)));
+        storage.vaccines().addDoses(moderna, 3);
+        counters.dosesAdded(moderna, 3);
+        assertMatchesRebuild();
+
+        // and after a rebuild the counters carry on from what it read
+        engine.reserve(date(10), pfizer, "pat");
+        assertMatchesRebuild();
+    }
+
+    @Test
+    void rebuildReportsChangesMadeBehindItsBack() throws SQLException {
+        engine.reserve(date(1), pfizer, "pat", "alice");
+        // as another scheduler process would
+        storage.appointments().book(900, date(2), pfizer, "pat", "alice");
+        storage.vaccines().addDoses(moderna, 2);
+
+        counters.getBookedByCaregiver();
+        List<String> differences = counters.rebuild();
+        assertTrue(differences.contains("caregiver alice: counted 1, stored 2"), differences.toString());
+        assertTrue(differences.contains("date 2030-01-02: counted 0, stored 1"), differences.toString());
+        assertTrue(differences.contains("doses left " + moderna + ": counted 5, stored 7"), differences.toString());
+        assertEquals(List.of(), counters.rebuild());
+    }
+
+    // the counters as kept, then read again from storage, are the same, and the rebuild says so
+    private void assertMatchesRebuild() throws SQLException {
+        String kept = report();
+        assertEquals(List.of(), counters.rebuild());
+        assertEquals(kept, report());
+    }
+
+    private String report() throws SQLException {
+        return counters.getBookedByDate(first, last) + " " + counters.getBookedByVaccine() + " " +
+                counters.getBookedByCaregiver() + " " + counters.getDosesLeft();
+    }
+
+    private String vaccine(int doses) throws SQLException {
+        String vaccine = "counted" + (++vaccines);
+        storage.vaccines().save(new Vaccine.VaccineBuilder(vaccine, doses).build());
+        return vaccine;
+    }
+
+    private static Date date(int day) {
+        return Date.valueOf(LocalDate.of(2030, 1, day));
+    }
+}
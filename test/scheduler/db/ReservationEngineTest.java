@@ -0,0 +1,171 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.storage.AppointmentFilter;
+import scheduler.storage.Storages;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The ReservationEngine booked from many threads at once on the in-memory storage, the dates
+// shared between them so bookings queue on each date's lock and race for the same caregivers:
+// nobody is booked twice on a day, every caregiver day uploaded is either free or booked, doses
+// are neither lost nor made up, and the AvailabilityIndex still agrees with the table.
+class ReservationEngineTest {
+
+    private static final int threads = 16;
+    private static final int days = 5;
+    private static final String[] caregivers = {"alice", "bob", "carol", "dave"};
+    // the DoseLeaseManager outlives each test's storage, so every test leases its own vaccine
+    private static int vaccines = 0;
+
+    private final AvailabilityIndex index = AvailabilityIndex.getInstance();
+    private final DoseLeaseManager doses = DoseLeaseManager.getInstance();
+    private MemoryStorage storage;
+    private ReservationEngine engine;
+    private String vaccine;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        storage = new MemoryStorage();
+        Storages.use(storage);
+        storage.patients().save(new Patient.PatientBuilder("pat", new byte[16], new byte[16]).build());
+        index.load();
+        for (String caregiver : caregivers) {
+            Caregiver c = new Caregiver.CaregiverBuilder(caregiver, new byte[16], new byte[16]).build();
+            storage.caregivers().save(c);
+            List<Date> dates = new ArrayList<>();
+            for (int day = 1; day <= days; day++) {
+                dates.add(date(day));
+            }
+            c.uploadAvailability(dates);
+        }
+        vaccine = "engine" + (++vaccines);
+        engine = new ReservationEngine(new IdAllocator(10), doses, index);
+    }
+
+    @Test
+    void concurrentBookingsNeverOverbook() throws Exception {
+        int available = 15;
+        storage.vaccines().save(new Vaccine.VaccineBuilder(vaccine, available).build());
+        Map<ReservationEngine.Status, AtomicInteger> outcomes = new ConcurrentHashMap<>();
+        inParallel(worker -> () -> {
+            for (int i = 0; i < 4; i++) {
+                Date d = date(1 + (worker + i) % days);
+                ReservationEngine.Result result = engine.reserve(d, vaccine, "pat");
+                outcomes.computeIfAbsent(result.getStatus(), k -> new AtomicInteger()).incrementAndGet();
+            }
+            return null;
+        });
+
+        // 20 caregiver days but 15 doses
+        assertEquals(available, outcomes.get(ReservationEngine.Status.RESERVED).get());
+        assertEquals(available, storage.appointments().findByPatient("pat").size());
+        assertEquals(0, storage.vaccines().find(vaccine).getAvailableDoses() + doses.getLeasedDoses(vaccine));
+        assertConsistent();
+    }
+
+    @Test
+    void concurrentBookingsAndCancellationsStayConsistent() throws Exception {
+        storage.vaccines().save(new Vaccine.VaccineBuilder(vaccine, 1000).build());
+        inParallel(worker -> () -> {
+            Random random = new Random(worker);
+            List<Integer> mine = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                if (!mine.isEmpty() && random.nextInt(3) == 0) {
+                    Appointment cancelled = engine.cancel(mine.remove(random.nextInt(mine.size())));
+                    if (cancelled != null) {
+                        doses.release(cancelled.getVaccineName());
+                    }
+                } else {
+                    ReservationEngine.Result result = engine.reserve(date(1 + random.nextInt(days)), vaccine, "pat");
+                    if (result.getStatus() == ReservationEngine.Status.RESERVED) {
+                        mine.add(result.getAppointmentId());
+                    }
+                }
+            }
+            if (worker == 0) {
+                // and one bulk cancellation across the dates while the others are still booking
+                engine.cancelAll(new AppointmentFilter(null, vaccine, date(2), date(4)));
+            }
+            return null;
+        });
+
+        int booked = storage.appointments().findByPatient("pat").size();
+        assertEquals(1000 - booked, storage.vaccines().find(vaccine).getAvailableDoses() + doses.getLeasedDoses(vaccine));
+        assertConsistent();
+    }
+
+    // every uploaded caregiver day is free or booked, never both and never twice, and the index
+    // sees exactly the free ones
+    private void assertConsistent() throws SQLException {
+        Set<String> booked = new HashSet<>();
+        for (Appointment appointment : storage.appointments().findByPatient("pat")) {
+            String caregiverDay = appointment.getCaregiverName() + " " + appointment.getTime();
+            assertTrue(booked.add(caregiverDay), "booked twice: " + caregiverDay);
+        }
+        for (int day = 1; day <= days; day++) {
+            NavigableSet<String> free = storage.availabilities().findByDate(date(day));
+            for (String caregiver : caregivers) {
+                String caregiverDay = caregiver + " " + date(day);
+                assertTrue(free.contains(caregiver) != booked.contains(caregiverDay), caregiverDay);
+            }
+            assertEquals(free, index.getCaregivers(date(day)), "caregivers on " + date(day));
+        }
+    }
+
+    // runs a task per thread, all released at once, and waits for them; the first failure fails the test
+    private static void inParallel(Task task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> running = new ArrayList<>();
+            for (int worker = 0; worker < threads; worker++) {
+                Callable<Void> work = task.forWorker(worker);
+                running.add(pool.submit(() -> {
+                    start.await();
+                    return work.call();
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : running) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private interface Task {
+        Callable<Void> forWorker(int worker);
+    }
+
+    private static Date date(int day) {
+        return Date.valueOf(LocalDate.of(2030, 6, day));
+    }
+}
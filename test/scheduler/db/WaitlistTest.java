@@ -0,0 +1,182 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import scheduler.model.Appointment;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.storage.Storages;
+import scheduler.storage.memory.MemoryStorage;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The Waitlist on the in-memory storage: patients are served first come first served, on their
+// own date when a caregiver's day frees up and on any of their dates when doses are added, and a
+// cancelled appointment goes to whoever waits for its day, or its dose to someone waiting for the
+// vaccine on another date.
+class WaitlistTest {
+
+    // the DoseLeaseManager outlives each test's storage, so every test leases its own vaccines
+    private static int vaccines = 0;
+
+    private final AvailabilityIndex index = AvailabilityIndex.getInstance();
+    private final DoseLeaseManager doses = DoseLeaseManager.getInstance();
+    private MemoryStorage storage;
+    private ReservationEngine engine;
+    private Waitlist waitlist;
+    private Caregiver alice;
+    private Caregiver bob;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        storage = new MemoryStorage();
+        Storages.use(storage);
+        alice = caregiver("alice");
+        bob = caregiver("bob");
+        for (int i = 0; i < 5; i++) {
+            storage.patients().save(new Patient.PatientBuilder("p" + i, new byte[16], new byte[16]).build());
+        }
+        index.load();
+        engine = new ReservationEngine(new IdAllocator(10), doses, index);
+        waitlist = new Waitlist(engine, doses);
+    }
+
+    @Test
+    void servesADateInJoinOrder() throws SQLException {
+        String vaccine = vaccine(10);
+        assertTrue(waitlist.join(date(1), vaccine, "p1"));
+        assertTrue(waitlist.join(date(1), vaccine, "p2"));
+        assertTrue(waitlist.join(date(1), vaccine, "p3"));
+        // joining again changes nothing
+        assertFalse(waitlist.join(date(1), vaccine, "p1"));
+        assertTrue(waitlist.takeBooked("p1").isEmpty());
+
+        alice.uploadAvailability(date(1));
+        waitlist.caregiverFreed(date(1));
+        assertEquals(List.of("p1"), bookedSoFar("p1", "p2", "p3"));
+
+        bob.uploadAvailability(date(1));
+        waitlist.caregiverFreed(date(1));
+        assertEquals(List.of("p2"), bookedSoFar("p1", "p2", "p3"));
+        assertEquals(1, waitlist.getWaiting("p3").size());
+    }
+
+    @Test
+    void addedDosesGoToTheOldestPatientsOnAnyDate() throws SQLException {
+        String vaccine = vaccine(0);
+        alice.uploadAvailability(List.of(date(1), date(2), date(3)));
+        assertTrue(waitlist.join(date(2), vaccine, "p1"));
+        assertTrue(waitlist.join(date(1), vaccine, "p2"));
+        assertTrue(waitlist.join(date(3), vaccine, "p3"));
+
+        storage.vaccines().addDoses(vaccine, 2);
+        waitlist.dosesAdded(vaccine, 2);
+        List<Waitlist.Entry> booked = waitlist.takeBooked("p1");
+        assertEquals(1, booked.size());
+        assertEquals(date(2), booked.get(0).getDate());
+        assertEquals("alice", booked.get(0).getCaregiver());
+        assertNotNull(storage.appointments().find(booked.get(0).getAppointmentId()));
+        assertEquals(List.of("p2"), bookedSoFar("p2", "p3"));
+        assertEquals(1, waitlist.getWaiting("p3").size());
+    }
+
+    @Test
+    void cancelledDayGoesToTheOldestPatientOnIt() throws SQLException {
+        String vaccine = vaccine(10);
+        alice.uploadAvailability(date(1));
+        ReservationEngine.Result taken = engine.reserve(date(1), vaccine, "p0");
+        assertEquals(ReservationEngine.Status.RESERVED, taken.getStatus());
+        assertTrue(waitlist.join(date(1), vaccine, "p1"));
+        assertTrue(waitlist.join(date(1), vaccine, "p2"));
+        assertEquals(List.of(), bookedSoFar("p1", "p2"));
+
+        cancel(taken);
+        assertEquals(List.of("p1"), bookedSoFar("p1", "p2"));
+        assertEquals(1, waitlist.getWaiting("p2").size());
+    }
+
+    @Test
+    void cancelledDaysAreServedTogether() throws SQLException {
+        String vaccine = vaccine(10);
+        alice.uploadAvailability(date(1));
+        bob.uploadAvailability(date(1));
+        ReservationEngine.Result first = engine.reserve(date(1), vaccine, "p0");
+        ReservationEngine.Result second = engine.reserve(date(1), vaccine, "p0");
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(waitlist.join(date(1), vaccine, "p" + i));
+        }
+
+        assertNotNull(engine.cancel(first.getAppointmentId()));
+        assertNotNull(engine.cancel(second.getAppointmentId()));
+        doses.release(vaccine);
+        doses.release(vaccine);
+        waitlist.appointmentsCancelled(date(1), vaccine, 2);
+        assertEquals(List.of("p1", "p2"), bookedSoFar("p1", "p2", "p3"));
+    }
+
+    @Test
+    void cancelledDoseGoesToAnotherDate() throws Exception {
+        String vaccine = vaccine(1);
+        alice.uploadAvailability(List.of(date(1), date(2)));
+        ReservationEngine.Result taken = engine.reserve(date(1), vaccine, "p0");
+        assertEquals(ReservationEngine.Status.RESERVED, taken.getStatus());
+        assertTrue(waitlist.join(date(2), vaccine, "p1"));
+        assertEquals(List.of(), bookedSoFar("p1"));
+
+        cancel(taken);
+        // the returned dose may also be picked up in the background, whichever gets there first
+        List<Waitlist.Entry> booked = waitlist.takeBooked("p1");
+        for (int i = 0; i < 500 && booked.isEmpty(); i++) {
+            Thread.sleep(10);
+            booked = waitlist.takeBooked("p1");
+        }
+        assertEquals(1, booked.size());
+        assertEquals(date(2), booked.get(0).getDate());
+        assertTrue(waitlist.getWaiting("p1").isEmpty());
+    }
+
+    // cancels the way cancel does: the caregiver's day and the dose go back, then the waitlist hears
+    private void cancel(ReservationEngine.Result reserved) throws SQLException {
+        Appointment cancelled = engine.cancel(reserved.getAppointmentId());
+        assertNotNull(cancelled);
+        doses.release(cancelled.getVaccineName());
+        waitlist.appointmentCancelled(cancelled.getTime(), cancelled.getVaccineName());
+    }
+
+    // which of the patients have been booked off the waitlist since the last call
+    private List<String> bookedSoFar(String... patients) {
+        List<String> booked = new ArrayList<>();
+        for (String patient : patients) {
+            if (!waitlist.takeBooked(patient).isEmpty()) {
+                booked.add(patient);
+            }
+        }
+        return booked;
+    }
+
+    private String vaccine(int doses) throws SQLException {
+        String vaccine = "waitlisted" + (++vaccines);
+        storage.vaccines().save(new Vaccine.VaccineBuilder(vaccine, doses).build());
+        return vaccine;
+    }
+
+    private Caregiver caregiver(String username) throws SQLException {
+        Caregiver caregiver = new Caregiver.CaregiverBuilder(username, new byte[16], new byte[16]).build();
+        storage.caregivers().save(caregiver);
+        return caregiver;
+    }
+
+    private static Date date(int day) {
+        return Date.valueOf(LocalDate.of(2030, 1, day));
+    }
+}
@@ -0,0 +1,153 @@
+package scheduler.storage.file;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The FileStorage reopened on the directory it wrote: whatever was reported done has to come back,
+// from the log alone, from a snapshot plus the log after it, and when the process died halfway
+// through writing a frame, which is cut off without losing the frames before it.
+class FileStorageTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysTheLog() throws Exception {
+        FileStorage storage = open();
+        fill(storage);
+        assertEquals(contents(storage), contents(open()));
+    }
+
+    @Test
+    void recoversFromSnapshotAndLogAfterIt() throws Exception {
+        FileStorage storage = open();
+        fill(storage);
+        storage.snapshot();
+        assertNotNull(storage.appointments().book(3, date(2), "pfizer", "pat", null));
+        assertNotNull(storage.appointments().cancel(1));
+        storage.vaccines().addDoses("moderna", 4);
+
+        FileStorage reopened = open();
+        assertEquals(contents(storage), contents(reopened));
+        assertNull(reopened.appointments().find(1));
+        // the log the snapshot replaced is gone
+        assertEquals(1, files("snapshot-").size());
+        assertEquals(1, files("wal-").size());
+    }
+
+    @Test
+    void cutsOffATornFrame() throws Exception {
+        FileStorage storage = open();
+        fill(storage);
+        String before = contents(storage);
+        Path segment = last(files("wal-"));
+        long size = Files.size(segment);
+        // a frame whose length and checksum made it to disk but whose contents only partly did
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(segment, StandardOpenOption.APPEND))) {
+            out.writeInt(100);
+            out.writeInt(12345);
+            out.write(new byte[10]);
+        }
+
+        FileStorage reopened = open();
+        assertEquals(before, contents(reopened));
+        assertEquals(size, Files.size(segment));
+        // and logging carries on from the last good frame
+        assertNotNull(reopened.appointments().book(3, date(2), "pfizer", "pat", null));
+        assertEquals(contents(reopened), contents(open()));
+    }
+
+    @Test
+    void dropsAFrameFailingItsChecksum() throws Exception {
+        FileStorage storage = open();
+        fill(storage);
+        String before = contents(storage);
+        storage.vaccines().addDoses("pfizer", 1);
+        Path segment = last(files("wal-"));
+        // the last byte of the last frame, which is the one adding the dose
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(segment, bytes);
+
+        assertEquals(before, contents(open()));
+        assertTrue(Files.size(segment) < bytes.length);
+    }
+
+    @Test
+    void cleansUpAnInterruptedSnapshot() throws Exception {
+        FileStorage storage = open();
+        fill(storage);
+        Path partial = dir.resolve("snapshot-0000000099.bin.tmp");
+        Files.write(partial, new byte[]{1, 2, 3});
+
+        assertEquals(contents(storage), contents(open()));
+        assertFalse(Files.exists(partial));
+    }
+
+    private FileStorage open() throws SQLException, IOException {
+        FileStorage storage = new FileStorage(dir, Long.MAX_VALUE);
+        storage.migrate();
+        return storage;
+    }
+
+    // a bit of every kind of change the storage logs
+    private static void fill(FileStorage storage) throws SQLException {
+        storage.patients().save(new Patient.PatientBuilder("pat", new byte[16], new byte[16]).build());
+        storage.caregivers().save(new Caregiver.CaregiverBuilder("alice", new byte[16], new byte[16]).build());
+        storage.caregivers().save(new Caregiver.CaregiverBuilder("bob", new byte[16], new byte[16]).build());
+        storage.availabilities().add(date(1), "alice");
+        storage.availabilities().addAll("bob", Arrays.asList(date(1), date(2), date(3)));
+        storage.vaccines().save(new Vaccine.VaccineBuilder("pfizer", 10).build());
+        storage.vaccines().save(new Vaccine.VaccineBuilder("moderna", 2).build());
+        assertTrue(storage.vaccines().removeDoses("pfizer", 2));
+        assertNotNull(storage.appointments().book(1, date(1), "pfizer", "pat", "alice"));
+        assertNotNull(storage.appointments().book(2, date(1), "pfizer", "pat", null));
+    }
+
+    // everything the storage holds, as text to compare
+    private static String contents(FileStorage storage) throws SQLException {
+        return storage.patients().exists("pat") + " " +
+                storage.caregivers().findExisting(Arrays.asList("alice", "bob", "carol")) + " " +
+                storage.availabilities().findAll() + " " +
+                storage.vaccines().findAll() + " " +
+                storage.appointments().findByPatient("pat");
+    }
+
+    private List<Path> files(String prefix) throws IOException {
+        List<Path> found = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(file -> file.getFileName().toString().startsWith(prefix)).sorted().forEach(found::add);
+        }
+        return found;
+    }
+
+    private static Path last(List<Path> files) {
+        return files.get(files.size() - 1);
+    }
+
+    private static Date date(int day) {
+        return Date.valueOf(LocalDate.of(2030, 1, day));
+    }
+}